@@ -0,0 +1,88 @@
+package chris.fortress.bench;
+
+import chris.fortress.socket.FrameCodec;
+import chris.fortress.socket.Protocol;
+import chris.fortress.socket.SharedMessage;
+
+import java.nio.ByteBuffer;
+
+/**Compares sending every player's position to every client by encoding the message once per client, and by encoding it once with
+ * SharedMessage and sharing it with every client's output. Each tick, every player sends one message (POS, then PROJECTILE in a second
+ * run) to all players, then every output is written to a channel that discards the bytes*/
+public class BroadcastBenchmark {
+	private static final int[] PLAYER_COUNTS = {8, 32, 128};
+	private static final int WARMUP_TICKS = 2000;
+	private static final int MEASURED_TICKS = 1000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		System.out.println("message      players   per client (ns/event)   encode once (ns/event)");
+		for (boolean projectile : new boolean[] {false, true}) {
+			for (int players : PLAYER_COUNTS) {
+				FrameCodec[] outputs = new FrameCodec[players];
+				for (int i = 0; i < players; i++) {
+					outputs[i] = new FrameCodec(64, 8192);
+				}
+				runTicks(outputs, WARMUP_TICKS, false, projectile);
+				runTicks(outputs, WARMUP_TICKS, true, projectile);
+				//Alternate between the two and keep the best round of each, to reduce noise from GC and the JIT
+				long perClient = Long.MAX_VALUE, encodeOnce = Long.MAX_VALUE;
+				for (int round = 0; round < ROUNDS; round++) {
+					perClient = Math.min(perClient, runTicks(outputs, MEASURED_TICKS, false, projectile));
+					encodeOnce = Math.min(encodeOnce, runTicks(outputs, MEASURED_TICKS, true, projectile));
+				}
+				long events = (long) MEASURED_TICKS * players;
+				System.out.printf("%-10s   %7d   %23.1f   %22.1f%n", projectile ? "PROJECTILE" : "POS", players,
+						perClient / (double) events, encodeOnce / (double) events);
+			}
+		}
+	}
+	/**@return How long the ticks took, in nanoseconds*/
+	private static long runTicks(FrameCodec[] outputs, int ticks, boolean shared, boolean projectile) {
+		DiscardChannel sink = new DiscardChannel();
+		long start = System.nanoTime();
+		for (int tick = 0; tick < ticks; tick++) {
+			for (int p = 0; p < outputs.length; p++) {
+				short x = (short) (tick + p), y = (short) (tick - p);
+				if (shared) {
+					SharedMessage encoder = SharedMessage.get();
+					if (projectile) {
+						encoder.writeByte(Protocol.PROJECTILE).writeShort(x).writeShort(y).writeFloat(0.7f).writeFloat(-0.7f).writeByte((byte) p);
+					} else {
+						encoder.writeByte(Protocol.POS).writeByte((byte) p).writeShort(x).writeShort(y);
+					}
+					ByteBuffer message = encoder.end();
+					for (FrameCodec output : outputs) {
+						synchronized (output) {
+							output.writeShared(message);
+						}
+					}
+				} else {
+					for (FrameCodec output : outputs) {
+						synchronized (output) {
+							if (projectile) {
+								output.writeByte(Protocol.PROJECTILE);
+								output.writeShort(x);
+								output.writeShort(y);
+								output.writeFloat(0.7f);
+								output.writeFloat(-0.7f);
+								output.writeByte((byte) p);
+							} else {
+								output.writeByte(Protocol.POS);
+								output.writeByte((byte) p);
+								output.writeShort(x);
+								output.writeShort(y);
+							}
+						}
+					}
+				}
+			}
+			for (FrameCodec output : outputs) {
+				output.writeTo(sink);
+			}
+		}
+		long time = System.nanoTime() - start;
+		if (sink.bytes == 0) throw new IllegalStateException();
+		return time;
+	}
+}
@@ -0,0 +1,88 @@
+package chris.fortress.bench;
+
+import chris.fortress.Game;
+import chris.fortress.GameServer;
+import chris.fortress.entity.player.Player;
+import chris.fortress.entity.projectile.ProjectileConfig;
+import chris.fortress.entity.projectile.ProjectileHandler;
+import chris.fortress.util.Collision;
+import com.badlogic.gdx.math.Rectangle;
+
+import java.util.Random;
+
+/**Compares checking every player against every projectile, like playerProjectileCollide() used to, with filling the projectile grid
+ * once per tick and checking each player against the projectiles near it (see SpatialGrid). The players and projectiles are spread
+ * over a 200 by 60 tile map, and no projectile hits a player, so every tick checks the same ones*/
+public class CollisionBenchmark {
+	private static final int PLAYERS = 32;
+	private static final int[] PROJECTILE_COUNTS = {100, 1000, 5000};
+	private static final int MAP_WIDTH = 200 * Game.SIZE, MAP_HEIGHT = 60 * Game.SIZE;
+	private static final int WARMUP_TICKS = 2000;
+	private static final int MEASURED_TICKS = 2000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		Game.setGame(new GameServer());
+		Random random = new Random(1);
+		Player[] players = new Player[PLAYERS];
+		for (int i = 0; i < players.length; i++) {
+			players[i] = new Player("bench", (byte) i, Player.MAX_HEALTH, null);
+			players[i].setX(random.nextInt(MAP_WIDTH - Player.WIDTH));
+			players[i].setY(random.nextInt(MAP_HEIGHT - Player.HEIGHT));
+		}
+		System.out.println("projectiles   every projectile (ns/player)   near projectiles (ns/player)");
+		int added = 0;
+		for (int projectiles : PROJECTILE_COUNTS) {
+			while (added < projectiles) {
+				float x = random.nextInt(MAP_WIDTH), y = random.nextInt(MAP_HEIGHT);
+				if (hitsPlayer(players, x, y)) continue;
+				ProjectileHandler.addProjectile(x, y, 0, 0, Game.RED, ProjectileConfig.gunshot.getID());
+				added++;
+			}
+			runTicks(players, WARMUP_TICKS, false);
+			runTicks(players, WARMUP_TICKS, true);
+			//Alternate between the two and keep the best round of each, to reduce noise from GC and the JIT
+			long scan = Long.MAX_VALUE, grid = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				scan = Math.min(scan, runTicks(players, MEASURED_TICKS, false));
+				grid = Math.min(grid, runTicks(players, MEASURED_TICKS, true));
+			}
+			long checks = (long) MEASURED_TICKS * PLAYERS;
+			System.out.printf("%11d   %28.1f   %28.1f%n", projectiles, scan / (double) checks, grid / (double) checks);
+		}
+	}
+	/**@return How long the ticks took, in nanoseconds*/
+	private static long runTicks(Player[] players, int ticks, boolean grid) {
+		long start = System.nanoTime();
+		for (int tick = 0; tick < ticks; tick++) {
+			if (grid) {
+				ProjectileHandler.index();
+				for (Player p : players) {
+					Collision.playerProjectileCollide(p, false);
+				}
+			} else {
+				for (Player p : players) {
+					scan(p);
+				}
+			}
+		}
+		return System.nanoTime() - start;
+	}
+	/**The check of every projectile that playerProjectileCollide() made before the grid*/
+	private static void scan(Player p) {
+		Rectangle pRect = new Rectangle(p.getX(), p.getY(), Player.WIDTH, Player.HEIGHT);
+		float delta = Game.getGame().getDeltaTime();
+		for (int i = ProjectileHandler.projectileCount() - 1; i >= 0; i--) {
+			if (pRect.contains(ProjectileHandler.getProjectile(i).getX() + delta * ProjectileHandler.getProjectile(i).getXDir(),
+					ProjectileHandler.getProjectile(i).getY() + delta * ProjectileHandler.getProjectile(i).getYDir())) {
+				throw new IllegalStateException("A projectile hit a player");
+			}
+		}
+	}
+	private static boolean hitsPlayer(Player[] players, float x, float y) {
+		for (Player p : players) {
+			if (x >= p.getX() && x <= p.getX() + Player.WIDTH && y >= p.getY() && y <= p.getY() + Player.HEIGHT) return true;
+		}
+		return false;
+	}
+}
\ No newline at end of file
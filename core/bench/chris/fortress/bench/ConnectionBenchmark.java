@@ -0,0 +1,207 @@
+package chris.fortress.bench;
+
+import chris.fortress.socket.ConnectionThreads;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**Compares the two ways the server can read its connections: a few selector threads (like SelectorThread), or a thread per connection
+ * that blocks on reads (like ConnectionThreads, with virtual threads on Java 21 and later). For 64, 256 and 1024 loopback connections that
+ * are idle, or that each send a small frame every 16 ms, it shows the live platform threads, the heap and resident memory, and the context
+ * switches per second of the whole process. The clients are the same in both modes (one thread sends to every connection), so the
+ * differences come from the server side. Context switches and resident memory are read from /proc, so they are only shown on Linux*/
+public class ConnectionBenchmark {
+	private static final int[] CONNECTION_COUNTS = {64, 256, 1024};
+	private static final int SELECTOR_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+	/**How often an active connection sends a frame, like a client sending one input command per frame*/
+	private static final long SEND_INTERVAL_NANOS = 16_000_000;
+	/**Size of the frames the active connections send*/
+	private static final int FRAME_SIZE = 8;
+	private static final int WARMUP_MILLIS = 1000;
+	private static final int MEASURED_MILLIS = 3000;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("Threads per connection are " + (ConnectionThreads.isVirtual() ? "virtual" : "platform") + " threads");
+		System.out.println("mode        connections   load     platform threads   heap (MB)   RSS (MB)   context switches/s");
+		for (boolean threads : new boolean[] {false, true}) {
+			for (int connections : CONNECTION_COUNTS) {
+				for (boolean active : new boolean[] {false, true}) {
+					run(threads, connections, active);
+				}
+			}
+		}
+	}
+	private static void run(boolean threads, int connections, boolean active) throws Exception {
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		List<SocketChannel> clients = new ArrayList<>();
+		List<SocketChannel> servers = new ArrayList<>();
+		List<SelectorLoop> selectorLoops = new ArrayList<>();
+		if (!threads) {
+			for (int i = 0; i < SELECTOR_THREADS; i++) {
+				SelectorLoop loop = new SelectorLoop();
+				loop.start();
+				selectorLoops.add(loop);
+			}
+		}
+		for (int i = 0; i < connections; i++) {
+			SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+			client.socket().setTcpNoDelay(true);
+			clients.add(client);
+			SocketChannel server = serverChannel.accept();
+			servers.add(server);
+			if (threads) {
+				ConnectionThreads.newThread("Input-" + i, () -> readBlocking(server)).start();
+			} else {
+				server.configureBlocking(false);
+				selectorLoops.get(i % selectorLoops.size()).register(server);
+			}
+		}
+		Thread sender = null;
+		if (active) {
+			sender = new Thread(() -> send(clients), "Sender");
+			sender.setDaemon(true);
+			sender.start();
+		}
+		Thread.sleep(WARMUP_MILLIS);
+		long switches = contextSwitches();
+		long start = System.nanoTime();
+		Thread.sleep(MEASURED_MILLIS);
+		double switchesPerSecond = (contextSwitches() - switches) / ((System.nanoTime() - start) / 1e9);
+		int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		System.gc();
+		long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+		long resident = residentBytes();
+		System.out.printf("%-10s  %11d   %-6s   %16d   %9.1f   %8s   %18s%n", threads ? "threads" : "selector", connections,
+				active ? "active" : "idle", platformThreads, heap / 1e6, resident < 0 ? "n/a" : String.format("%.1f", resident / 1e6),
+				switches < 0 ? "n/a" : String.format("%.0f", switchesPerSecond));
+		//Closing the connections ends the reading threads and the sender
+		for (SocketChannel client : clients) client.close();
+		for (SocketChannel server : servers) server.close();
+		for (SelectorLoop loop : selectorLoops) loop.shutdown();
+		serverChannel.close();
+		if (sender != null) sender.join();
+		Thread.sleep(200);
+	}
+	/**Thread per connection: reads until the connection is closed*/
+	private static void readBlocking(SocketChannel channel) {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		try {
+			while (channel.read(buffer) >= 0) {
+				buffer.clear();
+			}
+		} catch (IOException e) {
+			//Connection closed at the end of the run - ignore exception
+		}
+	}
+	/**Sends a frame to every connection every SEND_INTERVAL_NANOS, until they are closed*/
+	private static void send(List<SocketChannel> clients) {
+		ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_SIZE);
+		long next = System.nanoTime();
+		try {
+			while (true) {
+				for (SocketChannel client : clients) {
+					frame.clear();
+					client.write(frame);
+				}
+				next += SEND_INTERVAL_NANOS;
+				long wait = next - System.nanoTime();
+				if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+			}
+		} catch (IOException | InterruptedException e) {
+			//Connections closed at the end of the run - ignore exception
+		}
+	}
+	/**@return The voluntary and involuntary context switches of every thread in the process, or -1 if they can't be read*/
+	private static long contextSwitches() {
+		long total = 0;
+		try (DirectoryStream<Path> tasks = Files.newDirectoryStream(Paths.get("/proc/self/task"))) {
+			for (Path task : tasks) {
+				try {
+					for (String line : Files.readAllLines(task.resolve("status"))) {
+						if (line.startsWith("voluntary_ctxt_switches:") || line.startsWith("nonvoluntary_ctxt_switches:")) {
+							total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+						}
+					}
+				} catch (IOException e) {
+					//The thread ended while being read - ignore exception
+				}
+			}
+		} catch (IOException | UnsupportedOperationException e) {
+			return -1;
+		}
+		return total;
+	}
+	/**@return The resident memory of the process, or -1 if it can't be read*/
+	private static long residentBytes() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			//Not Linux - ignore exception
+		}
+		return -1;
+	}
+
+	/**Selector mode: one thread reading every connection registered with it*/
+	private static class SelectorLoop extends Thread {
+		private final Selector selector;
+		private final Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+		private volatile boolean running = true;
+
+		SelectorLoop() throws IOException {
+			super("Selector");
+			setDaemon(true);
+			selector = Selector.open();
+		}
+		void register(SocketChannel channel) {
+			newConnections.add(channel);
+			selector.wakeup();
+		}
+		void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					SocketChannel channel;
+					while ((channel = newConnections.poll()) != null) {
+						channel.register(selector, SelectionKey.OP_READ);
+					}
+					for (SelectionKey key : selector.selectedKeys()) {
+						buffer.clear();
+						if (!key.isValid() || ((SocketChannel) key.channel()).read(buffer) < 0) {
+							key.cancel();
+						}
+					}
+					selector.selectedKeys().clear();
+				}
+				selector.close();
+			} catch (IOException e) {
+				//Connections closed at the end of the run - ignore exception
+			}
+		}
+	}
+}
\ No newline at end of file
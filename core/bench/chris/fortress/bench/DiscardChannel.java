@@ -0,0 +1,38 @@
+package chris.fortress.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**A channel that accepts and throws away everything written to it, so benchmarks measure encoding instead of the network*/
+class DiscardChannel implements GatheringByteChannel {
+	long bytes;
+
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) {
+		long written = 0;
+		for (int i = offset; i < offset + length; i++) {
+			written += srcs[i].remaining();
+			srcs[i].position(srcs[i].limit());
+		}
+		bytes += written;
+		return written;
+	}
+	@Override
+	public long write(ByteBuffer[] srcs) {
+		return write(srcs, 0, srcs.length);
+	}
+	@Override
+	public int write(ByteBuffer src) {
+		int written = src.remaining();
+		src.position(src.limit());
+		bytes += written;
+		return written;
+	}
+	@Override
+	public boolean isOpen() {
+		return true;
+	}
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,59 @@
+package chris.fortress.bench;
+
+import chris.fortress.Game;
+import chris.fortress.Level;
+import chris.fortress.entity.player.Movement;
+import chris.fortress.entity.player.Player;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+
+/**A golden trace of the player physics: moves a player from the red spawn of a map with the same scripted keys every time, and prints a
+ * hash of its position and speed after every step, and how long a step takes. The physics is fixed point (see Fixed), so the hash is the
+ * same on every JVM and computer for the same map and tick rate, and only changes when the physics does. Run with:
+ * gradlew core:bench -Pbenchmark=PhysicsTrace --args="../demo/example.map 60"*/
+public class PhysicsTrace {
+	private static final int STEPS = 100_000;
+	/**How many steps the same keys are held for*/
+	private static final int KEY_STEPS = 20;
+
+	public static void main(String[] args) throws Exception {
+		String mapName = args.length > 0 ? args[0] : "../demo/example.map";
+		int tickRate = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		try (ObjectInputStream fileIn = new ObjectInputStream(new BufferedInputStream(new FileInputStream(mapName)))) {
+			Game.setLevel((Level) fileIn.readObject());
+		}
+		short[] spawn = Game.getLevel().getSpawn(Game.RED);
+		Player p = new Player("trace", (byte) 0, Player.MAX_HEALTH, null);
+		float delta = 1f / tickRate;
+		long hash = 0xcbf29ce484222325L;
+		//The same keys every run, from a fixed seed
+		long seed = 1;
+		long start = System.nanoTime();
+		for (int i = 0; i < STEPS; i++) {
+			if (i % 3000 == 0) {
+				p.setX(spawn[0]);
+				p.setY(spawn[1]);
+				p.setXDir(0);
+				p.setYDir(0);
+			}
+			if (i % KEY_STEPS == 0) {
+				seed = seed * 6364136223846793005L + 1442695040888963407L;
+				p.setKeys((byte) (seed >>> 60));
+			}
+			Movement.step(p, delta, false);
+			hash = mix(mix(mix(mix(hash, p.getFixedX()), p.getFixedY()), p.getFixedXDir()), p.getFixedYDir());
+		}
+		long time = System.nanoTime() - start;
+		System.out.printf("%d steps at %d ticks per second: trace %016x, last position %.4f,%.4f, %.1f ns/step%n", STEPS, tickRate, hash,
+				p.getX(), p.getY(), time / (double) STEPS);
+	}
+	/**FNV-1a over the 4 bytes of the value*/
+	private static long mix(long hash, int value) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			hash = (hash ^ (value >>> shift & 0xFF)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+}
\ No newline at end of file
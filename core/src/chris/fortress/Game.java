@@ -1,5 +1,8 @@
 package chris.fortress;
 
+import chris.fortress.util.TimingWheel;
+import com.badlogic.gdx.Gdx;
+
 /**The base version of the game physics class. Used for updating the game before drawing it.*/
 public abstract class Game {
 	/**The standard size of one game tile. Actual size varies depending on the screen resolution*/
@@ -8,30 +11,47 @@ public abstract class Game {
 	public static final boolean RED = true;
 	/**Constant representing the blue team*/
 	public static final boolean BLUE = false;
-	/**The current instance of game (either GameClient, GameServer, or GameMapMaker)*/
-	private static Game gameType;
-	/**The game map, either loaded from a file or created if using the map maker program*/
-	private static Level level;
+	/**The current instance of game (either GameClient, GameServer, or GameMapMaker). Each room has its own (see Room)*/
+	private static final RoomLocal<Game> gameType = new RoomLocal<>(() -> null);
+	/**The game map, either loaded from a file or created if using the map maker program. Each room has its own*/
+	private static final RoomLocal<Level> level = new RoomLocal<>(() -> null);
+	/**Runs the cooldowns, lifetimes and countdowns of this game*/
+	private final TimingWheel timingWheel;
 	
-	/**Creates an instance of Game with an empty level*/
+	/**Creates an instance of Game with an empty level, with a timing wheel that ticks every millisecond*/
 	public Game() {
-		level = new Level();
+		this(1000);
+	}
+	/**Creates an instance of Game with an empty level
+	 * @param tickRate How many times per second the timing wheel is ticked*/
+	protected Game(int tickRate) {
+		level.set(new Level());
+		timingWheel = new TimingWheel(tickRate);
 	}
 	/**Sets the current game type (either GameClient, GameServer, or GameMapMaker)*/
 	public static void setGame(Game gameType) {
-		Game.gameType = gameType;
+		Game.gameType.set(gameType);
 	}
 	/**@return The instance of the current game type*/
 	public static Game getGame() {
-		return gameType;
+		return gameType.get();
 	}
 	/**@return The game map object*/
 	public static Level getLevel() {
-		return level;
+		return level.get();
 	}
 	/**Sets the game level to a instance of Level*/
 	public static void setLevel(Level level) {
-		Game.level = level;
+		Game.level.set(level);
+	}
+	/**@return How many seconds of game time pass in this frame or tick. Physics that is shared by the client and the server is scaled by
+	 * this. The client uses the time since the last frame, the server a fixed time step (see GameServer)*/
+	public float getDeltaTime() {
+		return Gdx.graphics.getDeltaTime();
+	}
+	/**@return The timing wheel of this game. Only used by the thread that runs the game (see TimingWheel)*/
+	public TimingWheel getTimingWheel() {
+		return timingWheel;
 	}
 	/**The main game loop, called once per frame*/
 	protected abstract void updateLoop();
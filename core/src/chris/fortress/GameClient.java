@@ -5,12 +5,16 @@ import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerAnimator;
 import chris.fortress.entity.player.PlayerHandler;
 import chris.fortress.entity.player.PlayerSocket;
+import chris.fortress.entity.player.Prediction;
 import chris.fortress.entity.projectile.ProjectileConfig;
 import chris.fortress.entity.projectile.ProjectileHandler;
 import chris.fortress.input.Button;
 import chris.fortress.input.InputProcessorClient;
 import chris.fortress.item.ItemConfig;
+import chris.fortress.socket.MapBlob;
 import chris.fortress.socket.Protocol;
+import chris.fortress.socket.SendMessage;
+import chris.fortress.socket.Snapshots;
 import chris.fortress.tile.TileConfig;
 import chris.fortress.util.Collision;
 import chris.fortress.util.Timer;
@@ -19,27 +23,38 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
 
 public final class GameClient extends Game {
+	/**The room to play in when joining a server that runs more than one (see Room)*/
+	public static final int ROOM = Integer.getInteger("fortress.room", 0);
+	/**How many times a lobby can send the client on to another server before joining fails*/
+	private static final int MAX_REDIRECTS = 4;
 	/**Each team's score*/
 	private final short[] gameScore = new short[2];
 	/**This player's name*/
 	private String name;
 	/**This player's clientID (Each player knows every clientID, but must know which one specifically is theirs)*/
 	private byte clientID;
+	/**How many seconds of game time a tick of the server takes, sent with WELCOME. The client's own player is moved in steps this long (see Prediction)*/
+	private volatile float tickTime = Room.TICK_TIME;
 	/**A PlayerSocket for sending and receiving data from the server*/
 	private PlayerSocket socket;
 	/**A libgdx feature that is used to keep the view centred on the player, and adjust the game's zoom depending on the screen resolution*/
 	private OrthographicCamera camera;
 	/**Keeps track of how much time is left when the level starts*/
 	private Timer timer;
+	/**When the game was made. The timing wheel is ticked once for every millisecond since then*/
+	private final long start = System.nanoTime();
 	
 	/**Remains true until dispose() is called*/
 	private volatile boolean gameRunning = true;
 	
 	public GameClient() {
 		super();
+		//Every player's walking animation moves to the next image at the same time
+		getTimingWheel().scheduleRepeating(PlayerAnimator::updateAnimations, PlayerAnimator.ANIMATION_TIME);
 		//Initializes the camera and sets the camera's view port to the screen width and height
 		camera = new OrthographicCamera(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
 		
@@ -50,6 +65,8 @@ public final class GameClient extends Game {
 		//Call this whenever making changes to camera
 		camera.update();
 		
+		//Snapshots from a previous server can't be used
+		Snapshots.reset();
 		//Load resources needed to render the game
 		Button.setup();
 		ItemConfig.loadImages(false);
@@ -60,15 +77,21 @@ public final class GameClient extends Game {
 
 	@Override
 	protected void updateLoop() {
+		//Run the cooldowns, lifetimes and animations that are due
+		getTimingWheel().advanceTo((System.nanoTime() - start) / 1_000_000);
 		if (gameRunning) {
 			//Update player positions once per frame from the data received from the server
 			Protocol.updatePositions();
+			//Send the keys held to the server at its tick rate, and move this client's player without waiting for the server
+			if (Draw.getScreen() instanceof DrawMain) {
+				Prediction.update(Gdx.graphics.getDeltaTime(), ((DrawMain) Draw.getScreen()).getKeys());
+			}
 			//Projectile physics
 			ProjectileHandler.updateProjectiles();
-			//Client side projectile collision for every client that is alive
-			for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-				Player p = PlayerHandler.getPlayer(i);
-				if (p.getHealth() > 0) {
+			ProjectileHandler.index();
+			//Client side projectile collision for every client that is alive and near this client's player
+			for (Player p : PlayerHandler.getPlayers()) {
+				if (p.getHealth() > 0 && p.isInView()) {
 					Collision.playerProjectileCollide(p, false);
 				}
 			}
@@ -87,6 +110,10 @@ public final class GameClient extends Game {
 			getLevel().setColour(new Color(socket.readFloat(), socket.readFloat(), socket.readFloat(), 1));
 			//Get the map size
 			getLevel().createMap(socket.readShort(), socket.readShort());
+			//The tiles come next, in MAP_CHUNK messages
+			MapBlob.startReceiving();
+			//The server starts the level with no keys held
+			Prediction.reset();
 			//Rendering resources like fonts can only be initialized in the main loop, which is what postRunnable does
 			Gdx.app.postRunnable(()->Draw.setScreen(new DrawMain()));
 			
@@ -104,22 +131,44 @@ public final class GameClient extends Game {
 	/**Attempts to connect to a server given an IP address*/
 	public void tryToConnect(String address) {
 		new Thread(()->{
-			Socket s = null;
-			try {
-				s = new Socket(address, PlayerSocket.PORT);
-			} catch (IOException e) {
-				//Casting is allowed in this case because current screen must be DrawJoin. Tells DrawJoin to display error message
-				((DrawJoin) Draw.getScreen()).setFailedToConnect();
-				//End this method
-				return;
+			int port = PlayerSocket.PORT;
+			for (int redirects = 0; ; redirects++) {
+				SocketChannel s = null;
+				try {
+					s = SocketChannel.open(new InetSocketAddress(address, port));
+				} catch (IOException e) {
+					//Casting is allowed in this case because current screen must be DrawJoin. Tells DrawJoin to display error message
+					((DrawJoin) Draw.getScreen()).setFailedToConnect();
+					//End this method
+					return;
+				}
+				//Connection was successful, create a PlayerSocket
+				socket = new PlayerSocket(s);
+				//Tell server this player's name, and which room to play in
+				socket.writeString(name);
+				socket.writeByte((byte) ROOM);
+				socket.flush();
+				//A lobby answers by sending the client to one of its servers
+				byte answer = socket.readByte();
+				if (answer == Protocol.WELCOME) break;
+				//A full room closes the connection, which is read as an ERROR
+				if (answer != Protocol.REDIRECT) {
+					socket.dispose();
+					((DrawJoin) Draw.getScreen()).setFailedToConnect();
+					return;
+				}
+				port = socket.readShort() & 0xFFFF;
+				socket.dispose();
+				if (redirects == MAX_REDIRECTS) {
+					((DrawJoin) Draw.getScreen()).setFailedToConnect();
+					return;
+				}
 			}
-			//Connection was successful, create a PlayerSocket
-			socket = new PlayerSocket(s);
-			//Tell server this player's name
-			socket.writeString(name);
-			socket.flush();
-			//Get this player's clientID
+			//Get this player's clientID (the message before it is WELCOME)
 			clientID = socket.readByte();
+			tickTime = 1f / socket.readShort();
+			//The server only sends the players this client can see
+			SendMessage.sendViewToServer((short) Math.ceil(Draw.zoomedWidth()), (short) Math.ceil(Draw.zoomedHeight()));
 			//postRunnable makes Draw.setScreen run in the main loop, which is required for creating new fonts
 			Gdx.app.postRunnable(()->Draw.setScreen(new DrawWait()));
 			//Keeps waiting to receive data from the server (the client's input thread)
@@ -144,6 +193,10 @@ public final class GameClient extends Game {
 	public short getScore(boolean team) {
 		return gameScore[team == RED ? 0 : 1];
 	}
+	/**@return How many seconds of game time a tick of the server takes*/
+	public float getTickTime() {
+		return tickTime;
+	}
 	/**@return The clientID of this computer's player*/
 	public byte getClientID() {
 		return clientID;
@@ -173,14 +226,13 @@ public final class GameClient extends Game {
 	 * @param time The time remaining, in seconds
 	 */
 	public void setTimer(short time) {
-		timer = new Timer(time);
+		timer = new Timer(getTimingWheel(), time);
 	}
 	@Override
 	protected void dispose() {
 		//Stops this method from being called twice, for example if the server closes and the player closes the window at the same  time
 		if (gameRunning) {
 			gameRunning = false;
-			if (timer != null) timer.stopTimer();
 			if (socket != null) {
 				socket.dispose();
 			}
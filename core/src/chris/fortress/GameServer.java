@@ -1,18 +1,17 @@
 package chris.fortress;
 
-import chris.fortress.entity.Entity;
+import chris.fortress.entity.player.Movement;
 import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.entity.player.PlayerHistory;
 import chris.fortress.entity.projectile.ProjectileHandler;
 import chris.fortress.input.InputProcessorServer;
 import chris.fortress.socket.AddClient;
+import chris.fortress.socket.Interest;
+import chris.fortress.socket.NetworkStats;
 import chris.fortress.socket.SendMessage;
-import chris.fortress.tile.TileConfig;
-import chris.fortress.util.Collision;
+import chris.fortress.socket.Snapshots;
 import chris.fortress.util.Timer;
-import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.utils.ObjectMap.Entries;
-import com.badlogic.gdx.utils.ObjectMap.Entry;
 
 public class GameServer extends Game {
 	/**The original state, before the map has been loaded*/
@@ -25,88 +24,97 @@ public class GameServer extends Game {
 	public static final byte STATE_WIN = 3;
 	/**How many seconds the game should last*/
 	private static final short LEVEL_TIME = 5 * 60;
+	/**Server times (see getTime()) are counted from this time*/
+	private static final long START = System.nanoTime();
 	
-	/**The score of each team, index 0 = red, 1 = blue*/
-	private static final short[] gameScore = new short[2];
+	/**The state of each room's match, which is kept when a new GameServer replaces the old one at the end of a level*/
+	private static final RoomLocal<Match> match = new RoomLocal<>(Match::new);
 	/**Keeps track of how many players are on each team*/
 	private final short[] teams = new short[2];
-	
-	/**The current game state. Default is STATE_LOAD, which is when the server loads the map file*/
-	private static volatile byte state = STATE_LOAD;
 	/**Keeps track of how much time is left in the game*/
 	private Timer timer;
 	
-	private static float oldXDir;
+	private static final class Match {
+		/**The score of each team, index 0 = red, 1 = blue*/
+		private final short[] gameScore = new short[2];
+		/**The current game state. Default is STATE_LOAD, which is when the server loads the map file*/
+		private volatile byte state = STATE_LOAD;
+		/**How many socket writes were made when the clients were flushed at the end of the last tick. Messages are batched, so this is never more than the player count*/
+		private volatile int socketWritesLastTick;
+	}
 	
 	public GameServer() {
-		super();
-		Gdx.input.setInputProcessor(new InputProcessorServer());
+		super(Room.TICK_RATE);
 	}
+	/**Does nothing: every room is ticked by a worker thread instead of the render loop (see Room)*/
 	@Override
 	protected void updateLoop() {
+	}
+	/**@return The length of a tick. Every tick moves the game forward by the same time, however long it took to run (see Room)*/
+	@Override
+	public float getDeltaTime() {
+		return Room.TICK_TIME;
+	}
+	/**One tick of the room's game. Called by a worker thread, in the room (see Room)*/
+	void tick() {
+		Match match = GameServer.match.get();
+		//Run the cooldowns and lifetimes that are due
+		getTimingWheel().advance();
 		//Game physics loop
-		if (state == STATE_LEVEL) {
-			for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-				Player p = PlayerHandler.getPlayer(i);
+		if (match.state == STATE_LEVEL) {
+			//So each player is only checked against the projectiles near it
+			ProjectileHandler.index();
+			Player[] players = PlayerHandler.getPlayers();
+			for (int i = 0; i < players.length; i++) {
+				Player p = players[i];
+				//Use the next input command from the client
+				p.getInputQueue().apply(i);
 				//If the player is up to date on the game, and is alive, then it has game physics
 				if (!p.outputBlocked() && p.getHealth() > 0) {
-					oldXDir = p.getXDir();
-					if (p.left() && !p.right()) p.setXDir(Gdx.graphics.getDeltaTime() * -Player.SPEED);
-					else if (p.right() && !p.left()) p.setXDir(Gdx.graphics.getDeltaTime() * Player.SPEED);
-					else p.setXDir(0);
-					//Cap speed so collision works properly
-					if (p.getXDir() > Entity.MAX_SPEED) p.setXDir(Entity.MAX_SPEED);
-					else if (p.getXDir() < -Entity.MAX_SPEED) p.setXDir(-Entity.MAX_SPEED);
-					Collision.playerInLiquid(p);
-					Entries<Byte, int[]> tilesBelow = Collision.getTilesBelow(p).iterator();
-					while (tilesBelow.hasNext) {
-						Entry<Byte, int[]> tileAt = tilesBelow.next();
-						TileConfig tile = TileConfig.getTile(tileAt.key);
-						tile.preCollision(p, tileAt.value[0], tileAt.value[1]);
-					}
-					float oldX = p.getX(), oldY = p.getY();
-					//Checks player collision with tiles, items and projectiles
-					//Adjusts the player's position and speed so that the player does not collide
-					Collision.checkCollision(p, p.getYDir());
-
-					/*If player is moving or if position was adjusted*/
-					if (p.getYDir() != 0 || p.getXDir() != 0 || p.getX() != oldX || p.getY() != oldY) {
-						//Update x and y with collision-adjusted xDir and yDir
-						p.setX(p.getX() + p.getXDir());
-						p.setY(p.getY() + p.getYDir());
-						//Kill the player if it falls below the map
-						if (p.getY() < -Player.HEIGHT) {
-							//Kill the player
-							p.hurt(p.getHealth());
-							//Increase score of the other team
-							setScore(!p.getTeam(), (short) (getScore(!p.getTeam()) + 1));
-							//Tell every client that the player has 0 health left
-							SendMessage.sendHealthToClients(p.getClientID(), p.getHealth());
-						}
-						//Updates all the clients on this player's position
-						else SendMessage.sendPositionToAllClients(p);
-					}
+					Movement.step(p, Room.TICK_TIME, true);
+					p.countStep();
 				}
 			}
+			//Store where every player is, so hits can be checked against where the attacker saw the other players
+			PlayerHistory.record();
 			//Projectile physics
 			ProjectileHandler.updateProjectiles();
 			//If time has run out, tell all the clients to go to the WIN screen to show the winning team
 			if (timer.getTimeRemaining() <= 0) {
-				state = STATE_WIN;
+				match.state = STATE_WIN;
 				SendMessage.sendWinToClients();
 				//Create a fresh GameServer instance to reset the game
 				Game.setGame(new GameServer());
 			}
 		}
-		//Follow through on data received from the clients
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerHandler.getPlayer(i).getPSocket().useInActions();
+		//Follow through on data received from the clients. Players that leave meanwhile are still in this array, so none is skipped
+		for (Player p : PlayerHandler.getPlayers()) {
+			p.getPSocket().useInActions();
+		}
+		//Send every client where its own player is after the inputs used so far,
+		//and the positions of the players near it that changed since the last snapshot it received
+		if (match.state == STATE_LEVEL) {
+			SendMessage.sendMovementToClients();
+			Interest.update();
+			Snapshots.sendSnapshots();
 		}
+		//Send everything that was buffered during this tick, with one write per client
+		match.socketWritesLastTick = SendMessage.flushClients();
+		NetworkStats.countTick(match.socketWritesLastTick);
 	}
 	@Override
 	protected void dispose() {
-		if (timer != null) timer.stopTimer();
+		Room.stopRooms();
 		AddClient.dispose();
+		for (Room room : Room.getRooms()) {
+			room.run(GameServer::closeRoom);
+		}
+	}
+	/**Ends the game of the current room when the server closes*/
+	private static void closeRoom() {
+		GameServer server = (GameServer) Game.getGame();
+		//The server can close before the map is loaded, when only the first room has a game
+		if (server == null) return;
 		//Tell clients that the server is closing (as opposed to them just losing connection)
 		SendMessage.sendExitToClients();
 		for (int i = PlayerHandler.playerCount() - 1; i >= 0; i--) {
@@ -116,16 +124,20 @@ public class GameServer extends Game {
 	@Override
 	public void startGame() {
 		//If currently the WAIT state, move to the level state (where the game actually happens)
-		if (state == STATE_WAIT) {
+		Match match = GameServer.match.get();
+		if (match.state == STATE_WAIT) {
 			//Start the countdown until the the end of the level
-			timer = new Timer(LEVEL_TIME);
+			timer = new Timer(getTimingWheel(), LEVEL_TIME);
+			//Players are moved to the spawns, so every client starts the level with a full snapshot
+			Snapshots.reset();
+			PlayerHistory.reset();
 			for (int i = 0; i < PlayerHandler.playerCount(); i++) {
 				PlayerHandler.getPlayer(i).startPlayer(STATE_LEVEL);
 			}
-			state = STATE_LEVEL;
+			match.state = STATE_LEVEL;
 		}
 		//If the current state is WIN, change to WAIT
-		else if (state == STATE_WIN) {
+		else if (match.state == STATE_WIN) {
 			//Resets the score for the next level
 			setScore(RED, (short) 0);
 			setScore(BLUE, (short) 0);
@@ -143,12 +155,12 @@ public class GameServer extends Game {
 	}
 	/**Updates the server side score, sends the new score to all the clients*/
 	public void setScore(boolean team, short score) {
-		gameScore[team == RED ? 0 : 1] = score;
+		match.get().gameScore[team == RED ? 0 : 1] = score;
 		SendMessage.sendScoreToClients(team, score);
 	}
 	/**@return The score of the given team*/
 	public short getScore(boolean team) {
-		return gameScore[team == RED ? 0 : 1];
+		return match.get().gameScore[team == RED ? 0 : 1];
 	}
 	/**@return The team to add a player to in order to keep the teams balanced*/
 	public boolean addToTeam() {
@@ -168,19 +180,24 @@ public class GameServer extends Game {
 	public short getTeamCount(boolean team) {
 		return teams[team == RED ? 0 : 1];
 	}
-	/**@return The current game state (ex. STATE_WIN or STATE_LEVEL)*/
+	/**@return The current game state of the room (ex. STATE_WIN or STATE_LEVEL)*/
 	public static byte getGameState() {
-		return state;
+		return match.get().state;
 	}
-	/**Updates the current game state to the one provided*/
+	/**Updates the current game state of the room to the one provided*/
 	public static void setGameState(byte state) {
-		GameServer.state = state;
+		match.get().state = state;
 	}
 	/**@return The timer instance keeping track of how much time is remaining in the level*/
 	public Timer getTimer() {
 		return timer;
 	}
-	public static float getOldXDir() {
-		return oldXDir;
+	/**@return How many milliseconds the server has been running. Snapshots are sent with this time, and player positions are stored by it*/
+	public static int getTime() {
+		return (int) ((System.nanoTime() - START) / 1_000_000);
+	}
+	/**@return How many socket writes were made at the end of the given room's last tick*/
+	public static int getSocketWritesLastTick(Room room) {
+		return match.get(room).socketWritesLastTick;
 	}
 }
\ No newline at end of file
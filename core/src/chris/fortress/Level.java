@@ -1,6 +1,7 @@
 package chris.fortress;
 
 import chris.fortress.entity.player.PlayerSocket;
+import chris.fortress.socket.MapBlob;
 import chris.fortress.socket.SendMessage;
 import chris.fortress.tile.TileConfig;
 import com.badlogic.gdx.graphics.Color;
@@ -8,6 +9,7 @@ import com.badlogic.gdx.graphics.Color;
 import java.io.File;
 import java.io.Serializable;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -40,6 +42,8 @@ public class Level implements Serializable {
 	private List<short[]> items = new ArrayList<>();
 	/**The background colour, stored as a float (RGB values between 0 and 1)*/
 	private float[] backgroundColourValues;
+	/**Server side: the compressed tile map that is sent to joining players, made once per level*/
+	private transient ByteBuffer mapBlob;
 	
 	/**Creates a level with an empty map*/
 	public Level() {
@@ -118,10 +122,19 @@ public class Level implements Serializable {
 	 */
 	public void createMap(int width, int height) {
 		map = new byte[height][width];
+		mapBlob = null;
 	}
 	/**Sets the tile at the given position in tile units to tileID*/
 	public void setTileAt(int x, int y, byte tileID) {
 		map[y][x] = tileID;
+		mapBlob = null;
+	}
+	/**@return The compressed tile map (see MapBlob), which is only made the first time it is needed*/
+	public synchronized ByteBuffer getMapBlob() {
+		if (mapBlob == null) {
+			mapBlob = MapBlob.encode(this);
+		}
+		return mapBlob;
 	}
 	/**Returns the tileID at the given location (in tile units)*/
 	public byte getTileAt(int x, int y) {
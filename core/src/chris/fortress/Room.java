@@ -0,0 +1,191 @@
+package chris.fortress;
+
+import chris.fortress.entity.player.PlayerHandler;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**Server side: one match. The server runs COUNT rooms side by side in one process, and each has its own level, players, projectiles,
+ * scores and timer (see RoomLocal). Clients pick a room when they join. The rooms are ticked TICK_RATE times per second by a fixed pool of
+ * worker threads, at most one per core, and a room is only ticked by one thread at a time. Threads that aren't in a room use the first
+ * one, so the client and the map maker, which only have one game, use it too.
+ * <p>
+ * Every tick moves the game forward by TICK_TIME, however long it takes to run or how late it starts, so the physics doesn't depend on
+ * timing. A room keeps the time when its next tick is due: when a worker thread gets to the room late, the ticks that are due are run
+ * one after the other to catch up, up to MAX_CATCH_UP, and the rest are dropped (see getOverruns() and getDroppedTicks()).
+ */
+public final class Room {
+	/**How many rooms the server runs. Clients pick one with a byte, so there can be at most 256*/
+	public static final int COUNT = Math.max(1, Math.min(256, Integer.getInteger("fortress.rooms", 1)));
+	/**How many times per second every room is ticked, for example 30, 60 or 120*/
+	public static final int TICK_RATE = Math.max(1, Math.min(1000, Integer.getInteger("fortress.tickRate", 60)));
+	/**How many seconds of game time pass in a tick*/
+	public static final float TICK_TIME = 1f / TICK_RATE;
+	private static final long TICK_NANOS = 1_000_000_000L / TICK_RATE;
+	/**How many ticks a room can run in a row to catch up when it is late. Ticks it is still behind by are dropped, so a room that can't
+	 * keep up slows the game down instead of freezing to run everything it missed*/
+	private static final int MAX_CATCH_UP = Math.max(1, Integer.getInteger("fortress.maxCatchUp", 4));
+	/**How many worker threads tick the rooms. More threads than cores would only take turns*/
+	private static final int WORKERS = Math.min(COUNT, Runtime.getRuntime().availableProcessors());
+	/**Set for servers started by a lobby: every second, the server prints a line starting with STATUS, then its player count and how long
+	 * its slowest room takes to tick in microseconds (see Lobby)*/
+	public static final boolean REPORT_STATUS = Boolean.getBoolean("fortress.lobbyStatus");
+	public static final String STATUS = "STATUS ";
+
+	/**The room of each thread that is in one*/
+	private static final ThreadLocal<Room> current = new ThreadLocal<>();
+	private static final Room[] rooms = createRooms();
+	private static ScheduledExecutorService workers;
+
+	private final int number;
+	/**How long a tick of this room takes, averaged over the last few ticks*/
+	private volatile long tickNanos;
+	/**When the next tick of this room is due, as System.nanoTime(). Only used by the worker thread ticking the room*/
+	private long nextTick;
+	/**Ticks that took longer than TICK_NANOS, and ticks that were dropped because the room was too far behind. Only written by the
+	 * worker thread ticking the room*/
+	private volatile long overruns, droppedTicks;
+	/**The value of each RoomLocal by its index, or null. Replaced as a whole when a value is added, so reading takes no lock*/
+	private volatile Object[] values = new Object[0];
+
+	private Room(int number) {
+		this.number = number;
+	}
+	private static Room[] createRooms() {
+		Room[] rooms = new Room[COUNT];
+		for (int i = 0; i < rooms.length; i++) {
+			rooms[i] = new Room(i);
+		}
+		return rooms;
+	}
+	/**@return The room that the calling thread is in, or the first room*/
+	public static Room current() {
+		Room room = current.get();
+		return room != null ? room : rooms[0];
+	}
+	/**@return The room with the given number, or null if there isn't one*/
+	public static Room get(int number) {
+		return number >= 0 && number < rooms.length ? rooms[number] : null;
+	}
+	/**@return Every room. The array must not be changed by the caller*/
+	public static Room[] getRooms() {
+		return rooms;
+	}
+	public int getNumber() {
+		return number;
+	}
+	/**Runs the task in this room, so the RoomLocals it uses are this room's. Used by threads that aren't in a room, for example when a
+	 * selector thread adds a player that has joined*/
+	public void run(Runnable task) {
+		Room previous = current.get();
+		current.set(this);
+		try {
+			task.run();
+		} finally {
+			if (previous != null) current.set(previous);
+			else current.remove();
+		}
+	}
+	/**Server side: starts ticking every room. Called once the map has been loaded*/
+	public static void startRooms() {
+		AtomicInteger threads = new AtomicInteger();
+		workers = Executors.newScheduledThreadPool(WORKERS, task -> {
+			Thread thread = new Thread(task, "Room-" + threads.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		long start = System.nanoTime();
+		for (Room room : rooms) {
+			room.nextTick = start;
+			workers.scheduleAtFixedRate(room::update, 0, TICK_NANOS, TimeUnit.NANOSECONDS);
+		}
+		if (REPORT_STATUS) {
+			workers.scheduleAtFixedRate(Room::reportStatus, 0, 1, TimeUnit.SECONDS);
+		}
+	}
+	/**Prints the STATUS line for the lobby*/
+	private static void reportStatus() {
+		int players = 0;
+		long slowestTick = 0;
+		for (Room room : rooms) {
+			players += PlayerHandler.getPlayers(room).length;
+			slowestTick = Math.max(slowestTick, room.tickNanos);
+		}
+		System.out.println(STATUS + players + " " + slowestTick / 1000);
+	}
+	/**Server side: stops ticking the rooms, once the ticks that are running have finished*/
+	public static void stopRooms() {
+		if (workers == null) return;
+		workers.shutdown();
+		try {
+			workers.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			//Server is closing - ignore exception
+		}
+	}
+	/**Runs the ticks that are due, at most MAX_CATCH_UP of them. Called by a worker thread every TICK_NANOS, which can be late when
+	 * the workers are busy with other rooms or the last tick took too long*/
+	private void update() {
+		long now = System.nanoTime();
+		for (int ticks = 0; now - nextTick >= 0 && ticks < MAX_CATCH_UP; ticks++) {
+			tick();
+			nextTick += TICK_NANOS;
+		}
+		if (now - nextTick >= 0) {
+			long behind = (now - nextTick) / TICK_NANOS + 1;
+			droppedTicks += behind;
+			nextTick += behind * TICK_NANOS;
+		}
+	}
+	private void tick() {
+		long start = System.nanoTime();
+		current.set(this);
+		try {
+			((GameServer) Game.getGame()).tick();
+		} catch (RuntimeException e) {
+			//An exception would stop the room from being ticked again, so it is printed and the room carries on
+			e.printStackTrace();
+		} finally {
+			current.remove();
+		}
+		long time = System.nanoTime() - start;
+		tickNanos += (time - tickNanos) / 8;
+		if (time > TICK_NANOS) overruns++;
+	}
+	/**@return How long a tick of this room takes, averaged over the last few ticks, in nanoseconds*/
+	public long getTickNanos() {
+		return tickNanos;
+	}
+	/**@return How many ticks of this room took longer than a tick should*/
+	public long getOverruns() {
+		return overruns;
+	}
+	/**@return How many ticks this room has dropped because it was too far behind to catch up*/
+	public long getDroppedTicks() {
+		return droppedTicks;
+	}
+	@SuppressWarnings("unchecked")
+	<T> T get(RoomLocal<T> local) {
+		Object[] values = this.values;
+		if (local.index < values.length && values[local.index] != null) {
+			return (T) values[local.index];
+		}
+		synchronized (this) {
+			values = this.values;
+			if (local.index < values.length && values[local.index] != null) {
+				return (T) values[local.index];
+			}
+			T value = local.initialValue();
+			set(local, value);
+			return value;
+		}
+	}
+	synchronized <T> void set(RoomLocal<T> local, T value) {
+		Object[] values = Arrays.copyOf(this.values, Math.max(this.values.length, RoomLocal.count()));
+		values[local.index] = value;
+		this.values = values;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+package chris.fortress;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**A value that every room has its own copy of, like a ThreadLocal for rooms (see Room). The state of a match (the level, the players,
+ * the projectiles, the scores...) is kept in these instead of in static fields, so the same code runs every room. get() gives the copy
+ * of the room that the calling thread is in, which is made the first time it is needed.
+ */
+public final class RoomLocal<T> {
+	private static final AtomicInteger count = new AtomicInteger();
+
+	/**Where the rooms keep this value*/
+	final int index = count.getAndIncrement();
+	private final Supplier<? extends T> initial;
+
+	/**@param initial Makes the value for a room that doesn't have one yet*/
+	public RoomLocal(Supplier<? extends T> initial) {
+		this.initial = initial;
+	}
+	/**@return The value of the room that the calling thread is in (see Room.current())*/
+	public T get() {
+		return Room.current().get(this);
+	}
+	/**@return The value of the given room. Used by threads that aren't in a room, such as the UdpServer thread*/
+	public T get(Room room) {
+		return room.get(this);
+	}
+	/**Replaces the value of the room that the calling thread is in*/
+	public void set(T value) {
+		Room.current().set(this, value);
+	}
+	T initialValue() {
+		return initial.get();
+	}
+	/**@return How many RoomLocals have been made*/
+	static int count() {
+		return count.get();
+	}
+}
\ No newline at end of file
@@ -4,8 +4,9 @@ import chris.fortress.draw.Draw;
 import chris.fortress.draw.DrawJoin;
 import chris.fortress.draw.DrawLoadMap;
 import chris.fortress.draw.DrawServer;
-import chris.fortress.util.Timer;
+import chris.fortress.input.InputProcessorServer;
 import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 
@@ -38,7 +39,11 @@ public class Start extends ApplicationAdapter {
 		//Creates the correct instance of Game and Draw given gameType
 		if (gameType == SERVER) {
 			Game.setGame(new GameServer());
+			Gdx.input.setInputProcessor(new InputProcessorServer());
 			Draw.setScreen(new DrawServer());
+			if (System.getProperty("fortress.map") != null) {
+				InputProcessorServer.loadMap(System.getProperty("fortress.map"));
+			}
 		}
 		else if (gameType == CLIENT) {
 			Game.setGame(new GameClient());
@@ -61,6 +66,5 @@ public class Start extends ApplicationAdapter {
 		renderer.dispose();
 		Game.getGame().dispose();
 		Draw.getScreen().dispose();
-		Timer.dispose();
 	}
 }
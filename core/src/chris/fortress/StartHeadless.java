@@ -0,0 +1,38 @@
+package chris.fortress;
+
+import chris.fortress.entity.player.PlayerSocket;
+import chris.fortress.input.InputProcessorServer;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+
+/**Starts a server without a window, for the headless backend (see ServerLauncher). Like Start with Start.SERVER, but nothing is drawn,
+ * so no GL context, textures or fonts are needed, and the map is loaded when the server starts instead of being typed in*/
+public class StartHeadless extends ApplicationAdapter {
+	/**The file name of the map, in the level folder, or its full path*/
+	private final String mapName;
+
+	public StartHeadless(String mapName) {
+		this.mapName = mapName;
+	}
+	/**Loads the map into every room and starts the server, or closes it if the map can't be loaded*/
+	@Override
+	public void create() {
+		Game.setGame(new GameServer());
+		InputProcessorServer.loadMap(mapName);
+		if (GameServer.getGameState() == GameServer.STATE_LOAD) {
+			Gdx.app.exit();
+			return;
+		}
+		System.out.println("Server started on port " + PlayerSocket.PORT + " with " + Room.COUNT + " room(s)");
+	}
+	//The rooms are ticked by their own threads (see Room), so the render loop only keeps the application running
+	@Override
+	public void render() {
+		Game.getGame().updateLoop();
+	}
+	//Called to release resources created during the game
+	@Override
+	public void dispose() {
+		Game.getGame().dispose();
+	}
+}
\ No newline at end of file
@@ -91,9 +91,8 @@ public final class DrawMain extends Draw {
 			ProjectileHandler.getProjectile(i).drawImage(batch);
 		}
 		//Draw players (SpriteBatch part)
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			Player p = PlayerHandler.getPlayer(i);
-			if (p.getHealth() > 0 && p.getX() > leftBound && p.getX() < rightBound && p.getY() > bottomBound && p.getY() < topBound) {
+		for (Player p : PlayerHandler.getPlayers()) {
+			if (p.getHealth() > 0 && p.isInView() && p.getX() > leftBound && p.getX() < rightBound && p.getY() > bottomBound && p.getY() < topBound) {
 				p.getAnimator().drawPlayerImage(batch, smallFont, glyphLayout);
 			}
 		}
@@ -110,9 +109,8 @@ public final class DrawMain extends Draw {
 		}
 		
 		//Draw players (ShapeRenderer part)
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			Player p = PlayerHandler.getPlayer(i);
-			if (p.getHealth() > 0 && p.getX() > leftBound && p.getX() < rightBound && p.getY() > bottomBound && p.getY() < topBound) {
+		for (Player p : PlayerHandler.getPlayers()) {
+			if (p.getHealth() > 0 && p.isInView() && p.getX() > leftBound && p.getX() < rightBound && p.getY() > bottomBound && p.getY() < topBound) {
 				p.getAnimator().drawPlayerShape(renderer);
 			}
 		}
@@ -147,28 +145,16 @@ public final class DrawMain extends Draw {
 	public void keyPressed(int keycode) {
 		switch (keycode) {
 		case Keys.A:
-			if (!left) {
-				left = true;
-				SendMessage.sendKeyPressedToServer(Player.LEFT);
-			}
+			left = true;
 			return;
 		case Keys.D:
-			if (!right) {
-				right = true;
-				SendMessage.sendKeyPressedToServer(Player.RIGHT);
-			}
+			right = true;
 			return;
 		case Keys.S:
-			if (!down) {
-				down = true;
-				SendMessage.sendKeyPressedToServer(Player.DOWN);
-			}
+			down = true;
 			return;
 		case Keys.SPACE:
-			if (!jump) {
-				jump = true;
-				SendMessage.sendKeyPressedToServer(Player.JUMP);
-			}
+			jump = true;
 			return;
 		}
 	}
@@ -176,31 +162,23 @@ public final class DrawMain extends Draw {
 	public void keyReleased(int keycode) {
 		switch (keycode) {
 		case Keys.A:
-			if (left) {
-				left = false;
-				SendMessage.sendKeyReleasedToServer(Player.LEFT);
-			}
+			left = false;
 			return;
 		case Keys.D:
-			if (right) {
-				right = false;
-				SendMessage.sendKeyReleasedToServer(Player.RIGHT);
-			}
+			right = false;
 			return;
 		case Keys.S:
-			if (down) {
-				down = false;
-				SendMessage.sendKeyReleasedToServer(Player.DOWN);
-			}
+			down = false;
 			return;
 		case Keys.SPACE:
-			if (jump) {
-				jump = false;
-				SendMessage.sendKeyReleasedToServer(Player.JUMP);
-			}
+			jump = false;
 			return;
 		}
 	}
+	/**@return The movement keys being held, one bit per key (sent to the server every tick, see Prediction)*/
+	public byte getKeys() {
+		return (byte) ((left ? 1 << Player.LEFT : 0) | (right ? 1 << Player.RIGHT : 0) | (down ? 1 << Player.DOWN : 0) | (jump ? 1 << Player.JUMP : 0));
+	}
 	@Override
 	public void mouseScrolled(int amount) {
 		Player player = PlayerHandler.getPlayer(PlayerHandler.clientIndexOf(((GameClient) Game.getGame()).getClientID()));
@@ -1,6 +1,9 @@
 package chris.fortress.draw;
 
+import chris.fortress.GameServer;
 import chris.fortress.Level;
+import chris.fortress.Room;
+import chris.fortress.entity.player.PlayerHandler;
 import chris.fortress.input.InputProcessorServer;
 import chris.fortress.util.Resource;
 import com.badlogic.gdx.Gdx;
@@ -46,6 +49,15 @@ public class DrawServer extends Draw {
 			} catch (UnknownHostException e) {
 				e.printStackTrace();
 			}
+			int players = 0, socketWrites = 0;
+			long overruns = 0;
+			for (Room room : Room.getRooms()) {
+				players += PlayerHandler.getPlayers(room).length;
+				socketWrites += GameServer.getSocketWritesLastTick(room);
+				overruns += room.getOverruns() + room.getDroppedTicks();
+			}
+			glyphLayout.setText(serverFont, "Players: " + players + (Room.COUNT > 1 ? " in " + Room.COUNT + " rooms" : "") + "   Socket writes last tick: " + socketWrites + "   Late ticks: " + overruns);
+			serverFont.draw(batch, glyphLayout, Gdx.graphics.getWidth() / 2 - glyphLayout.width / 2, Gdx.graphics.getHeight() * 0.3f);
 		} else {
 			if (fileError) {
 				glyphLayout.setText(serverFont, "Error: Unable to load map.");
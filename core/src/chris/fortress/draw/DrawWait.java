@@ -108,7 +108,7 @@ public class DrawWait extends Draw {
 		mouseX *= camera.zoom;
 		mouseY *= camera.zoom;
 		if (startButton.release(mouseX, mouseY)) {
-			((GameClient) Game.getGame()).getSocket().writeByte(Protocol.START);
+			((GameClient) Game.getGame()).getSocket().writeMessage(Protocol.START);
 			((GameClient) Game.getGame()).getSocket().flush();
 		}
 		else if (exitButton.release(mouseX, mouseY)) {
@@ -97,7 +97,7 @@ public class DrawWin extends Draw {
 		mouseX *= camera.zoom;
 		mouseY *= camera.zoom;
 		if (newButton.release(mouseX, mouseY)) {
-			((GameClient) Game.getGame()).getSocket().writeByte(Protocol.START);
+			((GameClient) Game.getGame()).getSocket().writeMessage(Protocol.START);
 			((GameClient) Game.getGame()).getSocket().flush();
 		}
 		else if (leaveButton.release(mouseX, mouseY)) {
@@ -1,41 +1,69 @@
 package chris.fortress.entity;
 
-/**A base class for everything in the game that has an x, y, x speed, y speed, and belongs to a team*/
+import chris.fortress.util.Fixed;
+
+/**A base class for everything in the game that has an x, y, x speed, y speed, and belongs to a team. The position and speed are kept
+ * in fixed point (see Fixed): the physics uses them as they are, and the float getters and setters convert them for everything else*/
 public abstract class Entity {
 	public static final float MAX_SPEED = 20;
+	public static final int FIXED_MAX_SPEED = Fixed.of(MAX_SPEED);
 	
-	private float x, y, xDir, yDir;
+	private int x, y, xDir, yDir;
 	private boolean team;
 	
 	public Entity(float x, float y, float xDir, float yDir, boolean team) {
-		this.x = x;
-		this.y = y;
-		this.xDir = xDir;
-		this.yDir = yDir;
+		this.x = Fixed.of(x);
+		this.y = Fixed.of(y);
+		this.xDir = Fixed.of(xDir);
+		this.yDir = Fixed.of(yDir);
 		this.team = team;
 	}
 	public float getX() {
-		return x;
+		return Fixed.toFloat(x);
 	}
 	public void setX(float x) {
-		this.x = x;
+		this.x = Fixed.of(x);
 	}
 	public float getY() {
-		return y;
+		return Fixed.toFloat(y);
 	}
 	public void setY(float y) {
-		this.y = y;
+		this.y = Fixed.of(y);
 	}
 	public float getXDir() {
-		return xDir;
+		return Fixed.toFloat(xDir);
 	}
 	public void setXDir(float xDir) {
-		this.xDir = xDir;
+		this.xDir = Fixed.of(xDir);
 	}
 	public float getYDir() {
-		return yDir;
+		return Fixed.toFloat(yDir);
 	}
 	public void setYDir(float yDir) {
+		this.yDir = Fixed.of(yDir);
+	}
+	public int getFixedX() {
+		return x;
+	}
+	public void setFixedX(int x) {
+		this.x = x;
+	}
+	public int getFixedY() {
+		return y;
+	}
+	public void setFixedY(int y) {
+		this.y = y;
+	}
+	public int getFixedXDir() {
+		return xDir;
+	}
+	public void setFixedXDir(int xDir) {
+		this.xDir = xDir;
+	}
+	public int getFixedYDir() {
+		return yDir;
+	}
+	public void setFixedYDir(int yDir) {
 		this.yDir = yDir;
 	}
 	public boolean getTeam() {
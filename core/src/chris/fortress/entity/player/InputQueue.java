@@ -0,0 +1,56 @@
+package chris.fortress.entity.player;
+
+/**Server side: the input commands from a client that its player hasn't used yet. The client sends one command per tick with the keys it
+ * holds and where it aims (Protocol.INPUT, see Prediction), and the server uses one per tick, so commands that arrive in a burst are used
+ * one after another instead of all at once. Commands that arrive late or twice are dropped. If no command is waiting, the player keeps the keys of
+ * the last one, and since every command has every key, a lost command can't leave a key held
+ */
+public final class InputQueue {
+	/**How many commands are kept. When the queue is full, the oldest command is dropped*/
+	private static final int SIZE = 8;
+	/**When more commands than this are waiting, the older ones are skipped so the player doesn't fall further behind the client*/
+	private static final int MAX_WAITING = 3;
+
+	/**The waiting commands, oldest first from index first*/
+	private final short[] sequences = new short[SIZE];
+	private final byte[] keys = new byte[SIZE], aims = new byte[SIZE];
+	private int first, count;
+	/**The number of the newest command added, to drop older ones*/
+	private boolean hasNewest;
+	private short newest;
+	/**The aim of the last command used*/
+	private byte aim;
+
+	/**Adds a command from the client. Called in the game loop, oldest command first*/
+	public void add(short sequence, byte commandKeys, byte commandAim) {
+		if (hasNewest && (short) (sequence - newest) <= 0) return;
+		hasNewest = true;
+		newest = sequence;
+		if (count == SIZE) {
+			first = (first + 1) % SIZE;
+			count--;
+		}
+		int i = (first + count++) % SIZE;
+		sequences[i] = sequence;
+		keys[i] = commandKeys;
+		aims[i] = commandAim;
+	}
+	/**Gives the player the keys of the oldest waiting command, and tells the other clients if its aim changed. Called once per tick,
+	 * before the player moves*/
+	public void apply(int cI) {
+		if (count == 0) return;
+		while (count > MAX_WAITING) {
+			first = (first + 1) % SIZE;
+			count--;
+		}
+		Player p = PlayerHandler.getPlayer(cI);
+		p.setKeys(keys[first]);
+		p.applyInput(sequences[first]);
+		if (aims[first] != aim) {
+			aim = aims[first];
+			PlayerHandler.mouseUpdate(cI, aim);
+		}
+		first = (first + 1) % SIZE;
+		count--;
+	}
+}
\ No newline at end of file
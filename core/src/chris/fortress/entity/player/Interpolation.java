@@ -0,0 +1,139 @@
+package chris.fortress.entity.player;
+
+/**Client side smoothing for the players this client doesn't move itself. Every position from a snapshot is stored with the server time it
+ * was taken at, and players are drawn a short delay in the past, between the two positions around that time. Positions that arrive in
+ * bursts or late then don't make the players jump. If no newer position has arrived, the player keeps moving the way it was for a short
+ * time, then stops
+ */
+public final class Interpolation {
+	/**How far in the past players are drawn, in milliseconds. Part of the protocol rather than a setting, since the server rewinds hits
+	 * by the same delay to check them against what the attacker saw (see PlayerHistory)*/
+	public static final int DELAY = 100;
+	/**How long a player keeps moving after the newest position, in milliseconds*/
+	private static final int EXTRAPOLATE = 100;
+	/**How many positions are stored for each player*/
+	private static final int SAMPLES = 16;
+	/**A player that moves further than this between two positions is moved there right away (for example when respawning)*/
+	private static final float TELEPORT = 256;
+	/**Snapshots are not sent while nothing moves. A player that moves after a longer gap than this is taken to have started moving this
+	 * long before the new position, instead of moving slowly through the whole gap*/
+	private static final int START_GAP = 50;
+	private static final long START = System.nanoTime();
+
+	/**Stored positions by clientID, only made for players that are sent*/
+	private static final Track[] tracks = new Track[256];
+	/**How far the local clock is ahead of the server's clock, in milliseconds (the smallest difference seen, so it includes the fastest trip)*/
+	private static float offset;
+	private static boolean hasOffset;
+	/**Reused to return positions*/
+	private static final float[] position = new float[2];
+
+	private Interpolation() {}
+	/**Stores a position from a snapshot
+	 * @param serverTime When the snapshot was taken, in milliseconds on the server's clock*/
+	public static synchronized void add(byte clientID, int serverTime, short x, short y) {
+		float sampleOffset = now() - serverTime;
+		if (!hasOffset || sampleOffset < offset) {
+			offset = sampleOffset;
+			hasOffset = true;
+		} else {
+			//Drift slowly towards later arrivals, in case the clocks run at slightly different speeds
+			offset += (sampleOffset - offset) / 100;
+		}
+		int id = clientID & 0xFF;
+		if (tracks[id] == null) tracks[id] = new Track();
+		tracks[id].add(serverTime, x, y);
+	}
+	/**Forgets the positions of a player, so the next one is used right away*/
+	public static synchronized void clear(byte clientID) {
+		Track track = tracks[clientID & 0xFF];
+		if (track != null) track.count = 0;
+	}
+	/**Forgets every position. Called when connecting to a server*/
+	public static synchronized void reset() {
+		for (Track track : tracks) {
+			if (track != null) track.count = 0;
+		}
+		hasOffset = false;
+	}
+	/**Moves every player with stored positions to where it was DELAY milliseconds ago. Called once per frame*/
+	public static synchronized void update() {
+		if (!hasOffset) return;
+		float renderTime = now() - offset - DELAY;
+		for (Player p : PlayerHandler.getPlayers()) {
+			Track track = tracks[p.getClientID() & 0xFF];
+			if (track != null && track.count > 0 && !Prediction.isPredicted(p.getClientID())) {
+				track.sample(renderTime, position);
+				p.getAnimator().updatePosition(position[0], position[1]);
+			}
+		}
+	}
+	private static float now() {
+		return (System.nanoTime() - START) / 1_000_000f;
+	}
+
+	/**The newest positions of one player, oldest first*/
+	private static final class Track {
+		private final int[] times = new int[SAMPLES];
+		private final short[] x = new short[SAMPLES], y = new short[SAMPLES];
+		/**Index of the oldest position*/
+		private int first;
+		private int count;
+
+		private void add(int time, short newX, short newY) {
+			if (count > 0) {
+				int newest = index(count - 1);
+				//Snapshots are only used in order, but a position can be sent twice for the same time
+				if (time - times[newest] <= 0) return;
+				if (Math.abs(newX - x[newest]) > TELEPORT || Math.abs(newY - y[newest]) > TELEPORT) {
+					count = 0;
+				} else if (time - times[newest] > 2 * START_GAP && (newX != x[newest] || newY != y[newest])) {
+					put(time - START_GAP, x[newest], y[newest]);
+				}
+			}
+			put(time, newX, newY);
+		}
+		private void put(int time, short newX, short newY) {
+			if (count == SAMPLES) {
+				first = (first + 1) % SAMPLES;
+				count--;
+			}
+			int i = index(count++);
+			times[i] = time;
+			x[i] = newX;
+			y[i] = newY;
+		}
+		/**Finds where the player was at the given time*/
+		private void sample(float time, float[] out) {
+			int newest = index(count - 1);
+			if (time >= times[newest]) {
+				//No position for this time yet, keep moving the way the player was for a short time
+				if (count == 1) {
+					out[0] = x[newest];
+					out[1] = y[newest];
+					return;
+				}
+				int previous = index(count - 2);
+				float ahead = Math.min(time - times[newest], EXTRAPOLATE) / (times[newest] - times[previous]);
+				out[0] = x[newest] + (x[newest] - x[previous]) * ahead;
+				out[1] = y[newest] + (y[newest] - y[previous]) * ahead;
+				return;
+			}
+			//Find the two positions around the time (or the oldest one if the time is before all of them)
+			int after = 0;
+			while (after < count - 1 && times[index(after)] <= time) after++;
+			if (after == 0) {
+				out[0] = x[index(0)];
+				out[1] = y[index(0)];
+				return;
+			}
+			int a = index(after - 1), b = index(after);
+			float alpha = (time - times[a]) / (times[b] - times[a]);
+			out[0] = x[a] + (x[b] - x[a]) * alpha;
+			out[1] = y[a] + (y[b] - y[a]) * alpha;
+		}
+		private int index(int i) {
+			return (first + i) % SAMPLES;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package chris.fortress.entity.player;
+
+import chris.fortress.Game;
+import chris.fortress.GameServer;
+import chris.fortress.RoomLocal;
+import chris.fortress.entity.Entity;
+import chris.fortress.socket.SendMessage;
+import chris.fortress.tile.TileConfig;
+import chris.fortress.util.Collision;
+import chris.fortress.util.Fixed;
+import com.badlogic.gdx.utils.ObjectMap.Entries;
+import com.badlogic.gdx.utils.ObjectMap.Entry;
+
+/**The movement step of a player: speed from the keys being held, gravity and jumping from the tiles below, then tile collision. The server
+ * moves every player with it once per tick. The client moves its own player with the same step, so it doesn't have to wait for the
+ * server to see the player move (see Prediction). The step only uses fixed-point positions and speeds (see Fixed), so the same
+ * position, keys and delta always give exactly the same result.
+ * <p>
+ * The vertical speeds are per step, so they are scaled to the length of the step, and a jump goes as high and takes as long at every
+ * tick rate: speeds by the step's length compared to a 60th of a second, and gravity, which is added every step, by that squared
+ */
+public final class Movement {
+	/**Steps are this long when the vertical speeds in Player are used as they are*/
+	private static final float BASE_STEP = 1 / 60f;
+	/**The step being made in each room (see Room)*/
+	private static final RoomLocal<Step> current = new RoomLocal<>(Step::new);
+
+	/**
+	 * Moves the player one step
+	 * @param delta The time since the last step, in seconds
+	 * @param serverSide True on the server, where the player also collides with items and projectiles, and dies if it falls below the map
+	 */
+	public static void step(Player p, float delta, boolean serverSide) {
+		Step step = current.get();
+		step.setDelta(delta);
+		step.oldXDir = p.getFixedXDir();
+		//Cap speed so collision works properly
+		int speed = Math.min(Fixed.of(delta * Player.SPEED), Entity.FIXED_MAX_SPEED);
+		if (p.left() && !p.right()) p.setFixedXDir(-speed);
+		else if (p.right() && !p.left()) p.setFixedXDir(speed);
+		else p.setFixedXDir(0);
+		Collision.playerInLiquid(p);
+		Entries<Byte, int[]> tilesBelow = Collision.getTilesBelow(p).iterator();
+		while (tilesBelow.hasNext) {
+			Entry<Byte, int[]> tileAt = tilesBelow.next();
+			TileConfig tile = TileConfig.getTile(tileAt.key);
+			tile.preCollision(p, tileAt.value[0], tileAt.value[1]);
+		}
+		int oldX = p.getFixedX(), oldY = p.getFixedY();
+		//Adjusts the player's position and speed so that the player does not collide
+		if (serverSide) {
+			//Checks player collision with tiles, items and projectiles
+			Collision.checkCollision(p, p.getFixedYDir());
+		} else {
+			Collision.tileCollision(p, p.getFixedYDir());
+		}
+		/*If player is moving or if position was adjusted*/
+		if (p.getFixedYDir() != 0 || p.getFixedXDir() != 0 || p.getFixedX() != oldX || p.getFixedY() != oldY) {
+			//Update x and y with collision-adjusted xDir and yDir
+			p.setFixedX(p.getFixedX() + p.getFixedXDir());
+			p.setFixedY(p.getFixedY() + p.getFixedYDir());
+			//Kill the player if it falls below the map
+			if (serverSide && p.getFixedY() < -Player.FIXED_HEIGHT) {
+				//Kill the player
+				p.hurt(p.getHealth());
+				//Increase score of the other team
+				GameServer server = (GameServer) Game.getGame();
+				server.setScore(!p.getTeam(), (short) (server.getScore(!p.getTeam()) + 1));
+				//Tell every client that the player has 0 health left
+				SendMessage.sendHealthToClients(p.getClientID(), p.getHealth());
+			}
+		}
+	}
+	/**@return The xDir of the player being moved, from the step before, in fixed point*/
+	public static int getOldXDir() {
+		return current.get().oldXDir;
+	}
+	/**@return The yDir a jump starts with, in fixed point*/
+	public static int getJumpSpeed() {
+		return current.get().jump;
+	}
+	/**@return How much yDir changes every step while falling, in fixed point*/
+	public static int getGravity() {
+		return current.get().gravity;
+	}
+	/**@return The yDir of a player swimming up, in fixed point*/
+	public static int getSwimUpSpeed() {
+		return current.get().swimUp;
+	}
+	/**@return The fastest yDir a player falls at, in fixed point*/
+	public static int getMaxFallSpeed() {
+		return current.get().maxFall;
+	}
+	/**@return What is left of the yDir of a player in a liquid after a step: half at 60 steps per second, so a sinking player falls at
+	 * the same speed at every tick rate*/
+	public static int slowInLiquid(int yDir) {
+		return yDir * current.get().liquidKeep / Fixed.ONE;
+	}
+
+	/**The xDir from the step before, and the vertical speeds scaled for the length of the step*/
+	private static final class Step {
+		private int oldXDir;
+		private float delta = -1;
+		private int jump, gravity, swimUp, maxFall, liquidKeep;
+
+		private void setDelta(float delta) {
+			if (delta == this.delta) return;
+			this.delta = delta;
+			float scale = delta / BASE_STEP;
+			jump = Fixed.of(Player.JUMP_HEIGHT * scale);
+			gravity = Fixed.of(Player.GRAVITY * scale * scale);
+			swimUp = Fixed.of(Player.SWIM_UP_SPEED * scale);
+			//A step never moves a whole tile, so collision can't skip one
+			maxFall = Math.min(Fixed.of(Entity.MAX_SPEED * scale), Fixed.TILE - 1);
+			//A player sinking at a steady speed keeps 1 / (1 + scale) of it, which falls by gravity * scale per step
+			liquidKeep = Fixed.of(1 / (1 + scale));
+		}
+	}
+}
\ No newline at end of file
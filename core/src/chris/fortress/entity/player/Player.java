@@ -2,28 +2,39 @@ package chris.fortress.entity.player;
 
 import chris.fortress.Game;
 import chris.fortress.GameServer;
+import chris.fortress.Room;
 import chris.fortress.entity.Entity;
 import chris.fortress.item.ItemConfig;
 import chris.fortress.socket.Protocol;
 import chris.fortress.socket.SendMessage;
-import chris.fortress.tile.TileConfig;
-import chris.fortress.util.Timer;
+import chris.fortress.util.Fixed;
+import chris.fortress.util.TimingWheel.Timeout;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.ByteArray;
 
-import java.net.Socket;
-import java.util.concurrent.TimeUnit;
-
 /**The player class, which stores information such as the player's name, ID, and inventory*/
 public class Player extends Entity {
 	public static final float MAX_HEALTH = 100;
 	public static final byte LEFT = 0, RIGHT = 1, DOWN = 2, JUMP = 3;
 	public static final int WIDTH = 36, HEIGHT = 60, TILE_WIDTH = 2;
 	public static final float SPEED = 240;
+	/**Vertical speeds in pixels per step, and gravity in pixels per step per step, at 60 steps per second. Movement scales them to the
+	 * length of the step*/
 	public static final float JUMP_HEIGHT = 11.5f;
 	public static final float GRAVITY = -0.52f;
 	public static final boolean FACING_LEFT = true, FACING_RIGHT = false;
 	public static final byte FALLING_FAST = -10;
 	public static final float SWIM_UP_SPEED = 2;
+	/**The sizes above in fixed point, for the physics (see Fixed)*/
+	public static final int FIXED_WIDTH = Fixed.of(WIDTH), FIXED_HEIGHT = Fixed.of(HEIGHT);
+	/**Server side: the client is sent its player's movement at least this often (in steps), in case the last one was lost*/
+	private static final int MOVEMENT_REFRESH = 16;
+	/**How many directions the aim in an input command can point in (see getAim())*/
+	private static final int AIM_STEPS = 256;
+	/**The server tells the other clients about a player's aim as a mouse position this far from the player*/
+	private static final float AIM_DISTANCE = 1000;
+	/**How long a player can't be hurt again after being hurt, in milliseconds*/
+	private static final int INVULNERABLE_TIME = 200;
 	
 	private PlayerSocket playerSocket;
 	private PlayerAnimator animator;
@@ -37,17 +48,33 @@ public class Player extends Entity {
 	
 	private boolean left = false, right = false, down = false, jump = false;
 	private boolean canUseItem = true;
-	private volatile boolean invulnerable;
+	private boolean invulnerable;
+	/**Server side: end the item cooldown, and the time when the player can't be hurt. The same ones are scheduled every time*/
+	private final Timeout itemCooldown = new Timeout(this::allowItem), invulnerableTimeout = new Timeout(this::setVulnerable);
 	private boolean blockOutput = true;
+	/**Server side: the input commands from the client that haven't been used yet*/
+	private final InputQueue inputQueue = new InputQueue();
+	/**Server side: the number of the last input command used, and how many steps the player has moved since then (see Prediction)*/
+	private short inputSequence;
+	private short stepsSinceInput;
+	/**Server side: the movement last sent to the client, and how many steps ago*/
+	private float sentX, sentY, sentXDir, sentYDir;
+	private int stepsSinceSent = MOVEMENT_REFRESH;
+	/**Client side: false while the server doesn't send this player's position, because it is far from this client's player*/
+	private volatile boolean inView = true;
 	
-	public Player(Socket socket, byte clientID) {
+	/**For creating a server side player once the client has connected and sent its name*/
+	public Player(PlayerSocket playerSocket, byte clientID, String name) {
 		super(-100, -100, 0, 0, false);
-		playerSocket = new PlayerSocket(socket, this);
+		this.playerSocket = playerSocket;
 		this.clientID = clientID;
+		this.name = name;
 		health = MAX_HEALTH;
-		name = playerSocket.readString();
+		playerSocket.setPlayer(this);
+		playerSocket.writeMessage(Protocol.WELCOME);
 		playerSocket.writeByte(clientID);
-		playerSocket.startInputThread();
+		playerSocket.writeShort((short) Room.TICK_RATE);
+		SendMessage.sendUdpTokenToClient(playerSocket);
 	}
 	/**For creating a client side player (doesn't have a PlayerSocket, but does have a PlayerAnimator)*/
 	public Player(String name, byte clientID, float health) {
@@ -78,7 +105,7 @@ public class Player extends Entity {
 		if (serverSide) {
 			if (playerSocket != null) playerSocket.dispose();
 		} else {
-			if (animator != null) animator.stopTimers();
+			if (animator != null) animator.disposeItemAnimator();
 		}
 	}
 	public boolean jump() { return jump; }
@@ -90,47 +117,73 @@ public class Player extends Entity {
 		if (health <= 0) {
 			setX(spawnX);
 			setY(spawnY);
-			//Server sets the player movement variables to false. If the player is moving, it will send a new request to move when respawning
+			//Server sets the player movement variables to false. The next input command from the client sets them again
 			down = false;
 			jump = false;
 			right = false;
 			left = false;
 			setHealth(Player.MAX_HEALTH);
 			SendMessage.sendHealthToClients(clientID, health);
-			SendMessage.sendPositionToAllClients(this);
 		}
 	}
-	public void startMoving(byte movement) {
-		switch (movement) {
-		case LEFT:
-			left = true;
-			break;
-		case RIGHT:
-			right = true;
-			break;
-		case DOWN:
-			down = true;
-			break;
-		case JUMP:
-			jump = true;
-			break;
-		}
+	/**Sets every movement key at once
+	 * @param keys One bit per key, for example 1 << LEFT*/
+	public void setKeys(byte keys) {
+		left = (keys & 1 << LEFT) != 0;
+		right = (keys & 1 << RIGHT) != 0;
+		down = (keys & 1 << DOWN) != 0;
+		jump = (keys & 1 << JUMP) != 0;
 	}
-	public void stopMoving(byte movement) {
-		switch (movement) {
-		case LEFT:
-			left = false;
-			break;
-		case RIGHT:
-			right = false;
-			break;
-		case DOWN:
-			down = false;
-			break;
-		case JUMP:
-			jump = false;
-			break;
+	/**@return The movement keys being held, one bit per key*/
+	public byte getKeys() {
+		return (byte) ((left ? 1 << LEFT : 0) | (right ? 1 << RIGHT : 0) | (down ? 1 << DOWN : 0) | (jump ? 1 << JUMP : 0));
+	}
+	/**@return The direction from the centre of the player to the mouse, as one of AIM_STEPS angles*/
+	public static byte getAim(Player p, float mouseX, float mouseY) {
+		float angle = MathUtils.atan2(mouseY - p.getY() - HEIGHT / 2, mouseX - p.getX() - WIDTH / 2);
+		return (byte) MathUtils.round(angle / MathUtils.PI2 * AIM_STEPS);
+	}
+	/**@return The x of a mouse position in the direction of the aim*/
+	public static float getAimX(Player p, byte aim) {
+		return p.getX() + WIDTH / 2 + AIM_DISTANCE * MathUtils.cos(aim * MathUtils.PI2 / AIM_STEPS);
+	}
+	/**@return The y of a mouse position in the direction of the aim*/
+	public static float getAimY(Player p, byte aim) {
+		return p.getY() + HEIGHT / 2 + AIM_DISTANCE * MathUtils.sin(aim * MathUtils.PI2 / AIM_STEPS);
+	}
+	/**Server side: the input commands from the client that haven't been used yet*/
+	public InputQueue getInputQueue() {
+		return inputQueue;
+	}
+	/**Server side: called after an input command from the client has been used*/
+	public void applyInput(short inputSequence) {
+		this.inputSequence = inputSequence;
+		stepsSinceInput = 0;
+	}
+	/**Server side: called after every movement step*/
+	public void countStep() {
+		if (stepsSinceInput < Short.MAX_VALUE) stepsSinceInput++;
+		stepsSinceSent++;
+	}
+	public short getInputSequence() {
+		return inputSequence;
+	}
+	public short getStepsSinceInput() {
+		return stepsSinceInput;
+	}
+	/**Server side: checks if the client should be sent its player's movement, and if so remembers it as sent
+	 * @return True if the movement changed since it was last sent, or it hasn't been sent for a while*/
+	public boolean movementChanged() {
+		//A new command arrives every tick, so only a change in the movement itself is sent right away
+		if (stepsSinceSent < MOVEMENT_REFRESH && getX() == sentX && getY() == sentY && getXDir() == sentXDir && getYDir() == sentYDir) {
+			return false;
 		}
+		sentX = getX();
+		sentY = getY();
+		sentXDir = getXDir();
+		sentYDir = getYDir();
+		stepsSinceSent = 0;
+		return true;
 	}
 	public byte getEquippedItemID() {
 		return equippedItemID;
@@ -147,7 +200,7 @@ public class Player extends Entity {
 	/**Called server side when the player just used an item. Player can't use the item again until the ItemConfig.getTimeGap() passes*/
 	protected void startItemCooldown() {
 		canUseItem = false;
-		Timer.getScheduledExecutorService().schedule(()->allowItem(), ItemConfig.getItem(equippedItemID).getTimeGap(), TimeUnit.MILLISECONDS);
+		Game.getGame().getTimingWheel().schedule(itemCooldown, ItemConfig.getItem(equippedItemID).getTimeGap());
 	}
 	public boolean hurt(float damage) {
 		boolean tookDamage = false;
@@ -159,7 +212,7 @@ public class Player extends Entity {
 				newHealth = 0;
 			}
 			this.health = newHealth;
-			Timer.getScheduledExecutorService().schedule(()->setVulnerable(), 200, TimeUnit.MILLISECONDS);
+			Game.getGame().getTimingWheel().schedule(invulnerableTimeout, INVULNERABLE_TIME);
 		}
 		return tookDamage;
 	}
@@ -200,13 +253,14 @@ public class Player extends Entity {
 	}
 	/**Server side code for updating the players when a new player joins.
 	 * Used every time a player joins during the LEVEL or WIN state. Called for every player when the level starts.
+	 * The messages are sent when the server flushes the clients at the end of the tick.
 	 * @param state The current game state*/
 	public void startPlayer(byte state) {
 		synchronized (playerSocket.getOutput()) {
 			if (state == GameServer.STATE_LEVEL) {
-				playerSocket.writeByte(Protocol.TIMER);
+				playerSocket.writeMessage(Protocol.TIMER);
 				playerSocket.writeShort((short) ((GameServer) Game.getGame()).getTimer().getTimeRemaining());
-				playerSocket.writeByte(Protocol.START);
+				playerSocket.writeMessage(Protocol.START);
 				Game.getLevel().sendMapInfo(playerSocket);
 				setTeam(((GameServer) Game.getGame()).addToTeam());
 				short[] spawn = Game.getLevel().getSpawn(getTeam());
@@ -220,54 +274,42 @@ public class Player extends Entity {
 					}
 					SendMessage.sendTeamToClient(playerSocket, p.getClientID(), p.getTeam());
 					SendMessage.sendPositionToClient(playerSocket, p.getClientID(), (short) p.getX(), (short) p.getY());
-					PlayerHandler.getPlayer(i).getPSocket().flush();
 				}
 				for (int i = 0; i <= 1; i++) {
-					playerSocket.writeByte(Protocol.SCORE);
+					playerSocket.writeMessage(Protocol.SCORE);
 					playerSocket.writeBoolean(i == 0 ? Game.RED : Game.BLUE);
 					playerSocket.writeShort(((GameServer) Game.getGame()).getScore(i == 0 ? Game.RED : Game.BLUE));
 				}
 				//Sends all the tiles in the game
-				for (short x = 0; x < Game.getLevel().getMapWidth(); x++) {
-					for (short y = 0; y < Game.getLevel().getMapHeight(); y++) {
-						if (Game.getLevel().getTileAt(x, y) != TileConfig.air.getID()) {
-							playerSocket.writeByte(Protocol.TILE);
-							playerSocket.writeShort(x);
-							playerSocket.writeShort(y);
-							playerSocket.writeByte(Game.getLevel().getTileAt(x, y));
-						}
-					}
-				}
+				SendMessage.sendMapToClient(playerSocket);
 				//Sends all the items in the game
 				for (int i = 0; i < Game.getLevel().getItemCount(); i++) {
 					//item[0]=x, item[1]=y, item[2]=itemID
-					playerSocket.writeByte(Protocol.ADD_ITEM);
+					playerSocket.writeMessage(Protocol.ADD_ITEM);
 					playerSocket.writeShort(Game.getLevel().getItemAt(i)[0]);
 					playerSocket.writeShort(Game.getLevel().getItemAt(i)[1]);
 					playerSocket.writeByte((byte) Game.getLevel().getItemAt(i)[2]);
 				}
 				for (int i = 0; i < PlayerHandler.playerCount(); i++) {
 					for (int j = 0; j < PlayerHandler.getPlayer(i).gatheredItems.size; j++) {
-						playerSocket.writeByte(Protocol.GATHER);
+						playerSocket.writeMessage(Protocol.GATHER);
 						playerSocket.writeByte(PlayerHandler.getPlayer(i).getClientID());
 						playerSocket.writeByte(PlayerHandler.getPlayer(i).gatheredItems.get(j));
 					}
 					if (PlayerHandler.getPlayer(i).getEquippedItemID() >= 0) {
-						playerSocket.writeByte(Protocol.EQUIP);
+						playerSocket.writeMessage(Protocol.EQUIP);
 						playerSocket.writeByte(PlayerHandler.getPlayer(i).getClientID());
 						playerSocket.writeByte(PlayerHandler.getPlayer(i).getEquippedItemID());
 					}
 				}
-				playerSocket.flush();
 			}
 			else if (state == GameServer.STATE_WIN) {
 				for (int i = 0; i <= 1; i++) {
-					playerSocket.writeByte(Protocol.SCORE);
+					playerSocket.writeMessage(Protocol.SCORE);
 					playerSocket.writeBoolean(i == 0 ? Game.RED : Game.BLUE);
 					playerSocket.writeShort(((GameServer) Game.getGame()).getScore(i == 0 ? Game.RED : Game.BLUE));
 				}
-				playerSocket.writeByte(Protocol.WIN);
-				playerSocket.flush();
+				playerSocket.writeMessage(Protocol.WIN);
 			}
 		}
 		unblock();
@@ -278,6 +320,12 @@ public class Player extends Entity {
 	public boolean outputBlocked() {
 		return blockOutput;
 	}
+	public boolean isInView() {
+		return inView;
+	}
+	public void setInView(boolean inView) {
+		this.inView = inView;
+	}
 	public PlayerAnimator getAnimator() {
 		return animator;
 	}
@@ -6,7 +6,7 @@ import chris.fortress.entity.projectile.ProjectileConfig;
 import chris.fortress.item.ItemAnimator;
 import chris.fortress.item.ItemConfig;
 import chris.fortress.util.Resource;
-import chris.fortress.util.Timer;
+import chris.fortress.util.TimingWheel.Timeout;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
@@ -18,14 +18,16 @@ import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer.ShapeType;
 import com.badlogic.gdx.utils.Array;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
 /**A client side class for drawing the player*/
 public class PlayerAnimator {
+	/**How often the players' walking animations move to the next image, in milliseconds (see GameClient)*/
+	public static final int ANIMATION_TIME = 50;
+	/**How long a player is drawn walking after it last moved, in milliseconds*/
+	private static final int KEEP_MOVING_TIME = 50;
 	private Player p;
 	private static final Array<Sprite> images = new Array<>();
-	private ScheduledFuture<?> updateTimer, keepMovingTimer;
+	/**Stops the walking animation when the player hasn't moved for a while. Scheduled again every time the player moves*/
+	private final Timeout keepMovingTimeout = new Timeout(this::stopMoving);
 	private int playerAnimation;
 	private boolean direction;
 	private ItemAnimator itemAnimator;
@@ -38,7 +40,12 @@ public class PlayerAnimator {
 	
 	public PlayerAnimator(Player p) {
 		this.p = p;
-		updateTimer = Timer.getScheduledExecutorService().scheduleAtFixedRate(()->update(), 50, 50, TimeUnit.MILLISECONDS);
+	}
+	/**Moves the walking animation of every player to the next image. Run every ANIMATION_TIME by the client's timing wheel*/
+	public static void updateAnimations() {
+		for (Player p : PlayerHandler.getPlayers()) {
+			if (p.getAnimator() != null) p.getAnimator().update();
+		}
 	}
 	private void update() {
 		try {
@@ -80,8 +87,7 @@ public class PlayerAnimator {
 	public static Sprite getImage(int imageIndex) {
 		return images.get(imageIndex);
 	}
-	public void stopTimers() {
-		updateTimer.cancel(true);
+	public void disposeItemAnimator() {
 		if (itemAnimator != null) itemAnimator.dispose();
 	}
 	public void updateWeapon(short mouseX, short mouseY) {
@@ -188,22 +194,27 @@ public class PlayerAnimator {
 			return null;
 		}
 	}
-	public void updatePosition(short x, short y) {
-		if (x < p.getX()) {
+	public void updatePosition(float x, float y) {
+		float oldX = p.getX();
+		p.setX(x);
+		p.setY(y);
+		moved(oldX);
+	}
+	/**Faces the player the way it moved since it was at oldX*/
+	public void moved(float oldX) {
+		if (p.getX() < oldX) {
 			direction = Player.FACING_LEFT;
 			startMoving();
 		}
-		else if (x > p.getX()) {
+		else if (p.getX() > oldX) {
 			direction = Player.FACING_RIGHT;
 			startMoving();
 		}
-		p.setX(x);
-		p.setY(y);
 	}
 	private void startMoving() {
 		keepMoving = true;
-		if (keepMovingTimer != null && !keepMovingTimer.isDone()) keepMovingTimer.cancel(true);
-		keepMovingTimer = Timer.getScheduledExecutorService().schedule(()->stopMoving(), 50, TimeUnit.MILLISECONDS);
+		//Called by the main loop (see Protocol.updatePositions() and Prediction), which runs the client's timing wheel
+		Game.getGame().getTimingWheel().schedule(keepMovingTimeout, KEEP_MOVING_TIME);
 	}
 	private void stopMoving() {
 		keepMoving = false;
@@ -3,6 +3,8 @@ package chris.fortress.entity.player;
 import chris.fortress.Game;
 import chris.fortress.GameClient;
 import chris.fortress.GameServer;
+import chris.fortress.Room;
+import chris.fortress.RoomLocal;
 import chris.fortress.draw.Draw;
 import chris.fortress.draw.DrawMain;
 import chris.fortress.draw.DrawRespawn;
@@ -10,81 +12,122 @@ import chris.fortress.entity.projectile.ProjectileHandler;
 import chris.fortress.item.ItemConfig;
 import chris.fortress.socket.SendMessage;
 import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.math.MathUtils;
 
-/**Manages the players currently connected to the server. Used on both the client and server side*/
+import java.util.Arrays;
+
+/**Manages the players currently connected to the server. Used on both the client and server side. The players are kept in a Roster
+ * that is never changed: a player joining or leaving publishes a new one, so reading the players takes no lock, and a loop over
+ * getPlayers() sees the same players even if one joins or leaves meanwhile. Players are found by clientID in constant time.
+ * On the server each room has its own players (see Room)*/
 public final class PlayerHandler {
-	private static final Array<Player> players = new Array<>();
+	private static final RoomLocal<Players> players = new RoomLocal<>(Players::new);
 	
-	private static byte currentClientID = Byte.MIN_VALUE;
+	/**The players of a room. Its lock is held while a new roster is made, so two changes at the same time don't lose one of them*/
+	private static final class Players {
+		/**The current players, replaced as a whole when they change*/
+		private volatile Roster roster = new Roster(new Player[0]);
+		private byte currentClientID = Byte.MIN_VALUE;
+	}
+	
+	/**The players at one moment*/
+	private static final class Roster {
+		private final Player[] players;
+		/**Index of each player in players by clientID & 0xFF, or -1*/
+		private final int[] indices = new int[256];
+		
+		private Roster(Player[] players) {
+			this.players = players;
+			Arrays.fill(indices, -1);
+			for (int i = 0; i < players.length; i++) {
+				indices[players[i].getClientID() & 0xFF] = i;
+			}
+		}
+	}
 	
 	public static void addPlayer(Player player) {
-		synchronized (players) {
-			players.add(player);
+		Players room = players.get();
+		synchronized (room) {
+			Player[] players = Arrays.copyOf(room.roster.players, room.roster.players.length + 1);
+			players[players.length - 1] = player;
+			room.roster = new Roster(players);
 		}
 	}
 	public static void removePlayer(int cI, boolean playerLeftOnServer, boolean removeFromTeam) {
 		if (cI >= 0) {
-			synchronized (players) {
-				if (removeFromTeam) {
-					((GameServer) Game.getGame()).removeFromTeam(players.get(cI).getTeam());
-				}
-				Player p = players.get(cI);
-				players.removeIndex(cI);
-				p.dispose(playerLeftOnServer);
-				if (playerLeftOnServer) {
-					SendMessage.sendLeaveToClients(p.getClientID());
-				}
+			Player p;
+			Players room = players.get();
+			synchronized (room) {
+				Player[] old = room.roster.players;
+				p = old[cI];
+				Player[] players = new Player[old.length - 1];
+				System.arraycopy(old, 0, players, 0, cI);
+				System.arraycopy(old, cI + 1, players, cI, players.length - cI);
+				room.roster = new Roster(players);
+			}
+			if (removeFromTeam) {
+				((GameServer) Game.getGame()).removeFromTeam(p.getTeam());
+			}
+			p.dispose(playerLeftOnServer);
+			if (playerLeftOnServer) {
+				SendMessage.sendLeaveToClients(p.getClientID());
 			}
 		}
 	}
 	/**Disposes and replaces player at given index without updating clients*/
 	public static void replacePlayer(int cI, Player p) {
-		synchronized (players) {
-			Player oldPlayer = players.get(cI);
-			players.set(cI, p);
-			//serverSide = false so the socket isn't closed
-			oldPlayer.dispose(false);
+		Player oldPlayer;
+		Players room = players.get();
+		synchronized (room) {
+			Player[] players = room.roster.players.clone();
+			oldPlayer = players[cI];
+			players[cI] = p;
+			room.roster = new Roster(players);
 		}
+		//serverSide = false so the socket isn't closed
+		oldPlayer.dispose(false);
+	}
+	/**@return Every player at this moment, in order. The array is never changed, and must not be changed by the caller*/
+	public static Player[] getPlayers() {
+		return players.get().roster.players;
+	}
+	/**@return Every player in the given room. Used by threads that aren't in a room*/
+	public static Player[] getPlayers(Room room) {
+		return players.get(room).roster.players;
 	}
 	public static Player getPlayer(int cI) {
-		synchronized (players) {
-			return players.get(cI);
-		}
+		return players.get().roster.players[cI];
+	}
+	/**@return The player with the given clientID in the given room, or null. Used by threads that aren't in a room*/
+	public static Player getPlayer(Room room, byte clientID) {
+		Roster roster = players.get(room).roster;
+		int cI = roster.indices[clientID & 0xFF];
+		return cI >= 0 ? roster.players[cI] : null;
 	}
 	public static int playerCount() {
-		synchronized (players) {
-			return players.size;
-		}
+		return players.get().roster.players.length;
 	}
 	public static int clientIndexOf(byte clientID) {
-		synchronized (players) {
-			for (int i = 0; i < players.size; i++) {
-				if (players.get(i).getClientID() == clientID) {
-					return i;
-				}
-			}
-		}
-		return -1;
+		return players.get().roster.indices[clientID & 0xFF];
 	}
 	public static byte nextClientID() {
-		byte clientID = currentClientID;
-		currentClientID++;
-		return clientID;
-	}
-	public static void mouseUpdate(int cI, short mX, short mY) {
-		synchronized (players) {
-			if (ItemConfig.getItem(players.get(cI).getEquippedItemID()).shouldUpdateMouse()) {
-				SendMessage.sendMouseToClients(players.get(cI).getClientID(), mX, mY);
-			}
+		Players room = players.get();
+		//Players can join the same room from different selector threads
+		synchronized (room) {
+			return room.currentClientID++;
 		}
 	}
-	public static void respawnPlayer(int cI) {
-		synchronized (players) {
-			short[] spawn = Game.getLevel().getSpawn(players.get(cI).getTeam());
-			players.get(cI).respawn(spawn[0], spawn[1]);
+	public static void mouseUpdate(int cI, byte aim) {
+		Player p = getPlayer(cI);
+		if (ItemConfig.getItem(p.getEquippedItemID()).shouldUpdateMouse()) {
+			SendMessage.sendMouseToClients(p, aim);
 		}
 	}
+	public static void respawnPlayer(int cI) {
+		Player p = getPlayer(cI);
+		short[] spawn = Game.getLevel().getSpawn(p.getTeam());
+		p.respawn(spawn[0], spawn[1]);
+	}
 	/**
 	 * Client side method: Set the health of the given player to newHealth
 	 * @param clientID The player's clientID
@@ -93,44 +136,59 @@ public final class PlayerHandler {
 	public static void updateHealth(byte clientID, float health) {
 		int clientIndex = clientIndexOf(clientID);
 		if (clientIndex >= 0) {
+			Player p = getPlayer(clientIndex);
 			//If the player's health being updated is this player, and the health is being updated from <= 0 (dead) to > 0 (alive), then switch to level screen
-			synchronized (players) {	
-				if (clientID == ((GameClient) Game.getGame()).getClientID() && players.get(clientIndex).getHealth() <= 0 && health > 0) {
-					Gdx.app.postRunnable(()->Draw.setScreen(new DrawMain()));
-				}
-				players.get(clientIndex).setHealth(health);
-				//If this player has died
-				if (players.get(clientIndex).getHealth() <= 0) {
-					if (clientID == ((GameClient) Game.getGame()).getClientID()) {
-						Gdx.app.postRunnable(()->Draw.setScreen(new DrawRespawn()));
-					}
-					ProjectileHandler.playerDeath(clientIndex);
+			if (clientID == ((GameClient) Game.getGame()).getClientID() && p.getHealth() <= 0 && health > 0) {
+				//The server has moved the player to its spawn and released every key
+				Prediction.reset();
+				Gdx.app.postRunnable(()->Draw.setScreen(new DrawMain()));
+			}
+			p.setHealth(health);
+			//If this player has died
+			if (p.getHealth() <= 0) {
+				if (clientID == ((GameClient) Game.getGame()).getClientID()) {
+					Gdx.app.postRunnable(()->Draw.setScreen(new DrawRespawn()));
 				}
+				ProjectileHandler.playerDeath(clientIndex);
 			}
 		}
 	}
 	public static void dispose() {
+		Player[] players;
+		Players room = PlayerHandler.players.get();
+		synchronized (room) {
+			players = room.roster.players;
+			room.roster = new Roster(new Player[0]);
+		}
 		for (Player p : players) {
 			p.dispose(false);
 		}
-		players.clear();
 	}
-	/**Server side method: Randomly shuffles the players in the Array so that they end up on different teams than before*/
+	/**Server side method: Randomly shuffles the players so that they end up on different teams than before*/
 	public static void shufflePlayers() {
-		synchronized (players) {
-			players.shuffle();
+		Players room = players.get();
+		synchronized (room) {
+			Player[] players = room.roster.players.clone();
+			for (int i = players.length - 1; i > 0; i--) {
+				int j = MathUtils.random(i);
+				Player p = players[i];
+				players[i] = players[j];
+				players[j] = p;
+			}
+			room.roster = new Roster(players);
 		}
 	}
 	/**Client side method: After switching from WIN screen to WAIT screen, receive clientIDs in the order that players should be in*/
 	public static void receiveShuffledPlayers() {
-		Array<Player> newPlayers = new Array<>();
-		synchronized (players) {
-			for (int i = 0; i < players.size; i++) {
+		Players room = players.get();
+		synchronized (room) {
+			Roster old = room.roster;
+			Player[] players = new Player[old.players.length];
+			for (int i = 0; i < players.length; i++) {
 				byte clientID = ((GameClient) Game.getGame()).getSocket().readByte();
-				newPlayers.add(players.get(clientIndexOf(clientID)));
+				players[i] = old.players[old.indices[clientID & 0xFF]];
 			}
-			players.clear();
-			players.addAll(newPlayers);
+			room.roster = new Roster(players);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package chris.fortress.entity.player;
+
+import chris.fortress.GameServer;
+import chris.fortress.RoomLocal;
+import chris.fortress.util.SpatialGrid;
+import com.badlogic.gdx.utils.Array;
+
+import java.util.Arrays;
+
+/**Server side: where every player was during the last ticks, for lag compensation. A client sees the other players where they were about
+ * a round trip plus the interpolation delay ago (see Interpolation), so hits from that client are checked against where the other players
+ * were at that time instead of where they are now. Hits are never checked further back than MAX_REWIND.
+ * Looking up a position doesn't allocate anything, since it is done for every player that could be hit. Each room has its own history (see Room).
+ */
+public final class PlayerHistory {
+	/**Hits are never checked further back than this, in milliseconds*/
+	public static final int MAX_REWIND = 250;
+	/**How many ticks are stored, enough for MAX_REWIND at 60 ticks per second with room to spare*/
+	private static final int TICKS = 64;
+
+	private static final RoomLocal<Ticks> ticks = new RoomLocal<>(Ticks::new);
+
+	private static final class Ticks {
+		/**For each tick, by tick number % TICKS: when it was stored (see GameServer.getTime()), and every player's position by clientID*/
+		private final int[] times = new int[TICKS];
+		private final float[][] x = new float[TICKS][256], y = new float[TICKS][256];
+		/**For each tick: which players were alive*/
+		private final boolean[][] alive = new boolean[TICKS][256];
+		private int tickCount;
+		/**Every alive player, with the box of everywhere it was during the last MAX_REWIND (see getPlayersNear())*/
+		private final SpatialGrid<Player> grid = new SpatialGrid<>(256);
+		private final float[] bounds = new float[4];
+	}
+
+	private PlayerHistory() {}
+	/**Stores where every player is. Called once per tick, after the players have moved*/
+	public static void record() {
+		Ticks ticks = PlayerHistory.ticks.get();
+		float[][] x = ticks.x, y = ticks.y;
+		boolean[][] alive = ticks.alive;
+		int slot = ticks.tickCount % TICKS;
+		ticks.times[slot] = GameServer.getTime();
+		Arrays.fill(alive[slot], false);
+		for (Player p : PlayerHandler.getPlayers()) {
+			int id = p.getClientID() & 0xFF;
+			x[slot][id] = p.getX();
+			y[slot][id] = p.getY();
+			alive[slot][id] = p.getHealth() > 0;
+		}
+		ticks.tickCount++;
+		//Hits are checked against where the players were up to MAX_REWIND ago, so a player is found anywhere in that time
+		SpatialGrid<Player> grid = ticks.grid;
+		float[] bounds = ticks.bounds;
+		grid.clear();
+		int since = ticks.times[slot] - MAX_REWIND;
+		for (Player p : PlayerHandler.getPlayers()) {
+			if (!alive[slot][p.getClientID() & 0xFF]) continue;
+			bounds[0] = bounds[2] = p.getX();
+			bounds[1] = bounds[3] = p.getY();
+			addBounds(p.getClientID(), since, bounds);
+			grid.add(p, bounds[0], bounds[1], bounds[2] + Player.WIDTH, bounds[3] + Player.HEIGHT);
+		}
+	}
+	/**Forgets every stored tick. Called when a level starts*/
+	public static void reset() {
+		ticks.get().tickCount = 0;
+		ticks.get().grid.clear();
+	}
+	/**Adds the players that could have been in the box (in the ticks stored last, during the last MAX_REWIND) to out. Players that
+	 * are found still have to be checked against where they were at the time, with getPosition()
+	 * @return out*/
+	public static Array<Player> getPlayersNear(float x1, float y1, float x2, float y2, Array<Player> out) {
+		return ticks.get().grid.query(x1, y1, x2, y2, out);
+	}
+	/**Grows the box to hold every position of the player that getPosition() can give for the time or any time after it
+	 * @param bounds The lowest x and y, and the highest x and y, of the player's bottom left corner*/
+	public static void addBounds(byte clientID, int time, float[] bounds) {
+		Ticks ticks = PlayerHistory.ticks.get();
+		int tickCount = ticks.tickCount;
+		int id = clientID & 0xFF;
+		int oldest = Math.max(0, tickCount - TICKS);
+		for (int tick = tickCount - 1; tick >= oldest; tick--) {
+			int slot = tick % TICKS;
+			if (ticks.alive[slot][id]) {
+				bounds[0] = Math.min(bounds[0], ticks.x[slot][id]);
+				bounds[1] = Math.min(bounds[1], ticks.y[slot][id]);
+				bounds[2] = Math.max(bounds[2], ticks.x[slot][id]);
+				bounds[3] = Math.max(bounds[3], ticks.y[slot][id]);
+			}
+			//getPosition() never goes further back than the newest tick at or before the time
+			if (ticks.times[slot] - time <= 0) break;
+		}
+	}
+	/**@return How far back to check hits by the given player, in milliseconds: its round trip time and the interpolation delay, up to MAX_REWIND*/
+	public static int getRewind(Player attacker) {
+		return (int) Math.min(attacker.getPSocket().getRoundTrip() + Interpolation.DELAY, MAX_REWIND);
+	}
+	/**
+	 * Finds where a player was at the given time, between the two stored ticks around it
+	 * @param time A time from GameServer.getTime(). Times before the oldest stored tick use the oldest one
+	 * @param out Set to the x and y of the player
+	 * @return False if the player was not alive at that time, or there are no stored ticks
+	 */
+	public static boolean getPosition(byte clientID, int time, float[] out) {
+		Ticks ticks = PlayerHistory.ticks.get();
+		int tickCount = ticks.tickCount;
+		int[] times = ticks.times;
+		float[][] x = ticks.x, y = ticks.y;
+		boolean[][] alive = ticks.alive;
+		if (tickCount == 0) return false;
+		int id = clientID & 0xFF;
+		int oldest = Math.max(0, tickCount - TICKS);
+		//The newest tick stored at or before the time
+		int tick = tickCount - 1;
+		while (tick > oldest && times[tick % TICKS] - time > 0) tick--;
+		int slot = tick % TICKS;
+		if (!alive[slot][id]) return false;
+		out[0] = x[slot][id];
+		out[1] = y[slot][id];
+		int next = (tick + 1) % TICKS;
+		if (tick + 1 < tickCount && alive[next][id] && time - times[slot] > 0) {
+			float alpha = (float) (time - times[slot]) / (times[next] - times[slot]);
+			out[0] += (x[next][id] - out[0]) * alpha;
+			out[1] += (y[next][id] - out[1]) * alpha;
+		}
+		return true;
+	}
+}
\ No newline at end of file
@@ -1,169 +1,471 @@
 package chris.fortress.entity.player;
 
+import chris.fortress.GameServer;
+import chris.fortress.Room;
+import chris.fortress.socket.ActionRing;
+import chris.fortress.socket.AddClient;
+import chris.fortress.socket.ConnectionThreads;
+import chris.fortress.socket.DatagramLink;
+import chris.fortress.socket.FrameCodec;
+import chris.fortress.socket.Interest;
+import chris.fortress.socket.NetworkStats;
 import chris.fortress.socket.Protocol;
-import com.badlogic.gdx.Gdx;
+import chris.fortress.socket.SelectorThread;
+import chris.fortress.socket.Snapshots;
+import chris.fortress.socket.UdpClient;
+import chris.fortress.socket.UdpServer;
 
-import java.io.*;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
 
-/**Contains methods for reading and writing to the socket, and has a server side thread for every player that reads from the socket*/
+/**Contains methods for reading and writing to the socket. Values are encoded by a FrameCodec, and every flush sends one frame. On the
+ * server side, the socket is a non-blocking channel that is read by a SelectorThread, and on the client side it is a blocking channel*/
 public class PlayerSocket {
-	public static final int PORT = 1235;
-	
+	/**The port the server listens on for TCP and UDP, and the client connects to. Set with -Dfortress.port*/
+	public static final int PORT = Integer.getInteger("fortress.port", 1235);
+	/**Returned by getSnapshotAck() if the client hasn't acknowledged a snapshot*/
+	public static final int NO_SNAPSHOT = Integer.MIN_VALUE;
+	/**Starting size of the server side output buffer. The buffer grows if a frame does not fit*/
+	private static final int OUTPUT_SIZE = 8192;
+	/**Size of the server side input buffers. Every frame sent by a client is much smaller than this*/
+	private static final int INPUT_SIZE = 4096;
+	/**Size of the client side input buffers, enough for the largest frame plus the unread part of the previous one*/
+	private static final int CLIENT_INPUT_SIZE = 2 * (FrameCodec.MAX_FRAME + 2);
+	/**Starting size of the client side output buffer. The client only sends small messages*/
+	private static final int CLIENT_OUTPUT_SIZE = 256;
+	/**Server side: how many messages from the client can wait over TCP between two game loops. A client that sends more is disconnected*/
+	private static final int TCP_ACTIONS = 256;
+	/**Server side: how many input commands from the client can wait over UDP between two game loops. More are dropped, since every
+	 * datagram repeats the newest commands*/
+	private static final int UDP_ACTIONS = 64;
+	/**Server side: a client is disconnected if more than this many bytes are still waiting to be sent to it after a flush*/
+	public static final int MAX_OUTPUT = Integer.getInteger("fortress.maxOutput", 1 << 20);
+
 	private Player player;
-	private Socket socket;
-	private ObjectOutputStream out;
-	private ObjectInputStream in;
-	private List<short[]> inActions;
-	private Thread inputThread;
-	
-	public PlayerSocket(Socket socket, Player player) {
-		this.socket = socket;
+	private final SocketChannel channel;
+	private final FrameCodec codec;
+	/**Where messages are written. The same as codec, except in thread mode where the output thread may be writing codec's output*/
+	private FrameCodec output;
+	/**Server side, in thread mode (see ConnectionThreads): the output that the output thread is writing, or will write next*/
+	private FrameCodec sending;
+	/**Thread mode: the thread that writes to the channel, woken by flush()*/
+	private Thread outputThread;
+	/**Thread mode: true from when flush() gives the output thread new output until all of it has been written*/
+	private volatile boolean sendingBusy;
+	/**Thread mode: output.getBytesWritten() when the output thread was last given output*/
+	private long outputStart;
+	/**Server side: messages received over TCP, added by the selector thread*/
+	private ActionRing tcpActions;
+	/**Server side: input commands received over UDP, added by the UdpServer thread*/
+	private ActionRing udpActions;
+	/**Server side: space for the commands of an INPUT message, only used by the selector thread*/
+	private byte[] commands;
+	/**Server side: set by the selector thread if the client sent more than the ring holds, or the connection was lost with the ring full*/
+	private volatile boolean flooded;
+	private SelectorThread selectorThread;
+	/**Used for synchronizing output, since the output buffer can be replaced when it grows*/
+	private final Object outputLock = new Object();
+	/**Server side: the token the client must send over UDP to link its address to this player*/
+	private int udpToken;
+	/**Server side: the UDP link to the client, or null if the client only uses TCP*/
+	private volatile DatagramLink datagramLink;
+	/**Client side: the UDP channel to the server, or null if it isn't used*/
+	private UdpClient udpClient;
+	/**Server side: the newest snapshot the client has acknowledged*/
+	private volatile int snapshotAck = NO_SNAPSHOT;
+	/**Server side: the average time it takes the client to acknowledge a snapshot, in milliseconds*/
+	private volatile float roundTrip = -1;
+	/**Server side: which players are relevant to the client*/
+	private Interest interest;
+	/**Server side: the room the client picked when it joined (see Room)*/
+	private Room room;
+	/**Server side: latest-value messages held back while the client is behind on its output, by latestKey(). A newer message replaces
+	 * the one held back with the same key, so a slow client only gets the newest values once it catches up*/
+	private final Map<Integer, ByteBuffer> heldBack = new LinkedHashMap<>();
+	/**Server side: true once the client was too far behind on its output. Nothing more is sent to it*/
+	private boolean overflowed;
+	/**Messages and bytes sent and received over this connection and its UDP link*/
+	private final NetworkStats.Connection stats = new NetworkStats.Connection();
+	/**The type of the message started by the last writeMessage(), and where it started (see FrameCodec.getBytesWritten()), or -1 if it has been counted*/
+	private byte messageType;
+	private long messageStart = -1;
+
+	/**To connect a client to the server (server side). The player is created once the client has sent its name*/
+	public PlayerSocket(SocketChannel channel, SelectorThread selectorThread) {
+		this.channel = channel;
+		this.selectorThread = selectorThread;
+		tcpActions = new ActionRing(TCP_ACTIONS);
+		udpActions = new ActionRing(UDP_ACTIONS);
+		commands = new byte[2 * 255];
+		codec = new FrameCodec(INPUT_SIZE, OUTPUT_SIZE);
+		output = codec;
+		interest = new Interest();
+	}
+	/**To connect the client to the server. The channel must be blocking*/
+	public PlayerSocket(SocketChannel channel) {
+		this.channel = channel;
+		codec = new FrameCodec(CLIENT_INPUT_SIZE, CLIENT_OUTPUT_SIZE);
+		output = codec;
+	}
+	/**Server side: sets the player that this socket belongs to, after the client has sent its name*/
+	protected void setPlayer(Player player) {
 		this.player = player;
-		inActions = new ArrayList<>();
-		openStreams();
 	}
-	/**To connect the client to the server*/
-	public PlayerSocket(Socket socket) {
-		this.socket = socket;
-		openStreams();
+	/**Server side: sets the room the client plays in. Called before its player is made*/
+	public void setRoom(Room room) {
+		this.room = room;
 	}
-	private void openStreams() {
-		try {
-			out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-			out.flush();
-			in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
-		} catch (IOException e) {
-			e.printStackTrace();
-			Gdx.app.exit();
+	public Room getRoom() {
+		return room;
+	}
+	/**
+	 * Server side: reads everything the client has sent so far, and queues every message in the frames that have been received.
+	 * Clients only end a frame after a complete message. Called by the selector thread
+	 * @return False if the connection has been closed
+	 */
+	public boolean readAvailable() {
+		long received = codec.getBytesReceived();
+		boolean open = codec.readFrom(channel);
+		stats.countWireIn(codec.getBytesReceived() - received);
+		//The first thing a client sends is its name and the room it wants to play in. Once they have been received, the player is added to the room
+		if (player == null && codec.hasInput()) {
+			String name = readString();
+			if (!AddClient.addPlayer(this, name, readByte() & 0xFF)) {
+				dispose();
+				return false;
+			}
+		}
+		while (player != null && codec.hasInput()) {
+			int remaining = codec.getInputRemaining();
+			byte message = readByte();
+			if (!Protocol.getInput(message, this, tcpActions, commands)) {
+				flooded = true;
+			}
+			NetworkStats.countIn(message, remaining - codec.getInputRemaining(), stats);
 		}
+		if (!open) {
+			if (player != null) {
+				if (!tcpActions.add(Protocol.ERROR)) {
+					flooded = true;
+				}
+			} else {
+				dispose();
+			}
+		}
+		return open;
+	}
+	/**Server side: queues the commands of an INPUT datagram, to be used in the next game loop. Commands that don't fit are dropped.
+	 * Only called by the UdpServer thread
+	 * @param commands The keys and aim of each command, newest first*/
+	public void addUdpCommands(short inputSequence, byte[] commands, int count) {
+		Protocol.addCommands(udpActions, inputSequence, commands, count);
 	}
-	public void startInputThread() {
-		inputThread = new Thread(()->{
-			inputLoop();
-		});
-		inputThread.start();
+	/**Server side, in thread mode (see ConnectionThreads): starts the threads that read from and write to this connection. The channel
+	 * must be blocking*/
+	public void startThreads(int number) {
+		sending = new FrameCodec(0, OUTPUT_SIZE);
+		outputThread = ConnectionThreads.newThread("Output-" + number, this::sendOutput);
+		outputThread.start();
+		ConnectionThreads.newThread("Input-" + number, () -> {
+			//Reads block until the client sends something
+			while (readAvailable()) { }
+		}).start();
 	}
-	private void inputLoop() {
-		while (!Thread.interrupted()) {
-			short[] messageReceived = Protocol.getInput(readByte(), player);
-			synchronized (inActions) {
-				inActions.add(messageReceived);
+	/**Thread mode: the output thread. Writes whatever flush() hands over, blocking until the client has taken all of it*/
+	private void sendOutput() {
+		while (channel.isOpen()) {
+			if (!sendingBusy) {
+				LockSupport.park(this);
+				continue;
 			}
+			long sent = sending.getBytesSent();
+			sending.writeTo(channel);
+			stats.countWireOut(sending.getBytesSent() - sent);
+			sendingBusy = false;
 		}
 	}
 	/**
-	 * Reads a string
+	 * Server side: writes output that could not be sent earlier because the socket was full. Called by the selector thread
+	 * @return True if all the output has been written
 	 */
-	public String readString() {
-		try {
-			return in.readUTF();
-		} catch (IOException e) {
-			return null;
+	public boolean finishWrite() {
+		synchronized (outputLock) {
+			return writeToChannel();
 		}
 	}
+	/**Writes as much of the output as the channel accepts, and counts the bytes written*/
+	private boolean writeToChannel() {
+		long sent = output.getBytesSent();
+		boolean done = output.writeTo(channel);
+		stats.countWireOut(output.getBytesSent() - sent);
+		return done;
+	}
 	/**
 	 * Reads a string
 	 */
+	public String readString() {
+		return codec.readString(channel);
+	}
+	/**
+	 * Reads a short
+	 */
 	public short readShort() {
-		try {
-			short s = in.readShort();
-			return s;
-		} catch (IOException e) {
-			return Protocol.ERROR;
-		}
+		return codec.readShort(channel);
 	}
 	/**
 	 * Reads a byte
 	 */
 	public byte readByte() {
-		try {
-			byte b = in.readByte();
-			return b;
-		} catch (IOException e) {
-			return Protocol.ERROR;
-		}
+		return codec.readByte(channel);
 	}
 	public boolean readBoolean() {
-		try {
-			boolean b = in.readBoolean();
-			return b;
-		} catch (IOException e) {
-			e.printStackTrace();
-			return false;
-		}
+		return codec.readBoolean(channel);
+	}
+	public int readInt() {
+		return codec.readInt(channel);
+	}
+	/**Fills the array, or leaves it unchanged if the connection is lost*/
+	public void readBytes(byte[] bytes) {
+		codec.readBytes(channel, bytes);
 	}
 	public float readFloat() {
-		try {
-			float f = in.readFloat();
-			return f;
-		} catch (IOException e) {
-			return Protocol.ERROR;
+		return codec.readFloat(channel);
+	}
+	/**Starts a message by writing its message byte (from Protocol). The message is counted by NetworkStats once the next one starts or
+	 * the output is flushed, with every value written until then*/
+	public void writeMessage(byte type) {
+		writeHeldBack();
+		endMessage();
+		messageType = type;
+		messageStart = output.getBytesWritten();
+		output.writeByte(type);
+	}
+	/**Counts the message started by writeMessage(), if it hasn't been counted yet*/
+	private void endMessage() {
+		if (messageStart >= 0) {
+			NetworkStats.countOut(messageType, (int) (output.getBytesWritten() - messageStart), stats);
+			messageStart = -1;
 		}
 	}
 	public void writeByte(byte message) {
-		try {
-			out.writeByte(message);
-		} catch (IOException e) {
-		}
+		output.writeByte(message);
 	}
 	public void writeString(String message) {
-		try {
-			out.writeUTF(message);
-		} catch (IOException e) {
-		}
+		output.writeString(message);
 	}
 	public void writeBoolean(boolean message) {
-		try {
-			out.writeBoolean(message);
-		} catch (IOException e) {
-		}
+		output.writeBoolean(message);
 	}
 	public void writeShort(short message) {
-		try {
-			out.writeShort(message);
-		} catch (IOException e) {
-		}
+		output.writeShort(message);
+	}
+	public void writeInt(int message) {
+		output.writeInt(message);
 	}
 	public void writeFloat(float message) {
-		try {
-			out.writeFloat(message);
-		} catch (IOException e) {
+		output.writeFloat(message);
+	}
+	/**Server side: adds a message that was encoded once with SharedMessage, without copying it*/
+	public void writeShared(ByteBuffer message) {
+		writeHeldBack();
+		addShared(message);
+	}
+	private void addShared(ByteBuffer message) {
+		endMessage();
+		NetworkStats.countOut(message.get(message.position()), message.remaining(), stats);
+		output.writeShared(message);
+	}
+	/**Server side: adds bytes that were encoded once as part of the message being written, without copying them*/
+	public void writeSharedPart(ByteBuffer part) {
+		output.writeShared(part);
+	}
+	/**
+	 * Server side: adds a latest-value message that a newer one replaces (ex. a snapshot or a player's aim). If output from an earlier
+	 * flush is still waiting to be sent, the message is held back until the client catches up or any other message is added, and replaced
+	 * if a newer one with the same key is added first
+	 * @param key From latestKey(), the same for every message that replaces this one
+	 */
+	public void writeLatest(ByteBuffer message, int key) {
+		if (heldBack.isEmpty() && getBacklog() == 0) {
+			addShared(message);
+		} else {
+			heldBack.put(key, message);
 		}
 	}
-	/**Flushes the output stream*/
-	public void flush() {
+	/**Server side: adds the latest-value messages that are held back. Called before any other message, so a held back value can't
+	 * arrive after a message that was added later (ex. a MOVED from before a respawn, which the client would take as the newest)*/
+	private void writeHeldBack() {
+		if (heldBack.isEmpty()) return;
+		for (ByteBuffer message : heldBack.values()) {
+			addShared(message);
+		}
+		heldBack.clear();
+	}
+	/**@return The key of the latest-value messages of the given type about the given player*/
+	public static int latestKey(byte messageType, byte clientID) {
+		return (messageType & 0xFF) << 8 | clientID & 0xFF;
+	}
+	/**Ends the current frame and sends it. On the server side, anything that doesn't fit in the socket is written later by the selector
+	 * thread (or everything is handed to the output thread in thread mode), and the client is disconnected if more than MAX_OUTPUT is waiting
+	 * @return True if anything was written to the socket
+	 */
+	public boolean flush() {
+		synchronized (outputLock) {
+			endMessage();
+			if (overflowed) {
+				output.clearOutput();
+				return false;
+			}
+			if (getBacklog() == 0) {
+				writeHeldBack();
+			}
+			if (!output.hasOutput()) {
+				return false;
+			}
+			if (outputThread != null) {
+				if (!sendingBusy) {
+					FrameCodec filled = output;
+					output = sending;
+					sending = filled;
+					outputStart = output.getBytesWritten();
+					sendingBusy = true;
+					LockSupport.unpark(outputThread);
+				} else if (getBacklog() > MAX_OUTPUT && player != null) {
+					overflow();
+				}
+				return true;
+			}
+			if (!writeToChannel() && selectorThread != null) {
+				if (getBacklog() > MAX_OUTPUT && player != null) {
+					overflow();
+				} else {
+					selectorThread.requestWrite(this);
+				}
+			}
+			return true;
+		}
+	}
+	/**Server side: the client can't keep up, so stop buffering for it. It is removed in the next game loop*/
+	private void overflow() {
+		overflowed = true;
+		output.clearOutput();
+		heldBack.clear();
+	}
+	/**Server side: how many bytes are waiting because earlier output is still being sent (by the selector thread, or the output thread in thread mode)*/
+	private int getBacklog() {
+		if (outputThread != null) {
+			return sendingBusy ? (int) (output.getBytesWritten() - outputStart) : 0;
+		}
+		return output.getUnwritten();
+	}
+	/**Server side: creates the token the client must send over UDP to link its address to this player*/
+	public int newUdpToken() {
+		udpToken = UdpServer.newToken();
+		return udpToken;
+	}
+	public int getUdpToken() {
+		return udpToken;
+	}
+	/**Server side: the UDP link to the client, or null if the client only uses TCP*/
+	public DatagramLink getDatagramLink() {
+		return datagramLink;
+	}
+	public void setDatagramLink(DatagramLink datagramLink) {
+		this.datagramLink = datagramLink;
+	}
+	/**Client side: starts linking the UDP channel to the server, after the server sent its token over TCP*/
+	public void startUdp(byte clientID, int token) {
+		if (!UdpClient.ENABLED) return;
 		try {
-			out.flush();
+			udpClient = new UdpClient(channel.getRemoteAddress(), clientID, token);
+			udpClient.start();
 		} catch (IOException e) {
+			//UDP is optional, keep using TCP
+			udpClient = null;
 		}
 	}
+	/**Client side: the UDP channel to the server, or null if it isn't being used*/
+	public UdpClient getUdpClient() {
+		return udpClient != null && udpClient.isLinked() ? udpClient : null;
+	}
+	/**Server side: the newest snapshot the client has acknowledged, or NO_SNAPSHOT*/
+	public int getSnapshotAck() {
+		return snapshotAck;
+	}
+	/**Server side: called when the client acknowledges a snapshot. Acknowledgements that arrive out of order are ignored*/
+	public void acknowledgeSnapshot(short number) {
+		int previous = snapshotAck;
+		if (previous == NO_SNAPSHOT || (short) (number - previous) > 0) {
+			snapshotAck = number;
+			int sent = Snapshots.getSentTime(room, number);
+			if (sent >= 0) {
+				int sample = GameServer.getTime() - sent;
+				//Smooth out single late acknowledgements
+				roundTrip = roundTrip < 0 ? sample : roundTrip + (sample - roundTrip) / 8;
+			}
+		}
+	}
+	/**Server side: how long it takes the client to acknowledge a snapshot, in milliseconds (0 until the first acknowledgement)*/
+	public float getRoundTrip() {
+		return Math.max(roundTrip, 0);
+	}
+	/**Messages and bytes sent and received over this connection and its UDP link. On the client side, only what it sends over TCP is counted*/
+	public NetworkStats.Connection getStats() {
+		return stats;
+	}
+	/**Server side: how many bytes the last write to the socket left for the selector thread*/
+	public int getUnwritten() {
+		synchronized (outputLock) {
+			return getBacklog();
+		}
+	}
+	/**Server side: how many messages from the client are waiting for the next game loop*/
+	public int getWaitingActions() {
+		return tcpActions.size() + udpActions.size();
+	}
+	/**Server side: which players are relevant to the client*/
+	public Interest getInterest() {
+		return interest;
+	}
+	public Player getPlayer() {
+		return player;
+	}
 	public void dispose() {
-		//Not null on the server side
-		if (inputThread != null) {
-			inputThread.interrupt();
+		if (datagramLink != null) {
+			UdpServer.unlink(datagramLink);
 		}
-		//Closing socket also closes the input and output streams
+		if (udpClient != null) {
+			udpClient.dispose();
+		}
+		//Closing the channel also removes it from its selector, or ends its threads in thread mode
 		try {
-			if (socket != null) {
-				socket.close();
-			}
+			channel.close();
 		} catch (IOException e) {
 			//Server is closing - ignore exception
 		}
+		if (outputThread != null) {
+			LockSupport.unpark(outputThread);
+		}
 	}
+	/**Server side: follows through on the messages received since the last game loop. Called by the game thread*/
 	public void useInActions() {
-		synchronized (inActions) {
-			for (short[] action : inActions) {
-				Protocol.checkServerInput(action);
-			}
-			inActions.clear();
+		byte clientID = player.getClientID();
+		udpActions.use(clientID);
+		tcpActions.use(clientID);
+		if (flooded || overflowed) {
+			Protocol.checkServerInput(Protocol.ERROR, clientID, (short) 0, (short) 0, (short) 0);
 		}
 	}
-	/**Used for synchronization in the SendMessage class. Use above methods to write to the output stream, don't use the output stream directly*/
-	public ObjectOutputStream getOutput() {
-		return out;
+	/**The channel that the selector thread reads from (server side), or that the client's input thread reads from*/
+	public SocketChannel getChannel() {
+		return channel;
+	}
+	/**Used for synchronization in the SendMessage class. Use above methods to write to the output, don't use the output directly*/
+	public Object getOutput() {
+		return outputLock;
 	}
 }
\ No newline at end of file
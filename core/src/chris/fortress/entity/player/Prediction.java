@@ -0,0 +1,169 @@
+package chris.fortress.entity.player;
+
+import chris.fortress.Game;
+import chris.fortress.GameClient;
+import chris.fortress.socket.SendMessage;
+
+/**Client side input and prediction for this client's own player. The client steps at the server's tick rate (sent with WELCOME), however
+ * fast it draws: every step it sends the server a numbered input command with the keys held and where the player aims (Protocol.INPUT,
+ * see InputQueue), and moves the player right away with the same step the server uses (see Movement), instead of waiting a round trip
+ * for the server's position. Every step is stored with its keys. The server sends back where the player is after the last command it
+ * used, and how many steps the player has moved since (Protocol.MOVED). The client moves its player there, then makes the steps the
+ * server hasn't made yet again. Frames fall between steps, so the player is drawn between where the last two steps left it.
+ * Start the client with -Dfortress.prediction=false to only use the positions from the server
+ */
+public final class Prediction {
+	public static final boolean ENABLED = !"false".equals(System.getProperty("fortress.prediction"));
+	/**How many of the newest commands are sent in each datagram, so a lost datagram doesn't lose a command. Over TCP only the newest is sent*/
+	public static final int COMMANDS = 4;
+	/**How many steps are stored. If the server is further behind than this, its position is used without making any steps again*/
+	private static final int HISTORY = 256;
+	/**The longest frame that is caught up on, in seconds. After a longer pause (like dragging the window) the steps are dropped*/
+	private static final float MAX_FRAME_TIME = 0.25f;
+
+	/**The number of the last input command sent*/
+	private static short inputSequence;
+	/**The keys and aim of the newest commands, by input number % COMMANDS, and how many commands have been sent (at most COMMANDS)*/
+	private static final byte[] commandKeys = new byte[COMMANDS], commandAims = new byte[COMMANDS];
+	private static int commandCount;
+	/**Where the player aims, sent with every command*/
+	private static byte aim;
+	/**For each step, by step number % HISTORY: the number of the input command sent for it, and the keys held (one bit per key)*/
+	private static final short[] stepInputs = new short[HISTORY];
+	private static final byte[] stepKeys = new byte[HISTORY];
+	/**How many steps have been made since the last reset*/
+	private static int stepCount;
+	/**Time that has passed since the last step, in seconds*/
+	private static float accumulator;
+	/**Where the player was before and after the last step, and where it was drawn, in fixed point (see Fixed). Only set once the
+	 * player has made a step since the last reset*/
+	private static boolean stepped;
+	private static int previousX, previousY, currentX, currentY, drawnX, drawnY;
+
+	/**The newest movement from the server, if it has not been used yet*/
+	private static boolean received;
+	private static short receivedInput, receivedSteps;
+	private static float receivedX, receivedY, receivedXDir, receivedYDir;
+	/**The input number and step count of the newest movement from the server, to drop older movement that arrives late*/
+	private static boolean hasNewest;
+	private static short newestInput, newestSteps;
+
+	private Prediction() {}
+	/**Sets where this client's player aims, sent with the next command. Only the direction from the player is sent*/
+	public static synchronized void aimAt(float mouseX, float mouseY) {
+		Player p = getPlayer();
+		if (p != null) aim = Player.getAim(p, mouseX, mouseY);
+	}
+	/**Makes a step for every tick of the server that has passed, then moves this client's player between the last two steps to draw it.
+	 * Called once per frame during a level
+	 * @param frameTime The time since the last frame, in seconds
+	 * @param keys The movement keys held, one bit per key (see Player.getKeys())*/
+	public static synchronized void update(float frameTime, byte keys) {
+		Player p = getPlayer();
+		//Put the player back where the last step left it, unless something else has moved it since it was drawn
+		if (stepped && p != null && p.getFixedX() == drawnX && p.getFixedY() == drawnY) {
+			p.setFixedX(currentX);
+			p.setFixedY(currentY);
+		}
+		float tickTime = ((GameClient) Game.getGame()).getTickTime();
+		accumulator += Math.min(frameTime, MAX_FRAME_TIME);
+		while (accumulator >= tickTime) {
+			accumulator -= tickTime;
+			step(keys, tickTime);
+		}
+		if (!stepped || p == null || p.getHealth() <= 0) return;
+		float alpha = accumulator / tickTime;
+		drawnX = previousX + Math.round((currentX - previousX) * alpha);
+		drawnY = previousY + Math.round((currentY - previousY) * alpha);
+		p.setFixedX(drawnX);
+		p.setFixedY(drawnY);
+	}
+	/**Sends the server an input command, then moves this client's player one step, after moving it to the newest position from the server*/
+	private static void step(byte keys, float tickTime) {
+		inputSequence++;
+		commandKeys[inputSequence & (COMMANDS - 1)] = keys;
+		commandAims[inputSequence & (COMMANDS - 1)] = aim;
+		if (commandCount < COMMANDS) commandCount++;
+		SendMessage.sendInputToServer(inputSequence, commandKeys, commandAims, commandCount);
+		Player p = getPlayer();
+		if (!ENABLED || p == null || p.getHealth() <= 0) return;
+		float oldX = p.getX();
+		int startX = p.getFixedX(), startY = p.getFixedY();
+		if (received) {
+			received = false;
+			reconcile(p, tickTime);
+		}
+		p.setKeys(keys);
+		int slot = stepCount % HISTORY;
+		stepInputs[slot] = inputSequence;
+		stepKeys[slot] = keys;
+		stepCount++;
+		Movement.step(p, tickTime, false);
+		p.getAnimator().moved(oldX);
+		previousX = startX;
+		previousY = startY;
+		currentX = p.getFixedX();
+		currentY = p.getFixedY();
+		stepped = true;
+	}
+	/**Moves the player to where the server has it, then makes the steps again that the server hasn't made yet*/
+	private static void reconcile(Player p, float tickTime) {
+		p.setX(receivedX);
+		p.setY(receivedY);
+		p.setXDir(receivedXDir);
+		p.setYDir(receivedYDir);
+		//Find the step made with the command the server used last
+		int oldest = Math.max(0, stepCount - HISTORY);
+		int first = stepCount;
+		for (int i = oldest; i < stepCount; i++) {
+			if ((short) (stepInputs[i % HISTORY] - receivedInput) >= 0) {
+				first = i;
+				break;
+			}
+		}
+		//If the input is older than every stored step, it isn't known which steps the server has made
+		if (first == oldest && oldest > 0) return;
+		for (int i = first + receivedSteps; i < stepCount; i++) {
+			p.setKeys(stepKeys[i % HISTORY]);
+			Movement.step(p, tickTime, false);
+		}
+	}
+	/**Stores where the server has this client's player. It is used at the start of the next step
+	 * @param input The number of the last input command the server used
+	 * @param steps How many steps the server has moved the player since that input*/
+	public static synchronized void receive(short input, short steps, float x, float y, float xDir, float yDir) {
+		if (!ENABLED) return;
+		//Movement is ordered by input number, then by steps. Drop movement that is older than what has been received
+		if (hasNewest && ((short) (input - newestInput) < 0 || input == newestInput && steps <= newestSteps)) return;
+		hasNewest = true;
+		newestInput = input;
+		newestSteps = steps;
+		received = true;
+		receivedInput = input;
+		receivedSteps = steps;
+		receivedX = x;
+		receivedY = y;
+		receivedXDir = xDir;
+		receivedYDir = yDir;
+	}
+	/**@return The number of the input command sent most recently whose lowest 8 bits are the given ones. The server has always used a
+	 * command sent less than 128 steps ago, so PACKED_MOVED only sends the lowest 8 bits*/
+	public static synchronized short expandInput(byte inputLow) {
+		return (short) (inputSequence - (byte) (inputSequence - inputLow));
+	}
+	/**Forgets the stored steps. Called when a level starts and when the player respawns*/
+	public static synchronized void reset() {
+		stepCount = 0;
+		stepped = false;
+		received = false;
+		hasNewest = false;
+	}
+	/**@return True if this client moves the player with the given clientID itself, so positions from snapshots are not used for it*/
+	public static boolean isPredicted(byte clientID) {
+		return ENABLED && clientID == ((GameClient) Game.getGame()).getClientID();
+	}
+	private static Player getPlayer() {
+		int cI = PlayerHandler.clientIndexOf(((GameClient) Game.getGame()).getClientID());
+		return cI >= 0 ? PlayerHandler.getPlayer(cI) : null;
+	}
+}
\ No newline at end of file
@@ -1,23 +1,24 @@
 package chris.fortress.entity.projectile;
 
+import chris.fortress.Game;
 import chris.fortress.entity.Entity;
-import chris.fortress.util.Timer;
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.MathUtils;
 
-import java.util.concurrent.TimeUnit;
-
 /**The projectile class. Contains the projID with is used to get this projectile's ProjectileConfig,
  * and provides methods for moving and drawing projectiles*/
 public class Projectile extends Entity {
 	private byte projID;
 	private boolean isActive = true, isDead = false;
+	/**If the lifetime of a projectile with a negative timer value has been scheduled (see startLifetime())*/
+	private boolean lifetimeStarted;
 	private Color colour;
 	private float rotation;
 	private float radius;
+	/**Server side: how far back to check where the players were, in milliseconds. The player that fired sees the others this far in the past*/
+	private int rewind;
 	
 	public Projectile(float x, float y, float xDir, float yDir, boolean team, byte projID) {
 		super(x, y, xDir, yDir, team);
@@ -28,16 +29,23 @@ public class Projectile extends Entity {
 			rotation = MathUtils.atan2(yDir, xDir) * MathUtils.radiansToDegrees;
 		}
 		this.projID = projID;
-		if (ProjectileConfig.getProjectile(projID).getTimerValue() < 0) {
-			Timer.getScheduledExecutorService().schedule(()->setDead(), -ProjectileConfig.getProjectile(projID).getTimerValue(), TimeUnit.MILLISECONDS);
-		}
 		if (!ProjectileConfig.getProjectile(projID).isImage()) {
 			this.colour = ProjectileConfig.getProjectile(projID).getColour();
 			this.radius = ProjectileConfig.getProjectile(projID).getRadius();
 		}
 	}
+	/**Projectiles with a negative timer value die that many milliseconds after they are made. Their lifetime is started on the first
+	 * update instead of in the constructor, because the client makes projectiles on its input thread, and the timing wheel can only be
+	 * used by the thread that runs the game*/
+	public void startLifetime() {
+		if (lifetimeStarted) return;
+		lifetimeStarted = true;
+		if (ProjectileConfig.getProjectile(projID).getTimerValue() < 0) {
+			Game.getGame().getTimingWheel().schedule(this::setDead, -ProjectileConfig.getProjectile(projID).getTimerValue());
+		}
+	}
 	public void updateYDir() {
-		setYDir(getYDir() + Gdx.graphics.getDeltaTime() * ProjectileConfig.getProjectile(projID).getGravity());
+		setYDir(getYDir() + Game.getGame().getDeltaTime() * ProjectileConfig.getProjectile(projID).getGravity());
 	}
 	public void update(float xDir, float yDir) {
 		setX(getX() + xDir);
@@ -62,13 +70,13 @@ public class Projectile extends Entity {
 		if (isActive) {
 			isActive = false;
 			if (ProjectileConfig.getProjectile(projID).getTimerValue() > 0) {
-				Timer.getScheduledExecutorService().schedule(()->setDead(), ProjectileConfig.getProjectile(projID).getTimerValue(), TimeUnit.MILLISECONDS);
+				Game.getGame().getTimingWheel().schedule(this::setDead, ProjectileConfig.getProjectile(projID).getTimerValue());
 			} else {
 				setDead();
 			}
 		}
 	}
-	private void setDead() {
+	void setDead() {
 		isDead = true;
 	}
 	public boolean isActive() {
@@ -83,4 +91,10 @@ public class Projectile extends Entity {
 	public float getRotation() {
 		return rotation;
 	}
+	public int getRewind() {
+		return rewind;
+	}
+	public void setRewind(int rewind) {
+		this.rewind = rewind;
+	}
 }
\ No newline at end of file
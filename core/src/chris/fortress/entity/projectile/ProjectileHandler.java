@@ -1,43 +1,78 @@
 package chris.fortress.entity.projectile;
 
 import chris.fortress.Game;
+import chris.fortress.RoomLocal;
 import chris.fortress.entity.Entity;
 import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.socket.BitWriter;
+import chris.fortress.socket.Protocol;
 import chris.fortress.socket.SendMessage;
 import chris.fortress.util.Collision;
 import chris.fortress.util.Resource;
-import com.badlogic.gdx.Gdx;
+import chris.fortress.util.SpatialGrid;
 import com.badlogic.gdx.utils.Array;
 
-/**A class used by both the server and client to manage the projectiles in the game*/
+/**A class used by both the server and client to manage the projectiles in the game. On the server each room has its own projectiles (see Room)*/
 public final class ProjectileHandler {
-	private static final short LIMIT = 2000;
+	/**How far outside the map a projectile can go before it is removed*/
+	public static final short LIMIT = 2000;
 	
-	private static final Array<Projectile> projectiles = new Array<>();
+	private static final RoomLocal<Array<Projectile>> projectiles = new RoomLocal<>(Array::new);
+	/**Every projectile, with the box of where it moves this tick or frame (see index())*/
+	private static final RoomLocal<SpatialGrid<Projectile>> grid = new RoomLocal<>(() -> new SpatialGrid<>(1024));
 	
 	/**Add a projectile (client side method)*/
 	public static void addProjectile(float x, float y, float xDir, float yDir, boolean team, byte projID) {
-		projectiles.add(new Projectile(x, y, xDir, yDir, team, projID));
+		projectiles.get().add(new Projectile(x, y, xDir, yDir, team, projID));
 	}
-	/**For adding a projectile on the server side - add the projectile and update every player about it*/
-	public static void addUpdateProjectile(float x, float y, float xDir, float yDir, boolean team, byte projID) {
+	/**For adding a projectile on the server side - add the projectile and update every player about it
+	 * @param rewind How far back to check where the players were when the projectile hits them, in milliseconds (see PlayerHistory)*/
+	public static void addUpdateProjectile(float x, float y, float xDir, float yDir, boolean team, byte projID, int rewind) {
+		if (Protocol.PACKED) {
+			//Move the projectile the same way the clients do, with the speed they receive
+			xDir = BitWriter.quantize(xDir, Protocol.SPEED_MIN, Protocol.SPEED_RESOLUTION, Protocol.SPEED_BITS);
+			yDir = BitWriter.quantize(yDir, Protocol.SPEED_MIN, Protocol.SPEED_RESOLUTION, Protocol.SPEED_BITS);
+		}
 		addProjectile(x, y, xDir, yDir, team, projID);
+		projectiles.get().peek().setRewind(rewind);
 		SendMessage.sendProjectileToClients((short) x, (short) y, xDir, yDir, projID);
 	}
-	public static void removeProjectile(int pIndex) {
-		projectiles.removeIndex(pIndex);
+	/**Removes a projectile that hit a player. It is set dead, so it isn't found near another player before the grid is filled again*/
+	public static void removeProjectile(Projectile p) {
+		p.setDead();
+		projectiles.get().removeValue(p, true);
+	}
+	/**Puts every projectile in the grid, with the box from where it is to where it moves this tick or frame, so the players only have
+	 * to be checked against the projectiles near them. Called before the players are checked (see Collision.playerProjectileCollide())*/
+	public static void index() {
+		Array<Projectile> projectiles = ProjectileHandler.projectiles.get();
+		SpatialGrid<Projectile> grid = ProjectileHandler.grid.get();
+		float delta = Game.getGame().getDeltaTime();
+		grid.clear();
+		for (int i = 0; i < projectiles.size; i++) {
+			Projectile p = projectiles.get(i);
+			grid.add(p, p.getX(), p.getY(), p.getX() + delta * p.getXDir(), p.getY() + delta * p.getYDir());
+		}
+	}
+	/**Adds the projectiles that are in the box, or move through it this tick or frame, to out
+	 * @return out*/
+	public static Array<Projectile> getProjectilesNear(float x1, float y1, float x2, float y2, Array<Projectile> out) {
+		return grid.get().query(x1, y1, x2, y2, out);
 	}
 	public static Projectile getProjectile(int pIndex) {
-		return projectiles.get(pIndex);
+		return projectiles.get().get(pIndex);
 	}
 	public static int projectileCount() {
-		return projectiles.size;
+		return projectiles.get().size;
 	}
 	public static void updateProjectiles() {
+		Array<Projectile> projectiles = ProjectileHandler.projectiles.get();
+		float delta = Game.getGame().getDeltaTime();
 		for (int i = projectiles.size - 1; i >= 0; i--) {
 			Projectile p = projectiles.get(i);
+			p.startLifetime();
 			p.updateYDir();
-			float[] dir = new float[] {p.getXDir() * Gdx.graphics.getDeltaTime(), p.getYDir() * Gdx.graphics.getDeltaTime()};
+			float[] dir = new float[] {p.getXDir() * delta, p.getYDir() * delta};
 			//Max speed for projectiles so they don't travel through tiles
 			if (dir[0] > Entity.MAX_SPEED) dir[0] = Entity.MAX_SPEED;
 			else if (dir[0] < -Entity.MAX_SPEED) dir[0] = -Entity.MAX_SPEED;
@@ -62,6 +97,7 @@ public final class ProjectileHandler {
 	}
 	/**Creates blood particles on player death (client side only)*/
 	public static void playerDeath(int clientIndex) {
+		Array<Projectile> projectiles = ProjectileHandler.projectiles.get();
 		synchronized (projectiles) {
 			for (int i = 0; i < 40 + Resource.getRandom().nextInt(15); i++) {
 				projectiles.add(PlayerHandler.getPlayer(clientIndex).getAnimator().createParticle());
@@ -69,6 +105,7 @@ public final class ProjectileHandler {
 		}
 	}
 	public static void addImpactParticles(Projectile p) {
+		Array<Projectile> projectiles = ProjectileHandler.projectiles.get();
 		for (int j = 0; j < 30; j++) {
 			projectiles.add(new Projectile(p.getX(), p.getY(),
 					ProjectileConfig.impactParticle.getXDir(), ProjectileConfig.impactParticle.getYDir(),
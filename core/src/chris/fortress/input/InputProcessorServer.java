@@ -3,6 +3,7 @@ package chris.fortress.input;
 import chris.fortress.Game;
 import chris.fortress.GameServer;
 import chris.fortress.Level;
+import chris.fortress.Room;
 import chris.fortress.draw.DrawServer;
 import chris.fortress.socket.AddClient;
 import com.badlogic.gdx.InputProcessor;
@@ -44,21 +45,53 @@ public final class InputProcessorServer implements InputProcessor {
 		return false;
 	}
 
+	/**Loads the map with the given file name, or full path, into every room and starts the server, without waiting for it to be typed.
+	 * Used for -Dfortress.map and by the headless server (see StartHeadless)*/
+	public static void loadMap(String mapName) {
+		InputProcessorServer.mapName = mapName;
+		loadMap(true);
+		if (GameServer.getGameState() == GameServer.STATE_LOAD) {
+			System.out.println("Unable to load map " + mapName);
+		}
+	}
+	/**Loads the map into the current room, or into every room and starts the server if newServer is true*/
 	public static void loadMap(boolean newServer) {
-		//When stream is put in brackets beside try, it will always close even if there is an exception
-		try (ObjectInputStream fileIn = new ObjectInputStream(new BufferedInputStream(new FileInputStream(new File(Level.getLevelPath() + mapName))))) {
-			Level level = (Level) fileIn.readObject();
-			Game.setLevel(level);
+		try {
 			if (newServer) {
+				//Every room changes its own copy of the map
+				for (Room room : Room.getRooms()) {
+					Level level = readMap();
+					room.run(() -> setMap(level));
+				}
 				AddClient.startConnectionThread();
+				Room.startRooms();
 				DrawServer.showMainMessage();
+			} else {
+				setMap(readMap());
 			}
-			GameServer.setGameState(GameServer.STATE_WAIT);
 		} catch (IOException | ClassNotFoundException e) {
 			mapName = "";
 			DrawServer.showFileError();
 		}
 	}
+	private static Level readMap() throws IOException, ClassNotFoundException {
+		//When stream is put in brackets beside try, it will always close even if there is an exception
+		//A full path is used as it is, other names are in the level folder
+		File file = new File(mapName);
+		if (!file.isAbsolute()) file = new File(Level.getLevelPath() + mapName);
+		try (ObjectInputStream fileIn = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			return (Level) fileIn.readObject();
+		}
+	}
+	private static void setMap(Level level) {
+		if (Game.getGame() == null) {
+			Game.setGame(new GameServer());
+		}
+		Game.setLevel(level);
+		//Compress the map now, so the first player to join doesn't have to wait for it
+		level.getMapBlob();
+		GameServer.setGameState(GameServer.STATE_WAIT);
+	}
 	@Override
 	public boolean touchDown(int screenX, int screenY, int pointer, int button) {
 		return false;
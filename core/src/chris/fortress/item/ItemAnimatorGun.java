@@ -4,32 +4,31 @@ import chris.fortress.Game;
 import chris.fortress.GameClient;
 import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerAnimator;
-import chris.fortress.socket.SendMessage;
-import chris.fortress.util.Timer;
+import chris.fortress.entity.player.Prediction;
+import chris.fortress.util.TimingWheel;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector3;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
 /**The code for drawing a gun being held by the player*/
 public class ItemAnimatorGun extends ItemAnimator {
 	private static final float ANGLE_DOWN = 270, ANGLE_UP = 90;
 	private static final float GUN_DISTANCE = ItemGun.STARTING_RADIUS;
+	/**How often the mouse position is sent to the server, in milliseconds*/
+	private static final int SEND_TIME = 50;
 	private final Vector3 mousePos = new Vector3();
-	private ScheduledFuture<?> sendServer;
-	private volatile boolean shouldSendToServer = false;
+	/**If this is the gun of this client's player, which sends the mouse position to the server*/
+	private final boolean sendToServer;
+	/**The tick of the client's timing wheel when the mouse position is sent next*/
+	private long nextSend;
 	
 	public ItemAnimatorGun(Player p) {
 		super(p);
 		//Sets temporary mouse x position so that the player doesn't turn when equipping a gun
 		mousePos.x = (short) (p.getAnimator().getDirection() == Player.FACING_LEFT ? p.getX() - 200 : p.getY() + 200);
-		if (p.getClientID() == ((GameClient) Game.getGame()).getClientID()) {
-			sendServer = Timer.getScheduledExecutorService().scheduleAtFixedRate(()->sendToServer(), 50, 50, TimeUnit.MILLISECONDS);
-		}
+		sendToServer = p.getClientID() == ((GameClient) Game.getGame()).getClientID();
 	}
 	@Override
 	public void use(short mX, short mY) { }
@@ -66,28 +65,27 @@ public class ItemAnimatorGun extends ItemAnimator {
 		weapon.setY(pCentreY - yChange - weapon.getHeight() / 2);
 		weapon.draw(batch);
 		
-		if (shouldSendToServer) sendMousePosition();
+		//Drawn by the main loop, which runs the client's timing wheel
+		TimingWheel wheel = Game.getGame().getTimingWheel();
+		if (sendToServer && wheel.getTick() >= nextSend) {
+			nextSend = wheel.getTick() + wheel.toTicks(SEND_TIME);
+			sendMousePosition();
+		}
 	}
 	@Override
 	public void updateWeapon(short mX, short mY) {
 		mousePos.x = mX;
 		mousePos.y = mY;
 	}
+	//Nothing to release, since the mouse position is sent while the gun is drawn
 	@Override
-	public void dispose() {
-		//sendServer is only initialized for the player object that is connected to the actual player, so for other player objects sendServer will be null
-		if (sendServer != null) sendServer.cancel(true);
-	}
+	public void dispose() { }
 
-	private void sendToServer() {
-		shouldSendToServer = true;
-	}
-	/**Send the mouse position to the server (client side only)*/
+	/**Send the mouse position to the server with the next input command (client side only)*/
 	private void sendMousePosition() {
-		shouldSendToServer = false;
 		mousePos.x = Gdx.input.getX();
 		mousePos.y = Gdx.input.getY();
 		((GameClient) Game.getGame()).getCamera().unproject(mousePos);
-		SendMessage.sendMouseToServer((short) mousePos.x, (short) mousePos.y);
+		Prediction.aimAt(mousePos.x, mousePos.y);
 	}
 }
\ No newline at end of file
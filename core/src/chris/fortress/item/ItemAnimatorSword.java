@@ -3,18 +3,18 @@ package chris.fortress.item;
 import chris.fortress.Game;
 import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerAnimator;
-import chris.fortress.util.Timer;
+import chris.fortress.util.TimingWheel.Timeout;
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.math.MathUtils;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
 /**The code for drawing a sword being held by a player*/
 public class ItemAnimatorSword extends ItemAnimator {
 	private static final int ANGLE_RIGHT = -90, ANGLE_LEFT = 90;
 	private static final int CHANGE_ANGLE = 8;
+	/**How often the sword turns by CHANGE_ANGLE while it is swung, in milliseconds*/
+	private static final int SWING_TIME = 8;
 	private static final int ANGLE_LOWEST = 128;
 	private static final float SWORD_X_RADIUS_RIGHT = Game.SIZE * 0.48f;
 	private static final float SWORD_X_RADIUS_LEFT = Game.SIZE * 0.38f;
@@ -22,7 +22,8 @@ public class ItemAnimatorSword extends ItemAnimator {
 	
 	private volatile float weaponRotation;
 	
-	private ScheduledFuture<?> weaponTimer;
+	/**Turns the sword while it is swung*/
+	private final Timeout swingTimeout = new Timeout(this::update);
 	
 	public ItemAnimatorSword(Player p) {
 		super(p);
@@ -32,14 +33,16 @@ public class ItemAnimatorSword extends ItemAnimator {
 	@Override
 	public void use(short mX, short mY) {
 		boolean direction = mX < getPlayer().getX() + PlayerAnimator.getImage(0).getRegionWidth() / 2;
-		if (direction == Player.FACING_LEFT) {
-			setRequestedDirection(REQUEST_LEFT);
-		} else {
-			setRequestedDirection(REQUEST_RIGHT);
-		}
-		weaponRotation = 0;
-		if (weaponTimer != null) weaponTimer.cancel(true);
-		weaponTimer = Timer.getScheduledExecutorService().scheduleAtFixedRate(()->update(direction), 8, 8, TimeUnit.MILLISECONDS);
+		//Swords are used by the input threads, so the swing is started in the main loop, which runs the client's timing wheel
+		Gdx.app.postRunnable(()->{
+			if (direction == Player.FACING_LEFT) {
+				setRequestedDirection(REQUEST_LEFT);
+			} else {
+				setRequestedDirection(REQUEST_RIGHT);
+			}
+			weaponRotation = 0;
+			Game.getGame().getTimingWheel().scheduleRepeating(swingTimeout, SWING_TIME);
+		});
 	}
 	@Override
 	public void draw(SpriteBatch batch, Sprite currentPlayerImage) {
@@ -67,21 +70,19 @@ public class ItemAnimatorSword extends ItemAnimator {
 		s.draw(batch);
 	}
 	/**Runs through the sword animation when the sword is used*/
-	private synchronized void update(boolean direction) {
+	private void update() {
 		try {
 			if (getRequestedDirection() == REQUEST_LEFT) {
 				weaponRotation+=CHANGE_ANGLE;
 				if (weaponRotation >= ANGLE_LOWEST) {
-					weaponTimer.cancel(true);
-					weaponTimer = null;
+					swingTimeout.cancel();
 					setRequestedDirection(NO_REQUEST);
 					weaponRotation = ANGLE_LEFT;
 				}
 			} else {
 				weaponRotation-=CHANGE_ANGLE;
 				if (weaponRotation <= -ANGLE_LOWEST) {
-					weaponTimer.cancel(true);
-					weaponTimer = null;
+					swingTimeout.cancel();
 					setRequestedDirection(NO_REQUEST);
 					weaponRotation = ANGLE_RIGHT;
 				}
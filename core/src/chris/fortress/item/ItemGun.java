@@ -2,6 +2,7 @@ package chris.fortress.item;
 
 import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.entity.player.PlayerHistory;
 import chris.fortress.entity.projectile.ProjectileConfig;
 import chris.fortress.entity.projectile.ProjectileHandler;
 
@@ -39,6 +40,6 @@ public class ItemGun extends ItemConfig {
 		ProjectileHandler.addUpdateProjectile(pCentreX + xChange * DISTANCE_STRETCH - ProjectileConfig.gunshot.getWidth() / 2,
 				pCentreY + yChange * DISTANCE_STRETCH - ProjectileConfig.gunshot.getHeight() / 2,
 				xChange * SPEED_ADJUST, yChange * SPEED_ADJUST,
-				PlayerHandler.getPlayer(cI).getTeam(), ProjectileConfig.gunshot.getID());
+				PlayerHandler.getPlayer(cI).getTeam(), ProjectileConfig.gunshot.getID(), PlayerHistory.getRewind(p));
 	}
 }
\ No newline at end of file
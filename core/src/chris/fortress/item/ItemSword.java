@@ -2,17 +2,23 @@ package chris.fortress.item;
 
 import chris.fortress.Game;
 import chris.fortress.GameServer;
+import chris.fortress.RoomLocal;
 import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.entity.player.PlayerHistory;
 import chris.fortress.socket.SendMessage;
 import chris.fortress.util.CustomRectangle;
-import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
 
 /**The sword ItemConfig which defines how swords behave*/
 public class ItemSword extends ItemConfig {
 	private static final short ATTACK_DISTANCE = 1 * Game.SIZE;
 	/**Constant to add to the player y to get the approximate position of the weapon*/
 	private static final int ATTACK_HEIGHT = 15;
+	/**Where the player being checked was when the attacking player saw it. Each room has its own (see Room)*/
+	private static final RoomLocal<float[]> victims = new RoomLocal<>(() -> new float[2]);
+	/**The players near the attack (see PlayerHistory.getPlayersNear())*/
+	private static final RoomLocal<Array<Player>> nearPlayers = new RoomLocal<>(Array::new);
 
 	protected ItemSword(String imageName, boolean repeatable, boolean updateMouse, int timeGap) {
 		super(imageName, repeatable, updateMouse, timeGap);
@@ -29,15 +35,22 @@ public class ItemSword extends ItemConfig {
 		boolean facingLeft = (mX <= aP.getX() + Player.WIDTH / 2) ? Player.FACING_LEFT : Player.FACING_RIGHT;
 		attackX = facingLeft ? aP.getX() : aP.getX() + Player.WIDTH;
 		//If the attacking player is moving, code below makes collision of point and rectangle feel more accurate
-		attackX += aP.getXDir() * Gdx.graphics.getDeltaTime();
+		attackX += aP.getXDir() * Game.getGame().getDeltaTime();
 		attackY = aP.getY() + Player.HEIGHT - ATTACK_HEIGHT;
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			Player rP = PlayerHandler.getPlayer(i);
-			if (rP.getHealth() > 0 && PlayerHandler.getPlayer(i).getTeam() != PlayerHandler.getPlayer(cI).getTeam()) {
-				if ((facingLeft && rP.getX() <= aP.getX()) || (!facingLeft && rP.getX() > aP.getX())) {
-					CustomRectangle checkRect = new CustomRectangle(rP.getX(), rP.getY(), rP.getX() + Player.WIDTH, rP.getY() + Player.HEIGHT);
+		//The attacking player sees the other players where they were a little while ago, so check where they were then
+		int viewTime = GameServer.getTime() - PlayerHistory.getRewind(aP);
+		float[] victim = victims.get();
+		//Only the players that were near the attack can be hit
+		Array<Player> nearPlayers = ItemSword.nearPlayers.get();
+		nearPlayers.clear();
+		PlayerHistory.getPlayersNear(attackX - ATTACK_DISTANCE, attackY - ATTACK_DISTANCE, attackX + ATTACK_DISTANCE, attackY + ATTACK_DISTANCE, nearPlayers);
+		for (int i = 0; i < nearPlayers.size; i++) {
+			Player rP = nearPlayers.get(i);
+			if (rP.getHealth() > 0 && rP.getTeam() != aP.getTeam()) {
+				if (!PlayerHistory.getPosition(rP.getClientID(), viewTime, victim)) continue;
+				if ((facingLeft && victim[0] <= aP.getX()) || (!facingLeft && victim[0] > aP.getX())) {
 					//Attacking player must be near other player
-					if (checkRect.overlaps(attackX, attackY, ATTACK_DISTANCE)) {
+					if (CustomRectangle.overlaps(victim[0], victim[1], victim[0] + Player.WIDTH, victim[1] + Player.HEIGHT, attackX, attackY, ATTACK_DISTANCE)) {
 						if (rP.hurt((short) 10)) {
 							SendMessage.sendHealthToClients(rP.getClientID(), rP.getHealth());
 						}
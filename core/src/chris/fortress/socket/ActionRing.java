@@ -0,0 +1,57 @@
+package chris.fortress.socket;
+
+/**Server side: the messages from one client that haven't been used yet, between the one thread that receives them (the client's
+ * SelectorThread, or the UdpServer thread) and the game thread. Every message is a record of a message byte and up to three shorts, kept
+ * in arrays that are allocated once, so receiving a message doesn't allocate anything. Neither side takes a lock: the receiving thread
+ * only moves the tail and the game thread only moves the head, and each moves it with a volatile write after it is done with the record
+ */
+public final class ActionRing {
+	/**How many records the ring holds, a power of 2*/
+	private final int size;
+	private final byte[] messages;
+	private final short[] first, second, third;
+	/**Number of the next record to use, only written by the game thread*/
+	private volatile int head;
+	/**Number of the next record to add, only written by the receiving thread*/
+	private volatile int tail;
+
+	/**@param size How many records the ring holds, a power of 2*/
+	public ActionRing(int size) {
+		this.size = size;
+		messages = new byte[size];
+		first = new short[size];
+		second = new short[size];
+		third = new short[size];
+	}
+	/**Adds a message, to be used in the next game loop. Only called by the receiving thread
+	 * @return False if the ring is full, in which case the message is dropped*/
+	public boolean add(byte message, short a, short b, short c) {
+		int t = tail;
+		if (t - head == size) return false;
+		int slot = t & (size - 1);
+		messages[slot] = message;
+		first[slot] = a;
+		second[slot] = b;
+		third[slot] = c;
+		//Makes the record visible to the game thread
+		tail = t + 1;
+		return true;
+	}
+	public boolean add(byte message) {
+		return add(message, (short) 0, (short) 0, (short) 0);
+	}
+	/**@return How many messages are waiting to be used. Can be called from any thread*/
+	public int size() {
+		return tail - head;
+	}
+	/**Follows through on every message added so far, oldest first (see Protocol.checkServerInput()). Only called by the game thread*/
+	public void use(byte clientID) {
+		int h = head, t = tail;
+		for (; h != t; h++) {
+			int slot = h & (size - 1);
+			Protocol.checkServerInput(messages[slot], clientID, first[slot], second[slot], third[slot]);
+		}
+		//Lets the receiving thread reuse the records
+		head = h;
+	}
+}
\ No newline at end of file
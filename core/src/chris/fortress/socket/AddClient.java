@@ -1,57 +1,96 @@
 package chris.fortress.socket;
 
 import chris.fortress.GameServer;
+import chris.fortress.Room;
 import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerHandler;
 import chris.fortress.entity.player.PlayerSocket;
 import com.badlogic.gdx.Gdx;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
-/**A server side thread class that connects players to the server*/
+/**A server side class that connects players to the server. Connections are accepted and read by a small, fixed set of selector threads,
+ * or by threads of their own in thread mode (see ConnectionThreads)*/
 public class AddClient {
-	private static Thread connectionThread;
-	private static ServerSocket serverSocket;
-	
+	/**How many selector threads handle the players' connections*/
+	private static final int SELECTOR_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+	/**How many players can be in a room. ClientIDs are bytes, so there can be at most 256*/
+	public static final int MAX_PLAYERS = Math.max(1, Math.min(256, Integer.getInteger("fortress.maxPlayers", 256)));
+
+	private static ServerSocketChannel serverChannel;
+	private static SelectorThread[] selectorThreads;
+	/**The selector thread that the next connection will be given to*/
+	private static int nextSelector = 0;
+
 	public static void startConnectionThread() {
 		try {
-			serverSocket = new ServerSocket(PlayerSocket.PORT);
-			connectionThread = new Thread(()->{
-				waitForClient();
-			});
-			connectionThread.start();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(PlayerSocket.PORT));
+			if (ConnectionThreads.ENABLED) {
+				ConnectionThreads.acceptFrom(serverChannel);
+				UdpServer.start();
+				return;
+			}
+			serverChannel.configureBlocking(false);
+			selectorThreads = new SelectorThread[SELECTOR_THREADS];
+			for (int i = 0; i < selectorThreads.length; i++) {
+				selectorThreads[i] = new SelectorThread("Selector-" + i);
+			}
+			//The first selector thread also accepts new connections
+			selectorThreads[0].acceptFrom(serverChannel);
+			for (SelectorThread selectorThread : selectorThreads) {
+				selectorThread.start();
+			}
+			UdpServer.start();
 		} catch (IOException e) {
 			//A server is already running: close this server
 			Gdx.app.exit();
 		}
 	}
-	private static void waitForClient() {
-		try {
-			while (!Thread.interrupted()) {
-				Socket socket = serverSocket.accept();
-				//Not good to have Nagle's algorithm for a game where updates must be received immediately
-				socket.setTcpNoDelay(true);
-				Player p = new Player(socket, PlayerHandler.nextClientID());
-				PlayerHandler.addPlayer(p);
-				SendMessage.updatePlayersAboutName(PlayerHandler.playerCount() - 1);
-				p.startPlayer(GameServer.getGameState());
-			}
-		} catch (IOException e) {
-			//Server is closing - ignore exception
+	/**Called by a selector thread when a client connects. The connection is given to the selector threads in turn*/
+	static void accept(SocketChannel channel) throws IOException {
+		//Not good to have Nagle's algorithm for a game where updates must be received immediately
+		channel.socket().setTcpNoDelay(true);
+		channel.configureBlocking(false);
+		SelectorThread selectorThread = selectorThreads[nextSelector];
+		nextSelector = (nextSelector + 1) % selectorThreads.length;
+		selectorThread.register(new PlayerSocket(channel, selectorThread));
+	}
+	/**Called by a selector thread once a new client has sent its name and room. Creates the player in the room and updates every client
+	 * in the room about it. A client asking for a room that doesn't exist joins the first room
+	 * @return False if the room is full (see MAX_PLAYERS). The connection should be closed, which the client sees as an ERROR*/
+	public static boolean addPlayer(PlayerSocket pSocket, String name, int roomNumber) {
+		Room room = Room.get(roomNumber);
+		if (room == null) room = Room.get(0);
+		if (PlayerHandler.getPlayers(room).length >= MAX_PLAYERS) {
+			System.out.println(name + " was turned away, room " + room.getNumber() + " is full");
+			return false;
 		}
+		pSocket.setRoom(room);
+		room.run(() -> {
+			Player p = new Player(pSocket, PlayerHandler.nextClientID(), name);
+			PlayerHandler.addPlayer(p);
+			SendMessage.updatePlayersAboutName(PlayerHandler.playerCount() - 1);
+			p.startPlayer(GameServer.getGameState());
+		});
+		return true;
 	}
 	public static void dispose() {
-		if (serverSocket != null) {
+		if (serverChannel != null) {
 			try {
-				serverSocket.close();
+				serverChannel.close();
 			} catch (IOException e) {
 				//Server is closing - ignore exception
 			}
 		}
-		if (connectionThread != null) {
-			connectionThread.interrupt();
+		UdpServer.dispose();
+		if (selectorThreads != null) {
+			for (SelectorThread selectorThread : selectorThreads) {
+				selectorThread.shutdown();
+			}
 		}
 	}
 }
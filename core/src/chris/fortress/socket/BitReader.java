@@ -0,0 +1,61 @@
+package chris.fortress.socket;
+
+import chris.fortress.entity.player.PlayerSocket;
+
+import java.nio.ByteBuffer;
+
+/**Reads the fields of a packed message written by BitWriter, from a datagram or from the TCP input. Bytes are only taken when a field
+ * needs them, so after the last field the next message can be read as usual.
+ */
+public final class BitReader {
+	/**Where the bytes come from, either a datagram or a socket*/
+	private ByteBuffer buffer;
+	private PlayerSocket socket;
+	/**Bits taken but not read yet, the lowest count bits of bits*/
+	private long bits;
+	private int count;
+
+	/**Starts reading a packed message from a datagram, after its message byte*/
+	public BitReader start(ByteBuffer buffer) {
+		this.buffer = buffer;
+		socket = null;
+		bits = 0;
+		count = 0;
+		return this;
+	}
+	/**Starts reading a packed message from the TCP input, after its message byte*/
+	public BitReader start(PlayerSocket socket) {
+		this.socket = socket;
+		buffer = null;
+		bits = 0;
+		count = 0;
+		return this;
+	}
+	/**@return The next bitCount bits (at most 32), as a number that is not negative (unless bitCount is 32)*/
+	public int read(int bitCount) {
+		while (count < bitCount) {
+			bits = bits << 8 | (buffer != null ? buffer.get() : socket.readByte()) & 0xFF;
+			count += 8;
+		}
+		count -= bitCount;
+		return (int) (bits >>> count & (1L << bitCount) - 1);
+	}
+	public boolean readBoolean() {
+		return read(1) == 1;
+	}
+	public int readVarint(int groupBits) {
+		int value = 0;
+		for (int shift = 0; ; shift += groupBits) {
+			boolean more = readBoolean();
+			value |= read(groupBits) << shift;
+			if (!more) return value;
+		}
+	}
+	public int readSigned(int groupBits) {
+		int value = readVarint(groupBits);
+		return value >>> 1 ^ -(value & 1);
+	}
+	public float readQuantized(float min, float resolution, int bitCount) {
+		return min + read(bitCount) * resolution;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+package chris.fortress.socket;
+
+import java.nio.ByteBuffer;
+
+/**Writes the fields of a packed message bit by bit, after its message byte, so small numbers take only a few bits instead of a whole
+ * short or float (see BitReader for the other side). Fields are written highest bit first, and the message is padded to a whole byte
+ * at the end, so packed messages can be sent next to normal ones. Numbers can be written as a fixed number of bits, as varints (groups
+ * of bits with a bit before each group telling if another one follows), or quantized to a range and a resolution. Each thread has its
+ * own writer, use BitWriter.get() to get it.
+ */
+public final class BitWriter {
+	/**Positions in packed messages can be this far outside the map, in pixels. Positions further out are moved to the edge*/
+	public static final int POSITION_MARGIN = 512;
+	private static final ThreadLocal<BitWriter> writers = ThreadLocal.withInitial(BitWriter::new);
+
+	private SharedMessage message;
+	/**Bits that haven't been written to the message yet, the lowest count bits of bits*/
+	private long bits;
+	private int count;
+
+	private BitWriter() {}
+	/**@return This thread's writer, writing after the message byte of a new message*/
+	public static BitWriter get(byte messageType) {
+		BitWriter writer = writers.get();
+		writer.message = SharedMessage.get().writeByte(messageType);
+		writer.bits = 0;
+		writer.count = 0;
+		return writer;
+	}
+	/**Writes the lowest bitCount bits of the value (at most 32)*/
+	public BitWriter write(int value, int bitCount) {
+		bits = bits << bitCount | value & (1L << bitCount) - 1;
+		count += bitCount;
+		while (count >= 8) {
+			count -= 8;
+			message.writeByte((byte) (bits >>> count));
+		}
+		return this;
+	}
+	public BitWriter writeBoolean(boolean value) {
+		return write(value ? 1 : 0, 1);
+	}
+	/**Writes a number that is not negative in groups of groupBits bits, lowest group first, so small numbers take fewer bits*/
+	public BitWriter writeVarint(int value, int groupBits) {
+		do {
+			int group = value & (1 << groupBits) - 1;
+			value >>>= groupBits;
+			write(value != 0 ? 1 : 0, 1);
+			write(group, groupBits);
+		} while (value != 0);
+		return this;
+	}
+	/**Writes a number that can be negative as a varint. Numbers close to 0 take fewer bits either way*/
+	public BitWriter writeSigned(int value, int groupBits) {
+		return writeVarint(value << 1 ^ value >> 31, groupBits);
+	}
+	/**Writes the value rounded to the resolution, as one of 2^bitCount steps from min. Values outside the range are moved to its edge
+	 * (see quantize())*/
+	public BitWriter writeQuantized(float value, float min, float resolution, int bitCount) {
+		return write(step(value, min, resolution, bitCount), bitCount);
+	}
+	/**@return The encoded message. It can be given to any number of PlayerSockets with writeShared()*/
+	public ByteBuffer end() {
+		if (count > 0) {
+			write(0, 8 - count);
+		}
+		SharedMessage finished = message;
+		message = null;
+		return finished.end();
+	}
+	/**@return The value as the other side reads it after writeQuantized()*/
+	public static float quantize(float value, float min, float resolution, int bitCount) {
+		return min + step(value, min, resolution, bitCount) * resolution;
+	}
+	/**@return How many bits it takes to write every number from 0 to range - 1*/
+	public static int bitsFor(int range) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(range - 1));
+	}
+	/**@return How many bits a position along a side of the map takes when written with resolution (see POSITION_MARGIN)*/
+	public static int positionBits(int mapPixels, float resolution) {
+		return bitsFor((int) Math.ceil((mapPixels + 2 * POSITION_MARGIN) / resolution) + 1);
+	}
+	private static int step(float value, float min, float resolution, int bitCount) {
+		int step = Math.round((value - min) / resolution);
+		return Math.max(0, Math.min(step, (1 << bitCount) - 1));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+package chris.fortress.socket;
+
+import chris.fortress.entity.player.PlayerSocket;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+
+/**A server side connection mode where every connection has an input thread that blocks on reads and an output thread that blocks on
+ * writes, instead of sharing the SelectorThreads. The threads are virtual threads when the runtime has them (Java 21 and later), which
+ * need no kernel thread or fixed stack of their own, and daemon platform threads otherwise. Start the server with -Dfortress.io=threads
+ * to use this mode
+ */
+public final class ConnectionThreads {
+	/**True if the server gives every connection its own threads instead of using SelectorThreads*/
+	public static final boolean ENABLED = "threads".equals(System.getProperty("fortress.io"));
+	/**Creates virtual threads, or null if the runtime doesn't have them*/
+	private static final ThreadFactory virtualThreads = findVirtualThreads();
+
+	private ConnectionThreads() {}
+	/**Looks up Thread.ofVirtual().factory(), which doesn't exist before Java 21*/
+	private static ThreadFactory findVirtualThreads() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			//Older runtime - use platform threads
+			return null;
+		}
+	}
+	/**@return True if newThread() creates virtual threads*/
+	public static boolean isVirtual() {
+		return virtualThreads != null;
+	}
+	/**@return A thread that hasn't been started, virtual if the runtime has them. It doesn't keep the server running*/
+	public static Thread newThread(String name, Runnable task) {
+		Thread thread;
+		if (virtualThreads != null) {
+			thread = virtualThreads.newThread(task);
+		} else {
+			thread = new Thread(task);
+			thread.setDaemon(true);
+		}
+		thread.setName(name);
+		return thread;
+	}
+	/**Starts the thread that accepts new connections and gives each one its threads. The server channel must be blocking. A connection
+	 * that fails only closes that connection, and the thread keeps accepting until the server channel is closed*/
+	static void acceptFrom(ServerSocketChannel serverChannel) {
+		newThread("Accept", () -> {
+			int number = 0;
+			while (true) {
+				SocketChannel channel;
+				try {
+					channel = serverChannel.accept();
+				} catch (ClosedChannelException e) {
+					//Server is closing - ignore exception
+					return;
+				} catch (IOException e) {
+					//For example too many open files: wait a little for connections to close instead of trying again right away
+					System.out.println("Could not accept a connection: " + e.getMessage());
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException interrupted) {
+						return;
+					}
+					continue;
+				}
+				try {
+					//Not good to have Nagle's algorithm for a game where updates must be received immediately
+					channel.socket().setTcpNoDelay(true);
+				} catch (IOException e) {
+					//The connection was reset before it was set up
+					try {
+						channel.close();
+					} catch (IOException closeException) {
+						//Connection is already closed - ignore exception
+					}
+					continue;
+				}
+				new PlayerSocket(channel, null).startThreads(number++);
+			}
+		}).start();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,212 @@
+package chris.fortress.socket;
+
+import chris.fortress.entity.player.PlayerSocket;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**One side of the UDP channel between the server and a client. Every datagram starts with a sequence number, so a receiver can drop
+ * latest-value messages (mouse updates) that are older than one it has already used. Reliable messages are numbered
+ * separately, and are sent again until the other side acknowledges them.
+ * A datagram is a short sequence number followed by records. A record is a game message (opcode and data, like over TCP), or one of:
+ * HELLO (client: clientID and int token, server: nothing), ACK (short reliable number) or RELIABLE (short reliable number, then a game message)
+ */
+public final class DatagramLink {
+	/**Largest datagram that is sent, small enough to avoid IP fragmentation*/
+	public static final int MAX_DATAGRAM = 1200;
+	static final byte HELLO = 1, ACK = 2, RELIABLE = 3;
+	/**How long to wait for an acknowledgement before sending a reliable message again*/
+	private static final long RESEND_NANOS = 100_000_000;
+	/**A reliable message is given up on after being sent this many times*/
+	private static final int MAX_SENDS = 10;
+	/**How many recently received reliable numbers are remembered, to ignore resent copies*/
+	private static final int RECENT_RELIABLE = 64;
+
+	private final DatagramChannel channel;
+	private final SocketAddress remote;
+	/**Server side: the TCP connection of the player on the other side*/
+	private final PlayerSocket pSocket;
+	/**The datagram being built*/
+	private final ByteBuffer out = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+	private short sequence;
+	private short reliableSequence;
+	/**Reliable messages that have not been acknowledged yet*/
+	private final List<Pending> pending = new ArrayList<>();
+
+	/**The newest sequence number used for MOUSE, by clientID (snapshots have their own numbers)*/
+	private final short[] latest = new short[256];
+	private final boolean[] latestReceived = new boolean[256];
+	private final short[] recentReliable = new short[RECENT_RELIABLE];
+	private int recentReliableCount, nextRecentReliable;
+
+	/**
+	 * @param channel The channel to send with. On the server it is shared by every link
+	 * @param remote The address on the other side
+	 * @param pSocket Server side: the TCP connection of the same player. Null on the client
+	 */
+	public DatagramLink(DatagramChannel channel, SocketAddress remote, PlayerSocket pSocket) {
+		this.channel = channel;
+		this.remote = remote;
+		this.pSocket = pSocket;
+	}
+	/**@return If the message fits in a datagram, as a latest-value or reliable record. Bigger ones (ex. a snapshot with a lot of players)
+	 * have to be sent over TCP*/
+	public static boolean fits(ByteBuffer message) {
+		//The datagram's sequence number, and the RELIABLE record's byte and number
+		return message.remaining() + 2 + 3 <= MAX_DATAGRAM;
+	}
+	/**Adds a latest-value message to the next datagram. It is not sent again if it is lost. The message must fit (see fits())
+	 * @param message A message from SharedMessage, which is not changed*/
+	public synchronized void writeLatest(ByteBuffer message) {
+		count(message);
+		startRecord(message.remaining());
+		putMessage(message);
+	}
+	/**Adds a message to the next datagram, and keeps sending it until it is acknowledged. The message must fit (see fits())
+	 * @param message A message from SharedMessage, which is not changed*/
+	public synchronized void writeReliable(ByteBuffer message) {
+		count(message);
+		reliableSequence++;
+		pending.add(new Pending(reliableSequence, message));
+		putReliable(reliableSequence, message);
+	}
+	private void putReliable(short number, ByteBuffer message) {
+		startRecord(message.remaining() + 3);
+		out.put(RELIABLE);
+		out.putShort(number);
+		putMessage(message);
+	}
+	/**Server side: counts a message for NetworkStats when it is first added*/
+	private void count(ByteBuffer message) {
+		if (pSocket != null) {
+			NetworkStats.countOut(message.get(message.position()), message.remaining(), pSocket.getStats());
+		}
+	}
+	private void putMessage(ByteBuffer message) {
+		int position = message.position();
+		out.put(message);
+		message.position(position);
+	}
+	/**Makes room for a record of the given size, sending the current datagram first if it would not fit*/
+	private void startRecord(int size) {
+		if (out.position() > 0 && out.position() + size > MAX_DATAGRAM) {
+			send();
+		}
+		if (out.position() == 0) {
+			out.putShort(++sequence);
+		}
+	}
+	/**Client side: asks the server to link this address to the player with the given clientID*/
+	public synchronized void sendHello(byte clientID, int token) {
+		startRecord(6);
+		out.put(HELLO);
+		out.put(clientID);
+		out.putInt(token);
+		send();
+	}
+	/**Server side: tells the client that the UDP channel works*/
+	public synchronized void sendHello() {
+		startRecord(1);
+		out.put(HELLO);
+		send();
+	}
+	/**Tells the other side that a reliable message was received*/
+	public synchronized void sendAck(short number) {
+		startRecord(3);
+		out.put(ACK);
+		out.putShort(number);
+		send();
+	}
+	/**Stops sending the reliable message with the given number*/
+	public synchronized void acknowledge(short number) {
+		for (int i = 0; i < pending.size(); i++) {
+			if (pending.get(i).number == number) {
+				pending.remove(i);
+				return;
+			}
+		}
+	}
+	/**
+	 * Sends reliable messages that have not been acknowledged in time, and the datagram being built
+	 * @return True if a datagram was sent
+	 */
+	public synchronized boolean flush() {
+		long now = System.nanoTime();
+		for (int i = pending.size() - 1; i >= 0; i--) {
+			Pending message = pending.get(i);
+			if (now - message.sentAt >= RESEND_NANOS) {
+				if (message.sends >= MAX_SENDS) {
+					//The other side is not answering, give up on this message
+					pending.remove(i);
+					continue;
+				}
+				message.sends++;
+				message.sentAt = now;
+				putReliable(message.number, message.message);
+			}
+		}
+		if (out.position() == 0) {
+			return false;
+		}
+		send();
+		return true;
+	}
+	private void send() {
+		out.flip();
+		try {
+			int bytes = channel.send(out, remote);
+			if (pSocket != null) pSocket.getStats().countWireOut(bytes);
+		} catch (IOException e) {
+			//Datagrams may be lost anyway - ignore exception
+		}
+		out.clear();
+	}
+	/**Receiving thread only: checks if a MOUSE message is newer than the last one used for the same player
+	 * @param sequence The sequence number of the datagram the message came in
+	 * @return True if the message should be used, false if it is out of date*/
+	public boolean isNewer(byte clientID, short sequence) {
+		int key = clientID & 0xFF;
+		if (latestReceived[key] && (short) (sequence - latest[key]) <= 0) {
+			return false;
+		}
+		latestReceived[key] = true;
+		latest[key] = sequence;
+		return true;
+	}
+	/**Receiving thread only: checks if a reliable message is received for the first time, or is a copy that was sent again*/
+	public boolean firstDelivery(short number) {
+		for (int i = 0; i < recentReliableCount; i++) {
+			if (recentReliable[i] == number) {
+				return false;
+			}
+		}
+		recentReliable[nextRecentReliable] = number;
+		nextRecentReliable = (nextRecentReliable + 1) % RECENT_RELIABLE;
+		recentReliableCount = Math.min(recentReliableCount + 1, RECENT_RELIABLE);
+		return true;
+	}
+	/**Server side: the TCP connection of the player on the other side*/
+	public PlayerSocket getPSocket() {
+		return pSocket;
+	}
+	public SocketAddress getRemote() {
+		return remote;
+	}
+
+	/**A reliable message that has not been acknowledged*/
+	private static final class Pending {
+		private final short number;
+		private final ByteBuffer message;
+		private long sentAt = System.nanoTime();
+		private int sends = 1;
+
+		private Pending(short number, ByteBuffer message) {
+			this.number = number;
+			this.message = message;
+		}
+	}
+}
\ No newline at end of file
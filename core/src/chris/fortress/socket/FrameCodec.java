@@ -0,0 +1,320 @@
+package chris.fortress.socket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**Encodes and decodes the primitives sent between the server and the clients. Output is sent in frames: a 2 byte length followed by
+ * everything written since the last frame was closed. Frames are written into direct ByteBuffers that are kept for the whole connection,
+ * and only grow if a frame doesn't fit. Messages sent to many clients are encoded once (see SharedMessage), and the output only keeps a
+ * reference to them. Errors are only handled when a channel is read or written, not for every value.
+ */
+public final class FrameCodec {
+	/**The largest frame payload. Longer output is split over several frames*/
+	public static final int MAX_FRAME = 0xFFFF;
+	/**Size of the length that starts every frame*/
+	private static final int HEADER = 2;
+	/**Shared messages up to this size are copied into the output instead of being referenced*/
+	private static final int COPY_LIMIT = 256;
+
+	/**Output that has not been written to the channel yet, in write mode*/
+	private ByteBuffer out;
+	/**Position in the output buffer of the first byte that has not been queued yet*/
+	private int segmentStart = 0;
+	/**Parts of the output waiting to be written, in order: slices of the output buffer, and shared messages*/
+	private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+	/**Reused for gathering writes*/
+	private ByteBuffer[] gather = new ByteBuffer[16];
+	/**The buffer holding the length of the frame currently being written (the output buffer may have been replaced since)*/
+	private ByteBuffer frameBuffer;
+	/**Position of the length of the frame currently being written, or -1 if no frame is open*/
+	private int frameStart = -1;
+	/**How many bytes the frame currently being written holds so far*/
+	private int frameLength;
+	/**Bytes received from the channel that have not been split into frames yet, in read mode*/
+	private final ByteBuffer raw;
+	/**The payload of every complete frame received so far, with the lengths removed, in read mode*/
+	private ByteBuffer in;
+	/**False once the channel has reached the end of the stream or failed*/
+	private boolean open = true;
+	/**How many bytes the last write left for later*/
+	private int unwritten;
+	/**Totals for NetworkStats: bytes added to the output (without frame lengths), written to the channel, and read from it*/
+	private long bytesWritten, bytesSent, bytesReceived;
+
+	/**
+	 * @param inputSize The largest frame that can be received, plus room for the start of the next one
+	 * @param outputSize The starting size of the output buffer
+	 */
+	public FrameCodec(int inputSize, int outputSize) {
+		raw = ByteBuffer.allocateDirect(inputSize);
+		raw.flip();
+		in = ByteBuffer.allocateDirect(inputSize);
+		in.flip();
+		out = ByteBuffer.allocateDirect(outputSize);
+	}
+	/**
+	 * Non-blocking read: reads whatever the channel has, and moves the payload of every complete frame into the input
+	 * @return False if the connection has been closed, or a frame was too large
+	 */
+	public boolean readFrom(SocketChannel channel) {
+		try {
+			raw.compact();
+			int bytesRead = channel.read(raw);
+			raw.flip();
+			if (bytesRead < 0) {
+				open = false;
+			} else {
+				bytesReceived += bytesRead;
+			}
+			in.compact();
+			try {
+				while (nextFrame()) { }
+			} finally {
+				in.flip();
+			}
+			if (!raw.hasRemaining() || raw.remaining() < raw.capacity()) {
+				return open;
+			}
+			//The buffer is full but doesn't hold a complete frame
+			open = false;
+		} catch (IOException | BufferOverflowException e) {
+			open = false;
+		}
+		return false;
+	}
+	/**Moves the payload of one frame from the raw input to the input, if all of it has been received*/
+	private boolean nextFrame() {
+		if (raw.remaining() < HEADER) return false;
+		int length = raw.getShort(raw.position()) & 0xFFFF;
+		if (raw.remaining() < HEADER + length) return false;
+		raw.position(raw.position() + HEADER);
+		int limit = raw.limit();
+		raw.limit(raw.position() + length);
+		in.put(raw);
+		raw.limit(limit);
+		return true;
+	}
+	/**Blocking read: waits until the given number of bytes can be read, or the connection is lost
+	 * @return False if the connection has been lost*/
+	private boolean require(SocketChannel channel, int bytes) {
+		while (in.remaining() < bytes) {
+			if (!open || channel == null || !channel.isBlocking()) return false;
+			try {
+				in.compact();
+				try {
+					while (!nextFrame()) {
+						raw.compact();
+						int bytesRead = channel.read(raw);
+						raw.flip();
+						if (bytesRead < 0) throw new EOFException();
+						bytesReceived += bytesRead;
+					}
+				} finally {
+					in.flip();
+				}
+			} catch (IOException e) {
+				open = false;
+				return false;
+			}
+		}
+		return true;
+	}
+	/**@return True if there are bytes left in the frames received so far*/
+	public boolean hasInput() {
+		return in.hasRemaining();
+	}
+	/**@return How many bytes are left in the frames received so far*/
+	public int getInputRemaining() {
+		return in.remaining();
+	}
+	/**@return How many bytes have been added to the output, not counting frame lengths*/
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+	/**@return How many bytes have been written to the channel, including frame lengths*/
+	public long getBytesSent() {
+		return bytesSent;
+	}
+	/**@return How many bytes have been read from the channel, including frame lengths*/
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+	public byte readByte(SocketChannel channel) {
+		return require(channel, 1) ? in.get() : Protocol.ERROR;
+	}
+	public boolean readBoolean(SocketChannel channel) {
+		return require(channel, 1) && in.get() != 0;
+	}
+	public short readShort(SocketChannel channel) {
+		return require(channel, 2) ? in.getShort() : Protocol.ERROR;
+	}
+	public int readInt(SocketChannel channel) {
+		return require(channel, 4) ? in.getInt() : Protocol.ERROR;
+	}
+	public float readFloat(SocketChannel channel) {
+		return require(channel, 4) ? in.getFloat() : Protocol.ERROR;
+	}
+	public void readBytes(SocketChannel channel, byte[] bytes) {
+		if (require(channel, bytes.length)) in.get(bytes);
+	}
+	public String readString(SocketChannel channel) {
+		if (!require(channel, 2)) return null;
+		int length = in.getShort() & 0xFFFF;
+		if (!require(channel, length)) return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	/**Makes room for the given number of bytes in the current frame, opening a new frame if needed*/
+	private void reserve(int bytes) {
+		if (frameStart >= 0 && frameLength + bytes > MAX_FRAME) {
+			closeFrame();
+		}
+		if (out.remaining() < bytes + HEADER) {
+			if (queue.isEmpty() && segmentStart == 0) {
+				//Nothing refers to the buffer yet, so it can just be copied into a bigger one
+				ByteBuffer newOut = ByteBuffer.allocateDirect(Math.max(out.capacity() * 2, out.position() + bytes + HEADER));
+				out.flip();
+				newOut.put(out);
+				if (frameBuffer == out) frameBuffer = newOut;
+				out = newOut;
+			} else {
+				//Queued segments still refer to the old buffer, so start a new one
+				endSegment();
+				out = ByteBuffer.allocateDirect(Math.max(out.capacity(), bytes + HEADER));
+				segmentStart = 0;
+			}
+		}
+		if (frameStart < 0) {
+			frameBuffer = out;
+			frameStart = out.position();
+			frameLength = 0;
+			out.position(frameStart + HEADER);
+		}
+		frameLength += bytes;
+		bytesWritten += bytes;
+	}
+	/**Queues the bytes written to the buffer since the last segment, so a shared message can be queued after them*/
+	private void endSegment() {
+		if (out.position() > segmentStart) {
+			ByteBuffer segment = out.duplicate();
+			segment.position(segmentStart);
+			segment.limit(out.position());
+			queue.add(segment);
+			segmentStart = out.position();
+		}
+	}
+	public void writeByte(byte message) {
+		reserve(1);
+		out.put(message);
+	}
+	public void writeBoolean(boolean message) {
+		reserve(1);
+		out.put((byte) (message ? 1 : 0));
+	}
+	public void writeShort(short message) {
+		reserve(2);
+		out.putShort(message);
+	}
+	public void writeInt(int message) {
+		reserve(4);
+		out.putInt(message);
+	}
+	public void writeFloat(float message) {
+		reserve(4);
+		out.putFloat(message);
+	}
+	public void writeString(String message) {
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		reserve(bytes.length + 2);
+		out.putShort((short) bytes.length);
+		out.put(bytes);
+	}
+	/**Adds a message that was encoded once for many connections. Small messages are copied, since that is cheaper than queuing a
+	 * reference to them. Larger ones are only referenced
+	 * @param message A buffer from SharedMessage.end(), which must not be changed afterwards. Its position is left unchanged*/
+	public void writeShared(ByteBuffer message) {
+		int length = message.remaining();
+		reserve(length);
+		if (length <= COPY_LIMIT) {
+			int position = message.position();
+			out.put(message);
+			message.position(position);
+		} else {
+			endSegment();
+			queue.add(message.duplicate());
+		}
+	}
+	/**Ends the frame currently being written by filling in its length*/
+	public void closeFrame() {
+		if (frameStart >= 0) {
+			frameBuffer.putShort(frameStart, (short) frameLength);
+			frameStart = -1;
+			frameBuffer = null;
+		}
+	}
+	/**@return True if there are frames waiting to be written*/
+	public boolean hasOutput() {
+		return !queue.isEmpty() || out.position() > segmentStart;
+	}
+	/**@return How many bytes the last write left for later, because the channel didn't accept them*/
+	public int getUnwritten() {
+		return unwritten;
+	}
+	/**Drops all the output that has not been written yet, including the frame currently being written*/
+	public void clearOutput() {
+		queue.clear();
+		out.clear();
+		segmentStart = 0;
+		frameStart = -1;
+		frameBuffer = null;
+		unwritten = 0;
+	}
+	/**
+	 * Closes the current frame and writes as much of the output as the channel accepts, with one gathering write. A blocking channel writes all of it
+	 * @return True if all the output has been written
+	 */
+	public boolean writeTo(GatheringByteChannel channel) {
+		closeFrame();
+		endSegment();
+		boolean blocking = channel instanceof SelectableChannel && ((SelectableChannel) channel).isBlocking();
+		try {
+			do {
+				if (gather.length < queue.size()) {
+					gather = new ByteBuffer[Math.max(gather.length * 2, queue.size())];
+				}
+				int segments = 0;
+				for (ByteBuffer segment : queue) {
+					gather[segments++] = segment;
+				}
+				bytesSent += channel.write(gather, 0, segments);
+				Arrays.fill(gather, 0, segments, null);
+				while (!queue.isEmpty() && !queue.peek().hasRemaining()) {
+					queue.poll();
+				}
+			} while (blocking && !queue.isEmpty());
+		} catch (IOException e) {
+			//Connection lost - the reading side will find out, so drop the output
+			queue.clear();
+		}
+		unwritten = 0;
+		if (queue.isEmpty()) {
+			//Everything has been written, so the buffer can be reused from the start
+			out.clear();
+			segmentStart = 0;
+			return true;
+		}
+		for (ByteBuffer segment : queue) {
+			unwritten += segment.remaining();
+		}
+		return false;
+	}
+}
\ No newline at end of file
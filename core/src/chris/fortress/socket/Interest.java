@@ -0,0 +1,108 @@
+package chris.fortress.socket;
+
+import chris.fortress.Game;
+import chris.fortress.entity.player.Player;
+import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.entity.projectile.ProjectileHandler;
+import com.badlogic.gdx.math.MathUtils;
+
+import java.util.Arrays;
+
+/**Server side: the area of interest of one client. Only players inside the area the client can see are relevant to it. A player becomes
+ * relevant when it enters that region, and stops being relevant once it is further than a hysteresis band outside of it, so a player
+ * moving along the edge doesn't keep entering and leaving. Snapshots, mouse updates and weapon uses are only sent to clients the player
+ * is relevant to, and projectiles only to clients whose region the projectile's path crosses.
+ */
+public final class Interest {
+	/**The view assumed until the client sends its own (see Protocol.VIEW): DrawMain shows about 1920x1080 zoomed pixels*/
+	private static final int DEFAULT_WIDTH = 1920, DEFAULT_HEIGHT = 1080;
+	/**The largest view a client can ask for, so a client can't be sent every player. A 32:9 screen shows about 3900 zoomed pixels across*/
+	private static final int MAX_VIEW = 4096;
+	/**DrawMain draws this much past the edges of the view*/
+	private static final float MARGIN = Game.SIZE * 2;
+	/**How far outside the region a relevant player can go before it stops being relevant*/
+	private static final float HYSTERESIS = Game.SIZE * 4;
+
+	/**Which players are relevant, by clientID*/
+	private final boolean[] relevant = new boolean[256];
+	/**Which players were relevant when each stored snapshot was taken, by snapshot number % Snapshots.HISTORY*/
+	private final boolean[][] snapshotMasks = new boolean[Snapshots.HISTORY][256];
+	/**Centre of the region, and half its size*/
+	private float centreX, centreY;
+	private float halfWidth = DEFAULT_WIDTH / 2f + MARGIN, halfHeight = DEFAULT_HEIGHT / 2f + MARGIN;
+	/**False until the region is known. Until then everything is relevant*/
+	private boolean updated = false;
+
+	public Interest() {
+		Arrays.fill(relevant, true);
+	}
+
+	/**Sets the size of the area the client draws, in zoomed pixels*/
+	public void setView(int width, int height) {
+		halfWidth = MathUtils.clamp(width, 1, MAX_VIEW) / 2f + MARGIN;
+		halfHeight = MathUtils.clamp(height, 1, MAX_VIEW) / 2f + MARGIN;
+	}
+	/**Updates which players are relevant to every client. Called once per tick, before the snapshots are sent*/
+	public static void update() {
+		for (Player viewer : PlayerHandler.getPlayers()) {
+			Interest interest = viewer.getPSocket().getInterest();
+			interest.centreX = viewer.getX() + Player.WIDTH / 2f;
+			interest.centreY = viewer.getY() + Player.HEIGHT / 2f;
+			interest.updated = true;
+			for (Player p : PlayerHandler.getPlayers()) {
+				int id = p.getClientID() & 0xFF;
+				//Players that are already relevant stay relevant until they are outside the hysteresis band
+				float band = interest.relevant[id] ? HYSTERESIS : 0;
+				interest.relevant[id] = p == viewer || interest.contains(p.getX() + Player.WIDTH / 2f, p.getY() + Player.HEIGHT / 2f, band);
+			}
+		}
+	}
+	private boolean contains(float x, float y, float band) {
+		return Math.abs(x - centreX) <= halfWidth + band && Math.abs(y - centreY) <= halfHeight + band;
+	}
+	/**@return True if messages about the player with the given clientID should be sent to this client*/
+	public boolean isRelevant(byte clientID) {
+		return relevant[clientID & 0xFF];
+	}
+	/**
+	 * Checks if a new projectile can be seen by this client at any point. Projectiles sent to clients move in a straight line until they
+	 * hit a tile or leave the map, so the path is checked from where it starts to where it leaves the map
+	 * @return True if the projectile's path crosses the region
+	 */
+	public boolean seesPath(float x, float y, float xDir, float yDir) {
+		if (!updated) return true;
+		float minX = centreX - halfWidth, maxX = centreX + halfWidth;
+		float minY = centreY - halfHeight, maxY = centreY + halfHeight;
+		//How far along the path (in multiples of xDir and yDir) the projectile leaves the map
+		float end = Math.min(exitTime(x, xDir, Game.getLevel().getMapWidth() * Game.SIZE), exitTime(y, yDir, Game.getLevel().getMapHeight() * Game.SIZE));
+		//Clip the path to the region one axis at a time (Liang-Barsky)
+		float[] range = {0, end};
+		return clip(x, xDir, minX, maxX, range) && clip(y, yDir, minY, maxY, range);
+	}
+	private static float exitTime(float start, float dir, float mapSize) {
+		if (dir > 0) return (mapSize + ProjectileHandler.LIMIT - start) / dir;
+		if (dir < 0) return (-ProjectileHandler.LIMIT - start) / dir;
+		return Float.MAX_VALUE;
+	}
+	/**Narrows range to the part of the path between min and max on one axis
+	 * @return False if no part of the path is left*/
+	private static boolean clip(float start, float dir, float min, float max, float[] range) {
+		if (dir == 0) {
+			return start >= min && start <= max;
+		}
+		float t0 = (min - start) / dir, t1 = (max - start) / dir;
+		range[0] = Math.max(range[0], Math.min(t0, t1));
+		range[1] = Math.min(range[1], Math.max(t0, t1));
+		return range[0] <= range[1];
+	}
+	/**Stores which players are relevant now, for the snapshot with the given number*/
+	boolean[] saveMask(short snapshotNumber) {
+		boolean[] mask = getMask(snapshotNumber);
+		System.arraycopy(relevant, 0, mask, 0, relevant.length);
+		return mask;
+	}
+	/**@return Which players were relevant when the snapshot with the given number was taken*/
+	boolean[] getMask(short snapshotNumber) {
+		return snapshotMasks[(snapshotNumber & 0xFFFF) % Snapshots.HISTORY];
+	}
+}
\ No newline at end of file
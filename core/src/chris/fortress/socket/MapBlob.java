@@ -0,0 +1,115 @@
+package chris.fortress.socket;
+
+import chris.fortress.Game;
+import chris.fortress.Level;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**The tile map sent to players when they join a level. The map is run-length encoded row by row (tileID, then how many times it
+ * repeats minus 1), and the runs are compressed with deflate. The server encodes it once per level (see Level.getMapBlob()), and every
+ * joining player's output only references it, in chunks of CHUNK_SIZE (see SendMessage.sendMapToClient()). The client decodes each chunk
+ * as it arrives, straight into the level.
+ */
+public final class MapBlob {
+	/**The most bytes of the blob sent in one MAP_CHUNK message*/
+	public static final int CHUNK_SIZE = 8192;
+	/**The longest run of the same tile that one pair can hold*/
+	private static final int MAX_RUN = 256;
+
+	/**Client side: decompresses the chunks received so far, null when no map is being received*/
+	private static Inflater inflater;
+	/**Client side: output of the inflater*/
+	private static final byte[] runs = new byte[CHUNK_SIZE];
+	/**Client side: index of the next tile to set, counted row by row*/
+	private static int tileIndex;
+	/**Client side: true if the tileID of the next run has been read, but its length hasn't*/
+	private static boolean hasTile;
+	private static byte tile;
+
+	private MapBlob() {}
+	/**Server side: compresses the level's tile map
+	 * @return A read-only buffer with the compressed map*/
+	public static ByteBuffer encode(Level level) {
+		ByteArrayOutputStream pairs = new ByteArrayOutputStream();
+		byte runTile = 0;
+		int run = 0;
+		for (int y = 0; y < level.getMapHeight(); y++) {
+			for (int x = 0; x < level.getMapWidth(); x++) {
+				byte tileID = level.getTileAt(x, y);
+				if (run > 0 && (tileID != runTile || run == MAX_RUN)) {
+					pairs.write(runTile);
+					pairs.write(run - 1);
+					run = 0;
+				}
+				runTile = tileID;
+				run++;
+			}
+		}
+		if (run > 0) {
+			pairs.write(runTile);
+			pairs.write(run - 1);
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		deflater.setInput(pairs.toByteArray());
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		byte[] buffer = new byte[CHUNK_SIZE];
+		while (!deflater.finished()) {
+			compressed.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+		ByteBuffer blob = ByteBuffer.allocateDirect(compressed.size());
+		blob.put(compressed.toByteArray());
+		blob.flip();
+		return blob.asReadOnlyBuffer();
+	}
+	/**Client side: prepares to receive a new map. Called after Level.createMap()*/
+	public static synchronized void startReceiving() {
+		if (inflater != null) {
+			inflater.end();
+		}
+		inflater = new Inflater();
+		tileIndex = 0;
+		hasTile = false;
+	}
+	/**Client side: decodes the next part of the map into the level*/
+	public static synchronized void receiveChunk(byte[] chunk) {
+		if (inflater == null) return;
+		inflater.setInput(chunk);
+		try {
+			int length;
+			while ((length = inflater.inflate(runs)) > 0) {
+				for (int i = 0; i < length; i++) {
+					if (!hasTile) {
+						tile = runs[i];
+						hasTile = true;
+					} else {
+						setTiles((runs[i] & 0xFF) + 1);
+						hasTile = false;
+					}
+				}
+			}
+		} catch (DataFormatException e) {
+			//The rest of the map can't be read
+			e.printStackTrace();
+			inflater.end();
+			inflater = null;
+			return;
+		}
+		if (inflater.finished()) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+	private static void setTiles(int run) {
+		Level level = Game.getLevel();
+		int width = level.getMapWidth(), tileCount = width * level.getMapHeight();
+		for (int i = 0; i < run && tileIndex < tileCount; i++, tileIndex++) {
+			level.setTileAt(tileIndex % width, tileIndex / width, tile);
+		}
+	}
+}
\ No newline at end of file
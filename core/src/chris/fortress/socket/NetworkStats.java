@@ -0,0 +1,215 @@
+package chris.fortress.socket;
+
+import chris.fortress.Room;
+import chris.fortress.entity.player.Player;
+import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.entity.player.PlayerSocket;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Counts the messages and bytes sent and received, by message type and by connection, to find out which messages use the bandwidth.
+ * The counters are LongAdders, which spread updates from different threads over separate cells, so counting takes no lock and is cheap
+ * enough to leave on. The bytes of a message include its message byte but not the frame or datagram it is sent in, which are only
+ * counted per connection (see Connection.getWireBytesOut()). The server also counts flushes per tick, and logs a summary of the last
+ * SUMMARY_INTERVAL seconds (start it with -Dfortress.statsInterval=0 to turn the summary off)
+ */
+public final class NetworkStats {
+	/**Seconds between two summaries in the server log, or 0 for none*/
+	public static final int SUMMARY_INTERVAL = Integer.getInteger("fortress.statsInterval", 60);
+	/**How many message types are listed in each direction of the summary*/
+	private static final int SUMMARY_TYPES = 4;
+
+	/**By message type & 0xFF*/
+	private static final LongAdder[] messagesOut = adders(256), bytesOut = adders(256), messagesIn = adders(256), bytesIn = adders(256);
+	private static final LongAdder ticks = new LongAdder(), flushes = new LongAdder();
+	/**The name of every message type in Protocol, by message type & 0xFF*/
+	private static final String[] names = new String[256];
+
+	/**Game thread only: the totals at the last summary, so the next one only shows what happened since*/
+	private static final long[] summaryBytesOut = new long[256], summaryBytesIn = new long[256];
+	private static long summaryMessagesOut, summaryMessagesIn, summaryTicks, summaryFlushes, summaryOverruns, summaryDroppedTicks;
+	private static long summaryTime = System.nanoTime();
+
+	static {
+		for (Field field : Protocol.class.getFields()) {
+			if (field.getType() == byte.class && Modifier.isStatic(field.getModifiers())) {
+				try {
+					names[field.getByte(null) & 0xFF] = field.getName();
+				} catch (IllegalAccessException e) {
+					//Only public fields are listed - ignore exception
+				}
+			}
+		}
+	}
+
+	private NetworkStats() {}
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for (int i = 0; i < count; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+	/**Counts a message added to the output of a connection. Can be called from any thread
+	 * @param connection The connection's counters, or null if it has none*/
+	public static void countOut(byte type, int bytes, Connection connection) {
+		messagesOut[type & 0xFF].increment();
+		bytesOut[type & 0xFF].add(bytes);
+		if (connection != null) {
+			connection.messagesOut.increment();
+			connection.bytesOut.add(bytes);
+		}
+	}
+	/**Counts a message received from a connection. Can be called from any thread
+	 * @param connection The connection's counters, or null if it has none*/
+	public static void countIn(byte type, int bytes, Connection connection) {
+		messagesIn[type & 0xFF].increment();
+		bytesIn[type & 0xFF].add(bytes);
+		if (connection != null) {
+			connection.messagesIn.increment();
+			connection.bytesIn.add(bytes);
+		}
+	}
+	/**Server side: counts a tick of a room and the socket writes made at its end, and logs a summary every SUMMARY_INTERVAL seconds. Called by the room's worker thread*/
+	public static void countTick(int socketWrites) {
+		ticks.increment();
+		flushes.add(socketWrites);
+		if (SUMMARY_INTERVAL > 0 && System.nanoTime() - summaryTime >= SUMMARY_INTERVAL * 1_000_000_000L) {
+			synchronized (NetworkStats.class) {
+				//Rooms are ticked by several threads, so only the first one to get here prints the summary
+				if (System.nanoTime() - summaryTime >= SUMMARY_INTERVAL * 1_000_000_000L) {
+					System.out.println(summarize());
+				}
+			}
+		}
+	}
+	public static long getMessagesOut(byte type) {
+		return messagesOut[type & 0xFF].sum();
+	}
+	public static long getBytesOut(byte type) {
+		return bytesOut[type & 0xFF].sum();
+	}
+	public static long getMessagesIn(byte type) {
+		return messagesIn[type & 0xFF].sum();
+	}
+	public static long getBytesIn(byte type) {
+		return bytesIn[type & 0xFF].sum();
+	}
+	public static long getTicks() {
+		return ticks.sum();
+	}
+	/**@return How many socket writes the server has made at the end of its ticks*/
+	public static long getFlushes() {
+		return flushes.sum();
+	}
+	/**@return The name of the message type in Protocol, or its number if it has none*/
+	public static String getName(byte type) {
+		return names[type & 0xFF] != null ? names[type & 0xFF] : Byte.toString(type);
+	}
+	/**
+	 * Server side: describes what was sent and received since the last summary on one line: the totals, the message types that used
+	 * the most bytes, the flushes per tick, the ticks that ran late (see Room), and the deepest queues of every room right now
+	 */
+	public static synchronized String summarize() {
+		long now = System.nanoTime();
+		StringBuilder line = new StringBuilder("Network, last ").append((now - summaryTime) / 1_000_000_000L).append("s:");
+		long messages = 0, bytes = 0;
+		long[] typeBytes = new long[256];
+		for (int i = 0; i < 256; i++) {
+			messages += messagesOut[i].sum();
+			long total = bytesOut[i].sum();
+			typeBytes[i] = total - summaryBytesOut[i];
+			bytes += typeBytes[i];
+			summaryBytesOut[i] = total;
+		}
+		line.append(" out ").append(messages - summaryMessagesOut).append(" messages ").append(bytes).append(" B");
+		appendTopTypes(line, typeBytes, bytes);
+		summaryMessagesOut = messages;
+		messages = 0;
+		bytes = 0;
+		for (int i = 0; i < 256; i++) {
+			messages += messagesIn[i].sum();
+			long total = bytesIn[i].sum();
+			typeBytes[i] = total - summaryBytesIn[i];
+			bytes += typeBytes[i];
+			summaryBytesIn[i] = total;
+		}
+		line.append(", in ").append(messages - summaryMessagesIn).append(" messages ").append(bytes).append(" B");
+		appendTopTypes(line, typeBytes, bytes);
+		summaryMessagesIn = messages;
+		long tickCount = ticks.sum(), flushCount = flushes.sum();
+		if (tickCount > summaryTicks) {
+			line.append(", ").append(String.format("%.2f", (float) (flushCount - summaryFlushes) / (tickCount - summaryTicks))).append(" flushes per tick");
+		}
+		summaryTicks = tickCount;
+		summaryFlushes = flushCount;
+		long overruns = 0, droppedTicks = 0;
+		int backlog = 0, actions = 0;
+		for (Room room : Room.getRooms()) {
+			overruns += room.getOverruns();
+			droppedTicks += room.getDroppedTicks();
+			for (Player p : PlayerHandler.getPlayers(room)) {
+				PlayerSocket pSocket = p.getPSocket();
+				backlog = Math.max(backlog, pSocket.getUnwritten());
+				actions = Math.max(actions, pSocket.getWaitingActions());
+			}
+		}
+		line.append(", ").append(overruns - summaryOverruns).append(" tick overruns, ").append(droppedTicks - summaryDroppedTicks).append(" dropped ticks");
+		summaryOverruns = overruns;
+		summaryDroppedTicks = droppedTicks;
+		line.append(", largest output backlog ").append(backlog).append(" B, most waiting messages ").append(actions);
+		summaryTime = now;
+		return line.toString();
+	}
+	/**Adds the message types that used the most bytes, with their share of the total*/
+	private static void appendTopTypes(StringBuilder line, long[] typeBytes, long total) {
+		if (total == 0) return;
+		line.append(" (");
+		for (int n = 0; n < SUMMARY_TYPES; n++) {
+			int top = 0;
+			for (int i = 1; i < 256; i++) {
+				if (typeBytes[i] > typeBytes[top]) top = i;
+			}
+			if (typeBytes[top] == 0) break;
+			if (n > 0) line.append(' ');
+			line.append(getName((byte) top)).append(' ').append(typeBytes[top] * 100 / total).append('%');
+			typeBytes[top] = 0;
+		}
+		line.append(')');
+	}
+
+	/**The counters of one connection, kept by its PlayerSocket*/
+	public static final class Connection {
+		private final LongAdder messagesOut = new LongAdder(), bytesOut = new LongAdder(), messagesIn = new LongAdder(), bytesIn = new LongAdder();
+		private final LongAdder wireBytesOut = new LongAdder(), wireBytesIn = new LongAdder();
+
+		/**Counts bytes written to the socket or a datagram, including frame and datagram headers and resent messages*/
+		public void countWireOut(long bytes) {
+			wireBytesOut.add(bytes);
+		}
+		/**Counts bytes read from the socket or a datagram, including frame and datagram headers*/
+		public void countWireIn(long bytes) {
+			wireBytesIn.add(bytes);
+		}
+		public long getMessagesOut() {
+			return messagesOut.sum();
+		}
+		public long getBytesOut() {
+			return bytesOut.sum();
+		}
+		public long getMessagesIn() {
+			return messagesIn.sum();
+		}
+		public long getBytesIn() {
+			return bytesIn.sum();
+		}
+		public long getWireBytesOut() {
+			return wireBytesOut.sum();
+		}
+		public long getWireBytesIn() {
+			return wireBytesIn.sum();
+		}
+	}
+}
\ No newline at end of file
@@ -4,17 +4,20 @@ import chris.fortress.Game;
 import chris.fortress.GameClient;
 import chris.fortress.draw.Draw;
 import chris.fortress.draw.DrawWin;
+import chris.fortress.entity.player.Interpolation;
 import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerHandler;
 import chris.fortress.entity.player.PlayerSocket;
+import chris.fortress.entity.player.Prediction;
 import chris.fortress.entity.projectile.ProjectileHandler;
+import chris.fortress.util.Fixed;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.utils.Array;
 
 /**A class that interprets messages received for the server and client*/
 public final class Protocol {
-	/**To client: Send tileID, x, and y of a tile*/
-	public static final byte TILE = -1;
+	/**To client: Part of the compressed tile map (see MapBlob). Send short length, then that many bytes*/
+	public static final byte MAP_CHUNK = -1;
 	/**To client: Server will send updated player x and y. Send clientID, x, and y*/
 	public static final byte POS = -2;
 	/**To client: Tell clients that a new client has joined. Send string name, byte clientID, and float health*/
@@ -27,15 +30,17 @@ public final class Protocol {
 	public static final byte TIMER = -6;
 	/**From client: tell the server to go to the next game screen. To client: Switch to the next game screen (what client must receive after this varies)*/
 	public static final byte START = -7;
-	/**From client: Player will send requested movement to server*/
-	public static final byte PRESS = -8, RELEASE = -9;
+	/**From client: One input command per tick (see Prediction and InputQueue). Send the number of the newest command as short, then how
+	 * many commands as byte, then for each command, newest first: the keys held as byte (one bit per key, see Player.getKeys()), and the
+	 * aim as byte (see Player.getAim())*/
+	public static final byte INPUT = -8;
 	/**To client: Server is closing, client must exit*/
 	public static final byte EXIT = -10;
 	/**To client: Server will send clientID and team*/
 	public static final byte TEAM = -11;
 	/**From client: player wants to respawn after dying. To client: send health of an entity to all the players*/
 	public static final byte HEALTH = -12;
-	/**From client: Client is sending mouse x and y for weapon animation. To client: Send clientID, and mouse x and y as short to update other players about the weapon animation*/
+	/**To client: Send clientID, and mouse x and y as short to update other players about the weapon animation*/
 	public static final byte MOUSE = -13;
 	/**To client: Send team (boolean) and the score of that team*/
 	public static final byte SCORE = -14;
@@ -55,52 +60,123 @@ public final class Protocol {
 	public static final byte ERROR = -21;
 	/**To client: Game is over, switch to win screen*/
 	public static final byte WIN = -22;
+	/**To client: The server accepts UDP. Send an int token, which the client sends back over UDP with its clientID (see UdpServer)*/
+	public static final byte UDP = -23;
+	/**To client: Positions of the players that changed since the snapshot the client acknowledged. Send short number, short baseline
+	 * number (Snapshots.FULL if there is none), int server time in milliseconds, short count, then clientID, x and y as short for each player, then short count and the
+	 * clientID of each player that is no longer relevant to the client. From client: acknowledge a snapshot, send short number*/
+	public static final byte SNAPSHOT = -24;
+	/**To client: Where the client's own player is after the movement inputs the server has used (see Prediction). Send the number of the
+	 * last input used and how many steps the player moved since then as short, then x, y, xDir and yDir as float*/
+	public static final byte MOVED = -25;
+	/**To client: SNAPSHOT with its fields packed (see BitWriter). Send short number, then a bit that is set for a full snapshot, then
+	 * unless it is full, how far back the baseline is as varint. Then the server time as 32 bits for a full snapshot, or the milliseconds
+	 * since the baseline as varint. Then the count as varint, and for each player: how far its clientID is past the previous one (minus 1)
+	 * as varint, and x and y as signed varints from its position in the baseline, or from the previous player's position if it wasn't in
+	 * the baseline. Then the count of players that are no longer relevant, and their clientIDs the same way*/
+	public static final byte PACKED_SNAPSHOT = -26;
+	/**To client: MOVED with its fields packed. Send the lowest 8 bits of the input number, the steps as varint, then x and y quantized
+	 * over the map (see BitWriter.positionBits()), then xDir and yDir quantized. Both are sent at the resolution of the physics (see
+	 * Fixed), so the client replays its inputs from exactly the state the server had*/
+	public static final byte PACKED_MOVED = -27;
+	/**To client: PROJECTILE with its fields packed. Send x and y over the map, xDir and yDir quantized, then projID as varint*/
+	public static final byte PACKED_PROJECTILE = -28;
+	/**To client: MOUSE with its fields packed. Send clientID as varint, then the aim as 8 bits (see Player.getAim())*/
+	public static final byte PACKED_MOUSE = -29;
+	/**To client: the first message after the client sends its name and room. Send the clientID of the client's player, then the server's
+	 * tick rate as short (see Room.TICK_RATE), which the client moves its own player at (see Prediction)*/
+	public static final byte WELCOME = -30;
+	/**To client: sent by a lobby instead of WELCOME, to send the client to one of its servers (see Lobby). Send the server's port as
+	 * short, then the connection is closed. The client connects to the same address on that port, and sends its name and room again*/
+	public static final byte REDIRECT = -31;
+	/**From client: the size of the area the client draws, in zoomed pixels (see Draw.zoomedWidth()), so the server knows which players it
+	 * can see (see Interest). Send width and height as short. Sent once after WELCOME, since the zoom doesn't change while the game runs*/
+	public static final byte VIEW = -32;
+	/**Server side: true to send the PACKED_ messages instead of the ones with the old layout. Clients read both. Start the server with
+	 * -Dfortress.packed=false to send the old layout*/
+	public static final boolean PACKED = !"false".equals(System.getProperty("fortress.packed"));
+	/**Varint group sizes and quantization of the packed messages, shared by the server and the client*/
+	public static final int ID_GROUP = 3, COUNT_GROUP = 2, DELTA_GROUP = 4, TIME_GROUP = 5, STEPS_GROUP = 2;
+	public static final float MOVED_RESOLUTION = 1f / Fixed.ONE, DIR_MIN = -32, DIR_RESOLUTION = 1f / Fixed.ONE;
+	/**Covers DIR_MIN to -DIR_MIN at DIR_RESOLUTION*/
+	public static final int DIR_BITS = 14;
+	public static final float PROJECTILE_RESOLUTION = 1, SPEED_MIN = -1024, SPEED_RESOLUTION = 2;
+	public static final int SPEED_BITS = 10;
 	
-	/**Client side list for storing updated positions. The positions will be set once each game loop*/
+	/**Client side: reads packed messages from the TCP input*/
+	private static final BitReader packedInput = new BitReader();
+	/**Client side list for storing positions from POS messages. The positions will be set once each game loop*/
 	private static final Array<short[]> positions = new Array<>();
 	
-	/**When a server side Player receives input from the client side, determines what to read next*/
-	public static short[] getInput(byte message, Player player) {
+	/**
+	 * When a server side Player receives input from the client side, reads the rest of the message and adds it to the ring
+	 * @param commands Space for the keys and aims of an INPUT message, only used by the thread reading from this player
+	 * @return False if the ring is full
+	 */
+	public static boolean getInput(byte message, PlayerSocket in, ActionRing actions, byte[] commands) {
 		switch (message) {
-		case MOUSE:
 		case USE:
-			return new short[] {message, player.getClientID(), player.getPSocket().readShort(), player.getPSocket().readShort()};
-		case PRESS:
-		case RELEASE:
-			return new short[] {message, player.getClientID(), player.getPSocket().readByte()};
+			short mouseX = in.readShort();
+			return actions.add(message, mouseX, in.readShort(), (short) 0);
+		case INPUT:
+			short inputSequence = in.readShort();
+			int count = in.readByte() & 0xFF;
+			for (int i = 0; i < count; i++) {
+				commands[2 * i] = in.readByte();
+				commands[2 * i + 1] = in.readByte();
+			}
+			return addCommands(actions, inputSequence, commands, count);
 		case EQUIP:
-			return new short[] {message, player.getClientID(), player.getPSocket().readShort()};
+		case SNAPSHOT:
+			return actions.add(message, in.readShort(), (short) 0, (short) 0);
+		case VIEW:
+			short viewWidth = in.readShort();
+			return actions.add(message, viewWidth, in.readShort(), (short) 0);
 		default:
-			return new short[] {message, player.getClientID()};
+			return actions.add(message);
 		}
 	}
+	/**
+	 * Server side: adds the commands of an INPUT message to the ring, one record each with its number, keys and aim, oldest first, since
+	 * the InputQueue drops commands older than the newest one it has
+	 * @param commands The keys and aim of each command, newest first
+	 * @return False if the ring is full
+	 */
+	public static boolean addCommands(ActionRing actions, short inputSequence, byte[] commands, int count) {
+		for (int i = count - 1; i >= 0; i--) {
+			if (!actions.add(INPUT, (short) (inputSequence - i), commands[2 * i], commands[2 * i + 1])) {
+				return false;
+			}
+		}
+		return true;
+	}
 	/**
 	 * Called to follow through on input from the client (this method is server side only)
-	 * action[0] is the instruction, 
-	 * action[1] is the clientID,
-	 * Higher numbers will vary for each action
+	 * @param a, b, c Vary for each message (see getInput())
 	 */
-	public static void checkServerInput(short[] action) {
-		int cI = PlayerHandler.clientIndexOf((byte) action[1]);
+	public static void checkServerInput(byte message, byte clientID, short a, short b, short c) {
+		int cI = PlayerHandler.clientIndexOf(clientID);
+		//The player has already been removed
+		if (cI < 0) return;
 		
-		switch ((byte) action[0]) {
-		case MOUSE:
-			PlayerHandler.mouseUpdate(cI, action[2], action[3]);
-			return;
-		case PRESS:
-			PlayerHandler.getPlayer(cI).startMoving((byte) action[2]);
-			return;
-		case RELEASE:
-			PlayerHandler.getPlayer(cI).stopMoving((byte) action[2]);
+		switch (message) {
+		case INPUT:
+			PlayerHandler.getPlayer(cI).getInputQueue().add(a, (byte) b, (byte) c);
 			return;
 		case USE:
-			PlayerHandler.getPlayer(cI).useItem(cI, action[2], action[3]);
+			PlayerHandler.getPlayer(cI).useItem(cI, a, b);
 			return;
 		case HEALTH:
 			PlayerHandler.respawnPlayer(cI);
 			return;
 		case EQUIP:
-			PlayerHandler.getPlayer(cI).setEquippedItemIndex(action[2]);
+			PlayerHandler.getPlayer(cI).setEquippedItemIndex(a);
+			return;
+		case SNAPSHOT:
+			PlayerHandler.getPlayer(cI).getPSocket().acknowledgeSnapshot(a);
+			return;
+		case VIEW:
+			PlayerHandler.getPlayer(cI).getPSocket().getInterest().setView(a, b);
 			return;
 		case START:
 			Game.getGame().startGame();
@@ -109,7 +185,7 @@ public final class Protocol {
 			PlayerHandler.removePlayer(cI, true, true);
 			return;
 		default:
-			System.out.println(action[0] +": action not recognized");
+			System.out.println(message +": action not recognized");
 			new Exception().printStackTrace();
 			return;
 		}
@@ -148,8 +224,10 @@ public final class Protocol {
 		case GATHER:
 			PlayerHandler.getPlayer(PlayerHandler.clientIndexOf(in.readByte())).addGatheredItem(in.readByte(), false);
 			return;
-		case TILE:
-			Game.getLevel().setTileAt(in.readShort(), in.readShort(), in.readByte());
+		case MAP_CHUNK:
+			byte[] chunk = new byte[in.readShort() & 0xFFFF];
+			in.readBytes(chunk);
+			MapBlob.receiveChunk(chunk);
 			return;
 		case JOIN:
 			PlayerHandler.addPlayer(new Player(in.readString(), in.readByte(), in.readFloat()));
@@ -178,11 +256,74 @@ public final class Protocol {
 		case ERROR:
 			((GameClient) Game.getGame()).leaveServer();
 			return;
+		case UDP:
+			in.startUdp(((GameClient) Game.getGame()).getClientID(), in.readInt());
+			return;
+		case SNAPSHOT:
+			short snapshotNumber = in.readShort(), baselineNumber = in.readShort();
+			int serverTime = in.readInt();
+			short[] entries = new short[in.readShort() * 3];
+			for (int i = 0; i < entries.length; i += 3) {
+				entries[i] = in.readByte();
+				entries[i + 1] = in.readShort();
+				entries[i + 2] = in.readShort();
+			}
+			byte[] removed = new byte[in.readShort()];
+			for (int i = 0; i < removed.length; i++) {
+				removed[i] = in.readByte();
+			}
+			if (Snapshots.receive(snapshotNumber, baselineNumber, serverTime, entries, removed)) {
+				SendMessage.sendSnapshotAckToServer(snapshotNumber);
+			}
+			return;
+		case MOVED:
+			Prediction.receive(in.readShort(), in.readShort(), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+			return;
+		case PACKED_SNAPSHOT:
+			short acknowledge = Snapshots.receivePacked(packedInput.start(in));
+			if (acknowledge != Snapshots.FULL) {
+				SendMessage.sendSnapshotAckToServer(acknowledge);
+			}
+			return;
+		case PACKED_MOVED:
+			readPackedMoved(packedInput.start(in));
+			return;
+		case PACKED_PROJECTILE:
+			packedInput.start(in);
+			int xBits = BitWriter.positionBits(Game.getLevel().getMapWidth() * Game.SIZE, PROJECTILE_RESOLUTION);
+			int yBits = BitWriter.positionBits(Game.getLevel().getMapHeight() * Game.SIZE, PROJECTILE_RESOLUTION);
+			float projectileX = packedInput.readQuantized(-BitWriter.POSITION_MARGIN, PROJECTILE_RESOLUTION, xBits);
+			float projectileY = packedInput.readQuantized(-BitWriter.POSITION_MARGIN, PROJECTILE_RESOLUTION, yBits);
+			float xDir = packedInput.readQuantized(SPEED_MIN, SPEED_RESOLUTION, SPEED_BITS);
+			float yDir = packedInput.readQuantized(SPEED_MIN, SPEED_RESOLUTION, SPEED_BITS);
+			ProjectileHandler.addProjectile(projectileX, projectileY, xDir, yDir, false, (byte) packedInput.readVarint(ID_GROUP));
+			return;
+		case PACKED_MOUSE:
+			packedInput.start(in);
+			int cI = PlayerHandler.clientIndexOf((byte) packedInput.readVarint(ID_GROUP));
+			byte aim = (byte) packedInput.read(8);
+			if (cI >= 0) {
+				Player p = PlayerHandler.getPlayer(cI);
+				p.getAnimator().updateWeapon((short) Player.getAimX(p, aim), (short) Player.getAimY(p, aim));
+			}
+			return;
 		default:
 			System.out.println(message +": action not recognized");
 			new Exception().printStackTrace();
 		}
 	}
+	/**Client side: reads a PACKED_MOVED message and gives it to Prediction. Used for both TCP and UDP*/
+	static void readPackedMoved(BitReader in) {
+		byte inputLow = (byte) in.read(8);
+		short steps = (short) in.readVarint(STEPS_GROUP);
+		int xBits = BitWriter.positionBits(Game.getLevel().getMapWidth() * Game.SIZE, MOVED_RESOLUTION);
+		int yBits = BitWriter.positionBits(Game.getLevel().getMapHeight() * Game.SIZE, MOVED_RESOLUTION);
+		float x = in.readQuantized(-BitWriter.POSITION_MARGIN, MOVED_RESOLUTION, xBits);
+		float y = in.readQuantized(-BitWriter.POSITION_MARGIN, MOVED_RESOLUTION, yBits);
+		float xDir = in.readQuantized(DIR_MIN, DIR_RESOLUTION, DIR_BITS);
+		float yDir = in.readQuantized(DIR_MIN, DIR_RESOLUTION, DIR_BITS);
+		Prediction.receive(Prediction.expandInput(inputLow), steps, x, y, xDir, yDir);
+	}
 	private static void addPosition(short[] pos) {
 		synchronized (positions) {
 			positions.add(pos);
@@ -193,10 +334,14 @@ public final class Protocol {
 			for (short[] pos : positions) {
 				int cI = PlayerHandler.clientIndexOf((byte) pos[0]);
 				if (cI >= 0) {
+					//POS moves the player right away, so older positions from snapshots are not used
+					Interpolation.clear((byte) pos[0]);
 					PlayerHandler.getPlayer(cI).getAnimator().updatePosition(pos[1], pos[2]);
 				}
 			}
 			positions.clear();
 		}
+		//Players from snapshots are drawn a short time in the past, between the positions received around that time
+		Interpolation.update();
 	}
 }
\ No newline at end of file
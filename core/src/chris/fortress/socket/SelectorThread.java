@@ -0,0 +1,147 @@
+package chris.fortress.socket;
+
+import chris.fortress.entity.player.PlayerSocket;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**A server side thread that owns one Selector. It reads from every connection registered with it, and finishes writes that could not be
+ * completed right away. A small fixed number of these threads handle every player, instead of one thread per player*/
+public final class SelectorThread extends Thread {
+	private final Selector selector;
+	/**Connections waiting to be registered with the selector (registering must happen on this thread)*/
+	private final Queue<PlayerSocket> newConnections = new ConcurrentLinkedQueue<>();
+	/**Connections that have data left over after a write, and need OP_WRITE to be set*/
+	private final Queue<PlayerSocket> pendingWrites = new ConcurrentLinkedQueue<>();
+	private ServerSocketChannel serverChannel;
+	private volatile boolean running = true;
+
+	public SelectorThread(String name) throws IOException {
+		super(name);
+		setDaemon(true);
+		selector = Selector.open();
+	}
+	/**Makes this thread accept new connections from the server channel*/
+	public void acceptFrom(ServerSocketChannel serverChannel) {
+		this.serverChannel = serverChannel;
+	}
+	/**Adds a connection to this thread. Can be called from any thread*/
+	public void register(PlayerSocket pSocket) {
+		newConnections.add(pSocket);
+		selector.wakeup();
+	}
+	/**Tells this thread to finish writing the output of the given connection once the socket can accept more data. Can be called from any thread*/
+	public void requestWrite(PlayerSocket pSocket) {
+		pendingWrites.add(pSocket);
+		selector.wakeup();
+	}
+	/**Runs until shutdown() is called or the selector is closed. A connection that fails only closes that connection, since this thread
+	 * reads every connection registered with it, and the first one is the only one accepting new connections*/
+	@Override
+	public void run() {
+		try {
+			if (serverChannel != null) {
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			}
+			while (running) {
+				selector.select();
+				registerConnections();
+				updateWriteInterest();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						handle(key);
+					} catch (CancelledKeyException e) {
+						//The game thread closed the connection (see PlayerSocket.dispose()) after the key was selected - skip it
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			//Server is closing - ignore exception
+		} finally {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				//Server is closing - ignore exception
+			}
+		}
+	}
+	private void handle(SelectionKey key) {
+		if (!key.isValid()) return;
+		if (key.isAcceptable()) {
+			accept();
+			return;
+		}
+		PlayerSocket pSocket = (PlayerSocket) key.attachment();
+		if (key.isWritable() && pSocket.finishWrite()) {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+		if (key.isValid() && key.isReadable() && !pSocket.readAvailable()) {
+			key.cancel();
+		}
+	}
+	/**Accepts a new connection. If it fails, only that connection is closed, and the next one is accepted as usual*/
+	private void accept() {
+		SocketChannel channel;
+		try {
+			channel = serverChannel.accept();
+		} catch (ClosedChannelException e) {
+			//Server is closing - ignore exception
+			return;
+		} catch (IOException e) {
+			//For example too many open files: the connection waits until it can be accepted
+			System.out.println("Could not accept a connection: " + e.getMessage());
+			return;
+		}
+		if (channel == null) return;
+		try {
+			AddClient.accept(channel);
+		} catch (IOException e) {
+			//The connection was reset before it was set up
+			try {
+				channel.close();
+			} catch (IOException closeException) {
+				//Connection is already closed - ignore exception
+			}
+		}
+	}
+	private void registerConnections() {
+		PlayerSocket pSocket;
+		while ((pSocket = newConnections.poll()) != null) {
+			try {
+				pSocket.getChannel().register(selector, SelectionKey.OP_READ, pSocket);
+			} catch (ClosedChannelException e) {
+				//Player left before the connection was registered - ignore exception
+			}
+		}
+	}
+	private void updateWriteInterest() {
+		PlayerSocket pSocket;
+		while ((pSocket = pendingWrites.poll()) != null) {
+			SelectionKey key = pSocket.getChannel().keyFor(selector);
+			if (key != null && key.isValid()) {
+				try {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				} catch (CancelledKeyException e) {
+					//Player left after the write was requested - ignore exception
+				}
+			}
+		}
+	}
+	/**Stops the thread and closes the selector*/
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+}
\ No newline at end of file
@@ -6,14 +6,129 @@ import chris.fortress.entity.player.Player;
 import chris.fortress.entity.player.PlayerHandler;
 import chris.fortress.entity.player.PlayerSocket;
 
+import java.nio.ByteBuffer;
+
 /**A class containing many methods for sending data between the server and clients. Keeping all the output methods in one class makes other classes more
  * readable (ex. SendMessage.sendPositionToClient(...) rather than a bunch of lines), and ensures that the output code is consistent
  * (ex. synchronized(pSocket.getOutput) rather than synchronized(pSocket)).
+ * Messages to clients are only buffered. The server calls flushClients() once at the end of each tick, so every client gets one write per tick
+ * no matter how many messages were sent to it. Messages for every client are encoded once with SharedMessage. Snapshots (see Snapshots),
+ * movement, mouse updates and weapon uses go over UDP to clients that have linked it (see UdpServer). Messages about one player or projectile are
+ * only sent to the clients it is relevant to (see Interest). Writes never wait for a slow client: what its socket doesn't take is written by
+ * a SelectorThread, its latest-value messages are held back until it catches up, and it is disconnected once PlayerSocket.MAX_OUTPUT is waiting.
  */
 public class SendMessage {
+	/**Server side: writes the messages buffered during this tick to every client, once per client
+	 * @return How many socket writes were made
+	 */
+	public static int flushClients() {
+		int socketWrites = 0;
+		for (Player player : PlayerHandler.getPlayers()) {
+			PlayerSocket pSocket = player.getPSocket();
+			if (pSocket.flush()) {
+				socketWrites++;
+			}
+			DatagramLink datagramLink = pSocket.getDatagramLink();
+			if (datagramLink != null && datagramLink.flush()) {
+				socketWrites++;
+			}
+		}
+		return socketWrites;
+	}
+	/**Adds a message encoded with SharedMessage to every client's output
+	 * @param flush If the message should be sent right away instead of at the end of the tick*/
+	private static void sendToClients(ByteBuffer message, boolean flush) {
+		for (Player player : PlayerHandler.getPlayers()) {
+			PlayerSocket pSocket = player.getPSocket();
+			synchronized (pSocket.getOutput()) {
+				pSocket.writeShared(message);
+				if (flush) {
+					pSocket.flush();
+				}
+			}
+		}
+	}
+	/**Adds a latest-value message to one client's output. Over UDP it is not sent again if lost. Over TCP it is held back while the
+	 * client is behind on its output, and replaced by the next message of the same type about the same player (see PlayerSocket.writeLatest()).
+	 * Messages too big for a datagram (ex. a snapshot of a crowded area) go over TCP even if the client has a UDP link
+	 * @param clientID The player the message is about*/
+	static void sendLatestToClient(PlayerSocket pSocket, ByteBuffer message, byte clientID) {
+		DatagramLink datagramLink = pSocket.getDatagramLink();
+		if (datagramLink != null && DatagramLink.fits(message)) {
+			datagramLink.writeLatest(message);
+		} else {
+			synchronized (pSocket.getOutput()) {
+				pSocket.writeLatest(message, PlayerSocket.latestKey(message.get(message.position()), clientID));
+			}
+		}
+	}
+	/**Adds a latest-value message about a player to the output of every client that player is relevant to (see Interest). Clients with a
+	 * UDP link get it over UDP, where it is not sent again if lost*/
+	private static void sendLatestToClients(ByteBuffer message, byte clientID) {
+		for (Player player : PlayerHandler.getPlayers()) {
+			PlayerSocket pSocket = player.getPSocket();
+			if (pSocket.getInterest().isRelevant(clientID)) {
+				sendLatestToClient(pSocket, message, clientID);
+			}
+		}
+	}
+	/**Adds a message about a player to the output of every client that player is relevant to (see Interest). Clients with a UDP link get
+	 * it over UDP, where it is sent again until it is acknowledged*/
+	private static void sendReliableToClients(ByteBuffer message, byte clientID) {
+		for (Player player : PlayerHandler.getPlayers()) {
+			PlayerSocket pSocket = player.getPSocket();
+			if (!pSocket.getInterest().isRelevant(clientID)) continue;
+			DatagramLink datagramLink = pSocket.getDatagramLink();
+			if (datagramLink != null && DatagramLink.fits(message)) {
+				datagramLink.writeReliable(message);
+			} else {
+				synchronized (pSocket.getOutput()) {
+					pSocket.writeShared(message);
+				}
+			}
+		}
+	}
+	/**Tells every client where its own player is after the movement inputs used so far, if it changed (see Prediction)*/
+	public static void sendMovementToClients() {
+		for (Player p : PlayerHandler.getPlayers()) {
+			if (!p.outputBlocked() && p.movementChanged()) {
+				if (Protocol.PACKED) {
+					sendLatestToClient(p.getPSocket(), BitWriter.get(Protocol.PACKED_MOVED)
+							.write(p.getInputSequence(), 8)
+							.writeVarint(p.getStepsSinceInput(), Protocol.STEPS_GROUP)
+							.writeQuantized(p.getX(), -BitWriter.POSITION_MARGIN, Protocol.MOVED_RESOLUTION,
+									BitWriter.positionBits(Game.getLevel().getMapWidth() * Game.SIZE, Protocol.MOVED_RESOLUTION))
+							.writeQuantized(p.getY(), -BitWriter.POSITION_MARGIN, Protocol.MOVED_RESOLUTION,
+									BitWriter.positionBits(Game.getLevel().getMapHeight() * Game.SIZE, Protocol.MOVED_RESOLUTION))
+							.writeQuantized(p.getXDir(), Protocol.DIR_MIN, Protocol.DIR_RESOLUTION, Protocol.DIR_BITS)
+							.writeQuantized(p.getYDir(), Protocol.DIR_MIN, Protocol.DIR_RESOLUTION, Protocol.DIR_BITS)
+							.end(), p.getClientID());
+				} else {
+					sendLatestToClient(p.getPSocket(), SharedMessage.get()
+							.writeByte(Protocol.MOVED)
+							.writeShort(p.getInputSequence())
+							.writeShort(p.getStepsSinceInput())
+							.writeFloat(p.getX())
+							.writeFloat(p.getY())
+							.writeFloat(p.getXDir())
+							.writeFloat(p.getYDir())
+							.end(), p.getClientID());
+				}
+			}
+		}
+	}
+	/**Offers the client the UDP channel, if the server has one*/
+	public static void sendUdpTokenToClient(PlayerSocket pSocket) {
+		if (UdpServer.isRunning()) {
+			synchronized (pSocket.getOutput()) {
+				pSocket.writeMessage(Protocol.UDP);
+				pSocket.writeInt(pSocket.newUdpToken());
+			}
+		}
+	}
 	public static void sendPositionToClient(PlayerSocket pSocket, byte clientID, short x, short y) {
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.POS);
+			pSocket.writeMessage(Protocol.POS);
 			pSocket.writeByte(clientID);
 			pSocket.writeShort(x);
 			pSocket.writeShort(y);
@@ -21,52 +136,65 @@ public class SendMessage {
 	}
 	public static void sendTeamToClient(PlayerSocket pSocket, byte clientID, boolean team) {
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.TEAM);
+			pSocket.writeMessage(Protocol.TEAM);
 			pSocket.writeByte(clientID);
 			pSocket.writeBoolean(team);
 		}
 	}
-	public static void sendPositionToAllClients(Player p) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.POS);
-				pSocket.writeByte(p.getClientID());
-				pSocket.writeShort((short) p.getX());
-				pSocket.writeShort((short) p.getY());
-				pSocket.flush();
-			}
-		}
-	}
 	public static void sendUseToServer(short mouseX, short mouseY) {
 		PlayerSocket pSocket = ((GameClient) Game.getGame()).getSocket();
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.USE);
+			pSocket.writeMessage(Protocol.USE);
 			pSocket.writeShort(mouseX);
 			pSocket.writeShort(mouseY);
 			pSocket.flush();
 		}
 	}
-	public static void sendKeyPressedToServer(byte keyPressed) {
+	/**
+	 * Client side: sends the newest input commands. Over UDP every stored command is sent, in case an earlier datagram was lost
+	 * @param keys The keys of the newest commands, by input number % keys.length
+	 * @param aims The aims of the newest commands, by input number % aims.length
+	 * @param count How many commands are stored
+	 */
+	public static void sendInputToServer(short inputSequence, byte[] keys, byte[] aims, int count) {
 		PlayerSocket pSocket = ((GameClient) Game.getGame()).getSocket();
+		UdpClient udpClient = pSocket.getUdpClient();
+		if (udpClient != null) {
+			SharedMessage message = SharedMessage.get()
+					.writeByte(Protocol.INPUT)
+					.writeShort(inputSequence)
+					.writeByte((byte) count);
+			for (int i = 0; i < count; i++) {
+				int slot = (inputSequence - i) & (keys.length - 1);
+				message.writeByte(keys[slot]).writeByte(aims[slot]);
+			}
+			udpClient.sendInput(message.end());
+			return;
+		}
+		int slot = inputSequence & (keys.length - 1);
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.PRESS);
-			pSocket.writeByte(keyPressed);
+			pSocket.writeMessage(Protocol.INPUT);
+			pSocket.writeShort(inputSequence);
+			pSocket.writeByte((byte) 1);
+			pSocket.writeByte(keys[slot]);
+			pSocket.writeByte(aims[slot]);
 			pSocket.flush();
 		}
 	}
-	public static void sendKeyReleasedToServer(byte keyReleased) {
+	/**Tells the server the size of the area this client draws (see Interest)*/
+	public static void sendViewToServer(short width, short height) {
 		PlayerSocket pSocket = ((GameClient) Game.getGame()).getSocket();
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.RELEASE);
-			pSocket.writeByte(keyReleased);
+			pSocket.writeMessage(Protocol.VIEW);
+			pSocket.writeShort(width);
+			pSocket.writeShort(height);
 			pSocket.flush();
 		}
 	}
 	public static void sendEquipToServer(short equippedItemIndex) {
 		PlayerSocket pSocket = ((GameClient) Game.getGame()).getSocket();
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.EQUIP);
+			pSocket.writeMessage(Protocol.EQUIP);
 			pSocket.writeShort(equippedItemIndex);
 			pSocket.flush();
 		}
@@ -78,7 +206,7 @@ public class SendMessage {
 		PlayerSocket pSocket = PlayerHandler.getPlayer(clientIndex).getPSocket();
 		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
 			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.ADD);
+				pSocket.writeMessage(Protocol.ADD);
 				pSocket.writeString(PlayerHandler.getPlayer(i).getName());
 				pSocket.writeByte(PlayerHandler.getPlayer(i).getClientID());
 				pSocket.writeFloat(PlayerHandler.getPlayer(i).getHealth());
@@ -86,159 +214,167 @@ public class SendMessage {
 			if (i != clientIndex) {
 				PlayerSocket socket = PlayerHandler.getPlayer(i).getPSocket();
 				synchronized (socket.getOutput()) {
-					socket.writeByte(Protocol.JOIN);
+					socket.writeMessage(Protocol.JOIN);
 					socket.writeString(PlayerHandler.getPlayer(clientIndex).getName());
 					socket.writeByte(PlayerHandler.getPlayer(clientIndex).getClientID());
 					socket.writeFloat(PlayerHandler.getPlayer(clientIndex).getHealth());
-					socket.flush();
 				}
 			}
 		}
-		pSocket.flush();
 	}
 	public static void sendRemoveItemToClients(short itemIndex) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.REMOVE_ITEM);
-				pSocket.writeShort(itemIndex);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.REMOVE_ITEM)
+				.writeShort(itemIndex)
+				.end();
+		sendToClients(message, false);
 	}
 	public static void sendHealthToClients(byte clientID, float health) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.HEALTH);
-				pSocket.writeByte(clientID);
-				pSocket.writeFloat(health);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.HEALTH)
+				.writeByte(clientID)
+				.writeFloat(health)
+				.end();
+		sendToClients(message, false);
 	}
-	public static void sendMouseToServer(short mX, short mY) {
+	/**Client side: tells the server which snapshot to send the next changes against*/
+	public static void sendSnapshotAckToServer(short snapshotNumber) {
 		PlayerSocket pSocket = ((GameClient) Game.getGame()).getSocket();
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.MOUSE);
-			pSocket.writeShort(mX);
-			pSocket.writeShort(mY);
+			pSocket.writeMessage(Protocol.SNAPSHOT);
+			pSocket.writeShort(snapshotNumber);
 			pSocket.flush();
 		}
 	}
 	public static void sendScoreToClients(boolean team, short score) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.SCORE);
-				pSocket.writeBoolean(team);
-				pSocket.writeShort(score);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.SCORE)
+				.writeBoolean(team)
+				.writeShort(score)
+				.end();
+		sendToClients(message, false);
 	}
 	public static void sendEquipToClients(byte clientID, byte equippedItemID) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.EQUIP);
-				pSocket.writeByte(clientID);
-				pSocket.writeByte(equippedItemID);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.EQUIP)
+				.writeByte(clientID)
+				.writeByte(equippedItemID)
+				.end();
+		sendToClients(message, false);
 	}
 	public static void sendGatherToClients(byte clientID, byte itemID) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.GATHER);
-				pSocket.writeByte(clientID);
-				pSocket.writeByte(itemID);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.GATHER)
+				.writeByte(clientID)
+				.writeByte(itemID)
+				.end();
+		sendToClients(message, false);
 	}
 	public static void sendUseToClients(byte clientID, short mouseX, short mouseY) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.USE);
-				pSocket.writeByte(clientID);
-				pSocket.writeShort(mouseX);
-				pSocket.writeShort(mouseY);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.USE)
+				.writeByte(clientID)
+				.writeShort(mouseX)
+				.writeShort(mouseY)
+				.end();
+		sendReliableToClients(message, clientID);
 	}
 	public static void sendProjectileToClients(short x, short y, float xDir, float yDir, byte projID) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.PROJECTILE);
-				pSocket.writeShort(x);
-				pSocket.writeShort(y);
-				pSocket.writeFloat(xDir);
-				pSocket.writeFloat(yDir);
-				pSocket.writeByte(projID);
-				pSocket.flush();
+		ByteBuffer message;
+		if (Protocol.PACKED) {
+			message = BitWriter.get(Protocol.PACKED_PROJECTILE)
+					.writeQuantized(x, -BitWriter.POSITION_MARGIN, Protocol.PROJECTILE_RESOLUTION,
+							BitWriter.positionBits(Game.getLevel().getMapWidth() * Game.SIZE, Protocol.PROJECTILE_RESOLUTION))
+					.writeQuantized(y, -BitWriter.POSITION_MARGIN, Protocol.PROJECTILE_RESOLUTION,
+							BitWriter.positionBits(Game.getLevel().getMapHeight() * Game.SIZE, Protocol.PROJECTILE_RESOLUTION))
+					.writeQuantized(xDir, Protocol.SPEED_MIN, Protocol.SPEED_RESOLUTION, Protocol.SPEED_BITS)
+					.writeQuantized(yDir, Protocol.SPEED_MIN, Protocol.SPEED_RESOLUTION, Protocol.SPEED_BITS)
+					.writeVarint(projID & 0xFF, Protocol.ID_GROUP)
+					.end();
+		} else {
+			message = SharedMessage.get()
+					.writeByte(Protocol.PROJECTILE)
+					.writeShort(x)
+					.writeShort(y)
+					.writeFloat(xDir)
+					.writeFloat(yDir)
+					.writeByte(projID)
+					.end();
+		}
+		//Only clients that can see some part of the projectile's path need it
+		for (Player player : PlayerHandler.getPlayers()) {
+			PlayerSocket pSocket = player.getPSocket();
+			if (pSocket.getInterest().seesPath(x, y, xDir, yDir)) {
+				synchronized (pSocket.getOutput()) {
+					pSocket.writeShared(message);
+				}
 			}
 		}
 	}
 	public static void sendLeaveToClients(byte clientID) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.LEAVE);
-				pSocket.writeByte(clientID);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.LEAVE)
+				.writeByte(clientID)
+				.end();
+		sendToClients(message, false);
 	}
 	public static void sendExitToClients() {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.EXIT);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.EXIT)
+				.end();
+		sendToClients(message, true);
 	}
 	public static void sendWinToClients() {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.WIN);
-				pSocket.flush();
-			}
-		}
+		ByteBuffer message = SharedMessage.get()
+				.writeByte(Protocol.WIN)
+				.end();
+		sendToClients(message, false);
 	}
 	public static void sendRespawnToServer() {
 		PlayerSocket pSocket = ((GameClient) Game.getGame()).getSocket();
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.HEALTH);
+			pSocket.writeMessage(Protocol.HEALTH);
 			pSocket.flush();
 		}
 	}
-	public static void sendMouseToClients(byte clientID, short mouseX, short mouseY) {
-		for (int i = 0; i < PlayerHandler.playerCount(); i++) {
-			PlayerSocket pSocket = PlayerHandler.getPlayer(i).getPSocket();
-			synchronized (pSocket.getOutput()) {
-				pSocket.writeByte(Protocol.MOUSE);
-				pSocket.writeByte(clientID);
-				pSocket.writeShort(mouseX);
-				pSocket.writeShort(mouseY);
-				pSocket.flush();
-			}
+	/**Tells the other clients where a player aims, for the weapon animation*/
+	public static void sendMouseToClients(Player p, byte aim) {
+		ByteBuffer message;
+		if (Protocol.PACKED) {
+			message = BitWriter.get(Protocol.PACKED_MOUSE)
+					.writeVarint(p.getClientID() & 0xFF, Protocol.ID_GROUP)
+					.write(aim, 8)
+					.end();
+		} else {
+			message = SharedMessage.get()
+					.writeByte(Protocol.MOUSE)
+					.writeByte(p.getClientID())
+					.writeShort((short) Player.getAimX(p, aim))
+					.writeShort((short) Player.getAimY(p, aim))
+					.end();
 		}
+		sendLatestToClients(message, p.getClientID());
 	}
 	public static void sendWaitToClient(PlayerSocket pSocket) {
 		synchronized (pSocket.getOutput()) {
-			pSocket.writeByte(Protocol.START);
+			pSocket.writeMessage(Protocol.START);
 			for (int j = 0; j < PlayerHandler.playerCount(); j++) {
 				pSocket.writeByte(PlayerHandler.getPlayer(j).getClientID());
 			}
-			pSocket.flush();
+		}
+	}
+	/**Sends the compressed tile map of the level in chunks. The output only refers to the map, which is encoded once per level*/
+	public static void sendMapToClient(PlayerSocket pSocket) {
+		ByteBuffer blob = Game.getLevel().getMapBlob();
+		synchronized (pSocket.getOutput()) {
+			for (int start = 0; start < blob.limit(); start += MapBlob.CHUNK_SIZE) {
+				ByteBuffer chunk = blob.duplicate();
+				chunk.position(start);
+				chunk.limit(Math.min(start + MapBlob.CHUNK_SIZE, blob.limit()));
+				pSocket.writeMessage(Protocol.MAP_CHUNK);
+				pSocket.writeShort((short) chunk.remaining());
+				pSocket.writeSharedPart(chunk);
+			}
 		}
 	}
 	public static void sendMapInfoToClient(float r, float g, float b, short mapWidth, short mapHeight, PlayerSocket pSocket) {
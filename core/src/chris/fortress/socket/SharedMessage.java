@@ -0,0 +1,75 @@
+package chris.fortress.socket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**Encodes a message once so it can be sent to many clients (or over UDP, see DatagramLink). Messages are cut out of a large direct buffer, and every client's
+ * output only keeps a read-only reference to them. Each thread has its own encoder, use SharedMessage.get() to get it.
+ */
+public final class SharedMessage {
+	/**Size of the buffer that messages are cut out of. A new one is started when it is full, and the old one is freed once every client has sent its messages*/
+	private static final int SLAB_SIZE = 65536;
+	private static final ThreadLocal<SharedMessage> encoders = ThreadLocal.withInitial(SharedMessage::new);
+
+	private ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+	/**Where the message currently being encoded starts in the slab*/
+	private int messageStart;
+
+	private SharedMessage() {}
+	/**@return This thread's encoder, ready for a new message*/
+	public static SharedMessage get() {
+		SharedMessage encoder = encoders.get();
+		encoder.messageStart = encoder.slab.position();
+		return encoder;
+	}
+	/**Makes room for the given number of bytes, moving the message to a new slab if it doesn't fit*/
+	private void reserve(int bytes) {
+		if (slab.remaining() < bytes) {
+			int messageLength = slab.position() - messageStart;
+			ByteBuffer newSlab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, messageLength + bytes));
+			slab.position(messageStart);
+			newSlab.put(slab);
+			slab = newSlab;
+			messageStart = 0;
+		}
+	}
+	public SharedMessage writeByte(byte message) {
+		reserve(1);
+		slab.put(message);
+		return this;
+	}
+	public SharedMessage writeBoolean(boolean message) {
+		reserve(1);
+		slab.put((byte) (message ? 1 : 0));
+		return this;
+	}
+	public SharedMessage writeShort(short message) {
+		reserve(2);
+		slab.putShort(message);
+		return this;
+	}
+	public SharedMessage writeInt(int message) {
+		reserve(4);
+		slab.putInt(message);
+		return this;
+	}
+	public SharedMessage writeFloat(float message) {
+		reserve(4);
+		slab.putFloat(message);
+		return this;
+	}
+	public SharedMessage writeString(String message) {
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		reserve(bytes.length + 2);
+		slab.putShort((short) bytes.length);
+		slab.put(bytes);
+		return this;
+	}
+	/**@return The encoded message. It can be given to any number of PlayerSockets with writeShared()*/
+	public ByteBuffer end() {
+		ByteBuffer message = slab.asReadOnlyBuffer();
+		message.position(messageStart);
+		message.limit(slab.position());
+		return message.slice();
+	}
+}
\ No newline at end of file
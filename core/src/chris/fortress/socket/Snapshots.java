@@ -0,0 +1,325 @@
+package chris.fortress.socket;
+
+import chris.fortress.GameServer;
+import chris.fortress.Room;
+import chris.fortress.RoomLocal;
+import chris.fortress.entity.player.Interpolation;
+import chris.fortress.entity.player.Player;
+import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.entity.player.PlayerSocket;
+import chris.fortress.entity.player.Prediction;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**Player positions are sent as snapshots. Once per tick the server stores the position of every player, and sends each client only the
+ * relevant players (see Interest) that moved since the last snapshot that client acknowledged, so a player that doesn't move costs nothing.
+ * Players that stop being relevant are listed as removed, and the client hides them. The client rebuilds
+ * the whole snapshot from the one it acknowledged, then acknowledges the new one.
+ * Projectiles are not part of the snapshots: clients move them the same way the server does from the PROJECTILE message.
+ */
+public class Snapshots {
+	/**How many snapshots are kept. A client whose acknowledged snapshot is older than this gets a full snapshot*/
+	static final int HISTORY = 32;
+	/**Clients that are up to date are still sent an empty snapshot this often (in ticks), so their acknowledged snapshot stays in the history*/
+	private static final int REFRESH = HISTORY / 2;
+	/**Sent as the baseline of a full snapshot*/
+	public static final short FULL = -1;
+
+	/**Server side: the snapshots of each room (see Room)*/
+	private static final RoomLocal<Sent> sent = new RoomLocal<>(Sent::new);
+
+	/**Client side: the snapshots received, by number % HISTORY*/
+	private static final Snapshot[] received = newHistory();
+	/**Client side: a copy of the snapshot that positions were last taken from*/
+	private static final Snapshot applied = new Snapshot();
+
+	private static Snapshot[] newHistory() {
+		Snapshot[] snapshots = new Snapshot[HISTORY];
+		for (int i = 0; i < HISTORY; i++) {
+			snapshots[i] = new Snapshot();
+		}
+		return snapshots;
+	}
+	/**Server side: stores the position of every player, and sends each client what changed since the snapshot it acknowledged. Only
+	 * players that are relevant to the client (see Interest) are sent. Called once per tick during a level*/
+	public static void sendSnapshots() {
+		Sent sent = Snapshots.sent.get();
+		short number = ++sent.number;
+		if (number == FULL) number = ++sent.number;
+		Snapshot current = sent.history[slot(number)];
+		current.clear();
+		current.number = number;
+		current.time = GameServer.getTime();
+		for (Player p : PlayerHandler.getPlayers()) {
+			current.set(p.getClientID(), (short) p.getX(), (short) p.getY());
+		}
+		current.valid = true;
+		for (Player player : PlayerHandler.getPlayers()) {
+			PlayerSocket pSocket = player.getPSocket();
+			Interest interest = pSocket.getInterest();
+			boolean[] mask = interest.saveMask(number);
+			Snapshot baseline = findBaseline(sent, pSocket.getSnapshotAck());
+			ByteBuffer delta = encodeDelta(current, current.time, mask, baseline, baseline == null ? null : interest.getMask(baseline.number));
+			if (delta != null) {
+				SendMessage.sendLatestToClient(pSocket, delta, (byte) 0);
+			}
+		}
+	}
+	/**@return The stored snapshot with the given number, or null if it is too old or there is none*/
+	private static Snapshot findBaseline(Sent sent, int acknowledged) {
+		if (acknowledged == PlayerSocket.NO_SNAPSHOT) return null;
+		Snapshot baseline = sent.history[slot((short) acknowledged)];
+		if (!baseline.valid || baseline.number != (short) acknowledged || (short) (sent.number - baseline.number) >= HISTORY) {
+			return null;
+		}
+		return baseline;
+	}
+	/**Server side: used to measure how long a client takes to acknowledge a snapshot (see PlayerSocket.getRoundTrip())
+	 * @param room The room of the client, since acknowledgements can also arrive on the UdpServer thread
+	 * @return When the snapshot with the given number was sent (see GameServer.getTime()), or -1 if it isn't stored any more*/
+	public static int getSentTime(Room room, short snapshotNumber) {
+		Snapshot snapshot = sent.get(room).history[slot(snapshotNumber)];
+		if (!snapshot.valid || snapshot.number != snapshotNumber) return -1;
+		return snapshot.time;
+	}
+	/**
+	 * @param time When the snapshot was taken, in milliseconds
+	 * @param mask Which players are relevant to the client now
+	 * @param baselineMask Which players were relevant to the client when the baseline was taken
+	 * @return The message with every relevant player that is different from the client's baseline, and every player that is no longer
+	 * relevant, or null if there is no need to send anything
+	 */
+	private static ByteBuffer encodeDelta(Snapshot current, int time, boolean[] mask, Snapshot baseline, boolean[] baselineMask) {
+		int changed = 0, removed = 0;
+		for (int id = 0; id < Snapshot.SIZE; id++) {
+			boolean now = current.present[id] && mask[id];
+			boolean before = baseline != null && baseline.present[id] && baselineMask[id];
+			if (now && (!before || current.changedFrom(baseline, id))) changed++;
+			else if (!now && before) removed++;
+		}
+		if (changed == 0 && removed == 0 && baseline != null && (short) (current.number - baseline.number) < REFRESH) {
+			return null;
+		}
+		if (Protocol.PACKED) {
+			return encodePacked(current, time, mask, baseline, baselineMask, changed, removed);
+		}
+		SharedMessage message = SharedMessage.get()
+				.writeByte(Protocol.SNAPSHOT)
+				.writeShort(current.number)
+				.writeShort(baseline == null ? FULL : baseline.number)
+				.writeInt(time)
+				.writeShort((short) changed);
+		for (int id = 0; id < Snapshot.SIZE; id++) {
+			boolean before = baseline != null && baseline.present[id] && baselineMask[id];
+			if (current.present[id] && mask[id] && (!before || current.changedFrom(baseline, id))) {
+				message.writeByte((byte) id).writeShort(current.x[id]).writeShort(current.y[id]);
+			}
+		}
+		message.writeShort((short) removed);
+		for (int id = 0; id < Snapshot.SIZE; id++) {
+			boolean now = current.present[id] && mask[id];
+			if (!now && baseline != null && baseline.present[id] && baselineMask[id]) {
+				message.writeByte((byte) id);
+			}
+		}
+		return message.end();
+	}
+	/**The same as encodeDelta(), as a PACKED_SNAPSHOT message. Positions are sent as the difference from the baseline, which is a few
+	 * pixels for a player that is moving*/
+	private static ByteBuffer encodePacked(Snapshot current, int time, boolean[] mask, Snapshot baseline, boolean[] baselineMask, int changed, int removed) {
+		BitWriter out = BitWriter.get(Protocol.PACKED_SNAPSHOT)
+				.write(current.number, 16)
+				.writeBoolean(baseline == null);
+		if (baseline == null) {
+			out.write(time, 32);
+		} else {
+			out.writeVarint((short) (current.number - baseline.number), Protocol.COUNT_GROUP)
+					.writeVarint(time - baseline.time, Protocol.TIME_GROUP);
+		}
+		out.writeVarint(changed, Protocol.COUNT_GROUP);
+		int previousID = -1;
+		short x = 0, y = 0;
+		for (int id = 0; id < Snapshot.SIZE; id++) {
+			boolean before = baseline != null && baseline.present[id] && baselineMask[id];
+			if (current.present[id] && mask[id] && (!before || current.changedFrom(baseline, id))) {
+				out.writeVarint(id - previousID - 1, Protocol.ID_GROUP);
+				if (before) {
+					x = baseline.x[id];
+					y = baseline.y[id];
+				}
+				out.writeSigned(current.x[id] - x, Protocol.DELTA_GROUP).writeSigned(current.y[id] - y, Protocol.DELTA_GROUP);
+				x = current.x[id];
+				y = current.y[id];
+				previousID = id;
+			}
+		}
+		out.writeVarint(removed, Protocol.COUNT_GROUP);
+		previousID = -1;
+		for (int id = 0; id < Snapshot.SIZE; id++) {
+			boolean now = current.present[id] && mask[id];
+			if (!now && baseline != null && baseline.present[id] && baselineMask[id]) {
+				out.writeVarint(id - previousID - 1, Protocol.ID_GROUP);
+				previousID = id;
+			}
+		}
+		return out.end();
+	}
+	/**Forgets every snapshot. On the server every client gets a full snapshot next, for example when a level starts. On the client it is
+	 * called when connecting to a server*/
+	public static synchronized void reset() {
+		Snapshot[] history = sent.get().history;
+		for (int i = 0; i < HISTORY; i++) {
+			history[i].valid = false;
+			received[i].valid = false;
+		}
+		applied.valid = false;
+		Interpolation.reset();
+	}
+	/**
+	 * Client side: rebuilds a snapshot from the stored baseline and the players that changed, and stores the position of every player in
+	 * it (see Interpolation)
+	 * @param serverTime When the snapshot was taken, in milliseconds on the server's clock
+	 * @param entries clientID, x and y of each player that changed
+	 * @param removed clientID of each player that is no longer relevant to this client
+	 * @return True if the snapshot was used and should be acknowledged
+	 */
+	public static synchronized boolean receive(short snapshotNumber, short baselineNumber, int serverTime, short[] entries, byte[] removed) {
+		if (applied.valid && (short) (snapshotNumber - applied.number) <= 0) {
+			//Older than the snapshot already used
+			return false;
+		}
+		Snapshot baseline = null;
+		if (baselineNumber != FULL) {
+			baseline = received[slot(baselineNumber)];
+			if (!baseline.valid || baseline.number != baselineNumber) {
+				//The baseline isn't stored any more, wait for a snapshot that can be rebuilt
+				return false;
+			}
+		}
+		Snapshot snapshot = received[slot(snapshotNumber)];
+		if (baseline == null) {
+			snapshot.clear();
+		} else if (baseline != snapshot) {
+			snapshot.copy(baseline);
+		}
+		snapshot.number = snapshotNumber;
+		snapshot.time = serverTime;
+		snapshot.valid = true;
+		for (int i = 0; i + 2 < entries.length; i += 3) {
+			snapshot.set((byte) entries[i], entries[i + 1], entries[i + 2]);
+		}
+		for (byte clientID : removed) {
+			snapshot.present[clientID & 0xFF] = false;
+		}
+		for (int id = 0; id < Snapshot.SIZE; id++) {
+			boolean before = applied.valid && applied.present[id];
+			//Every player is stored, including the ones that didn't move, so they are drawn standing still at the right time
+			if (snapshot.present[id] && !Prediction.isPredicted((byte) id)) {
+				Interpolation.add((byte) id, serverTime, snapshot.x[id], snapshot.y[id]);
+			}
+			//Players that enter or leave the area around this client's player are shown or hidden
+			if (snapshot.present[id] && !before) {
+				setInView((byte) id, true);
+			} else if (!snapshot.present[id] && (before || baseline == null)) {
+				setInView((byte) id, false);
+				Interpolation.clear((byte) id);
+			}
+		}
+		applied.copy(snapshot);
+		applied.number = snapshotNumber;
+		applied.time = serverTime;
+		applied.valid = true;
+		return true;
+	}
+	/**
+	 * Client side: reads a PACKED_SNAPSHOT message, rebuilds the positions from the stored baseline, then uses it like receive()
+	 * @return The number of the snapshot to acknowledge, or FULL if it wasn't used
+	 */
+	public static synchronized short receivePacked(BitReader in) {
+		short snapshotNumber = (short) in.read(16);
+		boolean full = in.readBoolean();
+		short baselineNumber = FULL;
+		Snapshot baseline = null;
+		int serverTime;
+		if (full) {
+			serverTime = in.read(32);
+		} else {
+			baselineNumber = (short) (snapshotNumber - in.readVarint(Protocol.COUNT_GROUP));
+			baseline = received[slot(baselineNumber)];
+			if (!baseline.valid || baseline.number != baselineNumber) {
+				//The positions can't be rebuilt, but the rest of the message still has to be read
+				baseline = null;
+			}
+			serverTime = (baseline != null ? baseline.time : 0) + in.readVarint(Protocol.TIME_GROUP);
+		}
+		short[] entries = new short[in.readVarint(Protocol.COUNT_GROUP) * 3];
+		int id = -1;
+		short x = 0, y = 0;
+		for (int i = 0; i < entries.length; i += 3) {
+			id += in.readVarint(Protocol.ID_GROUP) + 1;
+			if (baseline != null && baseline.present[id & 0xFF]) {
+				x = baseline.x[id & 0xFF];
+				y = baseline.y[id & 0xFF];
+			}
+			x += in.readSigned(Protocol.DELTA_GROUP);
+			y += in.readSigned(Protocol.DELTA_GROUP);
+			entries[i] = (short) id;
+			entries[i + 1] = x;
+			entries[i + 2] = y;
+		}
+		byte[] removed = new byte[in.readVarint(Protocol.COUNT_GROUP)];
+		id = -1;
+		for (int i = 0; i < removed.length; i++) {
+			id += in.readVarint(Protocol.ID_GROUP) + 1;
+			removed[i] = (byte) id;
+		}
+		if (!full && baseline == null) return FULL;
+		return receive(snapshotNumber, baselineNumber, serverTime, entries, removed) ? snapshotNumber : FULL;
+	}
+	private static void setInView(byte clientID, boolean inView) {
+		int cI = PlayerHandler.clientIndexOf(clientID);
+		if (cI >= 0) {
+			PlayerHandler.getPlayer(cI).setInView(inView);
+		}
+	}
+	private static int slot(short snapshotNumber) {
+		return (snapshotNumber & 0xFFFF) % HISTORY;
+	}
+
+	/**Server side: the last snapshots of a room, by number % HISTORY, and the number of the newest*/
+	private static final class Sent {
+		private final Snapshot[] history = newHistory();
+		private short number = 0;
+	}
+	/**The position of every player at one tick, by clientID*/
+	private static final class Snapshot {
+		private static final int SIZE = 256;
+		private short number;
+		/**When the snapshot was taken, on the server's clock*/
+		private int time;
+		private boolean valid;
+		private final boolean[] present = new boolean[SIZE];
+		private final short[] x = new short[SIZE], y = new short[SIZE];
+
+		private void set(byte clientID, short x, short y) {
+			int id = clientID & 0xFF;
+			present[id] = true;
+			this.x[id] = x;
+			this.y[id] = y;
+		}
+		private void clear() {
+			valid = false;
+			Arrays.fill(present, false);
+		}
+		private void copy(Snapshot other) {
+			System.arraycopy(other.present, 0, present, 0, SIZE);
+			System.arraycopy(other.x, 0, x, 0, SIZE);
+			System.arraycopy(other.y, 0, y, 0, SIZE);
+		}
+		/**@return True if the player is in this snapshot, and is not in the other one at the same position*/
+		private boolean changedFrom(Snapshot other, int id) {
+			return present[id] && (other == null || !other.present[id] || other.x[id] != x[id] || other.y[id] != y[id]);
+		}
+	}
+}
\ No newline at end of file
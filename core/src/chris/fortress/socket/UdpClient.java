@@ -0,0 +1,191 @@
+package chris.fortress.socket;
+
+import chris.fortress.entity.player.Player;
+import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.entity.player.Prediction;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**Client side end of the optional UDP channel. Once the server has answered HELLO, input commands and snapshot acknowledgements are sent
+ * over UDP, and the server sends snapshots, movement, mouse updates and weapon uses over UDP. If the server never answers, everything stays on TCP.
+ * Start the client with -Dfortress.udp=false to always use TCP*/
+public final class UdpClient {
+	public static final boolean ENABLED = !"false".equals(System.getProperty("fortress.udp"));
+	/**How many times HELLO is sent before giving up on UDP*/
+	private static final int HELLO_ATTEMPTS = 10;
+	/**Time between HELLO attempts in milliseconds*/
+	private static final long HELLO_INTERVAL = 200;
+
+	private final DatagramChannel channel;
+	private final DatagramLink link;
+	private final byte clientID;
+	private final int token;
+	/**True once the server has answered HELLO*/
+	private volatile boolean linked = false;
+	/**Reads packed messages on the receiving thread*/
+	private final BitReader packedInput = new BitReader();
+
+	/**
+	 * @param server The server address (same port number as TCP)
+	 * @param clientID This client's clientID
+	 * @param token The token the server sent over TCP
+	 */
+	public UdpClient(SocketAddress server, byte clientID, int token) throws IOException {
+		channel = DatagramChannel.open();
+		channel.bind(new InetSocketAddress(0));
+		channel.connect(server);
+		link = new DatagramLink(channel, server, null);
+		this.clientID = clientID;
+		this.token = token;
+	}
+	/**Starts the thread that reads datagrams, and the thread that sends HELLO until the server answers*/
+	public void start() {
+		Thread receiveThread = new Thread(this::receive, "UdpClient");
+		receiveThread.setDaemon(true);
+		receiveThread.start();
+		new Thread(()->{
+			for (int i = 0; i < HELLO_ATTEMPTS && !linked && channel.isOpen(); i++) {
+				link.sendHello(clientID, token);
+				try {
+					Thread.sleep(HELLO_INTERVAL);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			if (!linked) {
+				//Server can't be reached over UDP, keep using TCP
+				dispose();
+			}
+		}).start();
+	}
+	/**@return True if messages can be sent over UDP*/
+	public boolean isLinked() {
+		return linked && channel.isOpen();
+	}
+	/**Sends an INPUT message right away. Each one repeats the commands before it, so it doesn't matter if one is lost*/
+	public void sendInput(ByteBuffer message) {
+		link.writeLatest(message);
+		link.flush();
+	}
+	private void receive() {
+		ByteBuffer datagram = ByteBuffer.allocateDirect(DatagramLink.MAX_DATAGRAM);
+		try {
+			while (true) {
+				datagram.clear();
+				channel.receive(datagram);
+				datagram.flip();
+				try {
+					readDatagram(datagram);
+				} catch (BufferUnderflowException e) {
+					//Datagram is too short - ignore the rest of it
+				}
+			}
+		} catch (IOException e) {
+			//Client is closing - ignore exception
+		}
+	}
+	private void readDatagram(ByteBuffer datagram) {
+		short sequence = datagram.getShort();
+		while (datagram.hasRemaining()) {
+			byte record = datagram.get();
+			switch (record) {
+			case DatagramLink.HELLO:
+				linked = true;
+				break;
+			case DatagramLink.RELIABLE:
+				short number = datagram.getShort();
+				readMessage(datagram.get(), datagram, link.firstDelivery(number), false, sequence);
+				link.sendAck(number);
+				break;
+			default:
+				if (!readMessage(record, datagram, true, true, sequence)) {
+					//Unknown record, the rest of the datagram can't be read
+					return;
+				}
+			}
+		}
+	}
+	/**
+	 * Reads one game message from a datagram
+	 * @param use False if the message is a copy of one already used
+	 * @param latestValue True if the message can be dropped when it is older than one already used
+	 * @return False if the message is not one that is sent over UDP
+	 */
+	private boolean readMessage(byte message, ByteBuffer datagram, boolean use, boolean latestValue, short sequence) {
+		switch (message) {
+		case Protocol.SNAPSHOT:
+			//Snapshots have their own numbers, so Snapshots.receive drops the ones that are out of date
+			short snapshotNumber = datagram.getShort(), baselineNumber = datagram.getShort();
+			int serverTime = datagram.getInt();
+			short[] entries = new short[datagram.getShort() * 3];
+			for (int i = 0; i < entries.length; i += 3) {
+				entries[i] = datagram.get();
+				entries[i + 1] = datagram.getShort();
+				entries[i + 2] = datagram.getShort();
+			}
+			byte[] removed = new byte[datagram.getShort()];
+			datagram.get(removed);
+			if (use && Snapshots.receive(snapshotNumber, baselineNumber, serverTime, entries, removed)) {
+				link.writeLatest(SharedMessage.get().writeByte(Protocol.SNAPSHOT).writeShort(snapshotNumber).end());
+				link.flush();
+			}
+			return true;
+		case Protocol.MOVED:
+			//Prediction.receive drops movement that is older than the movement already used
+			short inputSequence = datagram.getShort(), steps = datagram.getShort();
+			float x = datagram.getFloat(), y = datagram.getFloat(), xDir = datagram.getFloat(), yDir = datagram.getFloat();
+			if (use) {
+				Prediction.receive(inputSequence, steps, x, y, xDir, yDir);
+			}
+			return true;
+		case Protocol.PACKED_SNAPSHOT:
+			//Packed snapshots and movement are only sent as latest-value messages, so they are never copies
+			short acknowledge = Snapshots.receivePacked(packedInput.start(datagram));
+			if (acknowledge != Snapshots.FULL) {
+				link.writeLatest(SharedMessage.get().writeByte(Protocol.SNAPSHOT).writeShort(acknowledge).end());
+				link.flush();
+			}
+			return true;
+		case Protocol.PACKED_MOVED:
+			Protocol.readPackedMoved(packedInput.start(datagram));
+			return true;
+		case Protocol.PACKED_MOUSE:
+			packedInput.start(datagram);
+			byte aimID = (byte) packedInput.readVarint(Protocol.ID_GROUP);
+			byte aim = (byte) packedInput.read(8);
+			int aimIndex = PlayerHandler.clientIndexOf(aimID);
+			if (use && aimIndex >= 0 && (!latestValue || link.isNewer(aimID, sequence))) {
+				Player p = PlayerHandler.getPlayer(aimIndex);
+				p.getAnimator().updateWeapon((short) Player.getAimX(p, aim), (short) Player.getAimY(p, aim));
+			}
+			return true;
+		case Protocol.MOUSE:
+		case Protocol.USE:
+			byte mouseID = datagram.get();
+			short mouseX = datagram.getShort(), mouseY = datagram.getShort();
+			int cI = PlayerHandler.clientIndexOf(mouseID);
+			if (use && cI >= 0 && (!latestValue || link.isNewer(mouseID, sequence))) {
+				if (message == Protocol.MOUSE) {
+					PlayerHandler.getPlayer(cI).getAnimator().updateWeapon(mouseX, mouseY);
+				} else {
+					PlayerHandler.getPlayer(cI).getAnimator().useWeapon(mouseX, mouseY);
+				}
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+	public void dispose() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			//Client is closing - ignore exception
+		}
+	}
+}
\ No newline at end of file
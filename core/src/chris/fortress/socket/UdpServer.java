@@ -0,0 +1,145 @@
+package chris.fortress.socket;
+
+import chris.fortress.Room;
+import chris.fortress.entity.player.Player;
+import chris.fortress.entity.player.PlayerHandler;
+import chris.fortress.entity.player.PlayerSocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**A server side class for the optional UDP channel. Snapshots and mouse updates are sent over UDP to clients that have linked their
+ * address, so a lost packet doesn't hold back every later update like it does over TCP. Everything else stays on the TCP PlayerSocket.
+ * A client links its address by sending HELLO with its clientID and the token it was given over TCP*/
+public class UdpServer {
+	private static final SecureRandom random = new SecureRandom();
+	/**Links by client address*/
+	private static final Map<SocketAddress, DatagramLink> links = new ConcurrentHashMap<>();
+	private static DatagramChannel channel;
+	/**Space for the commands of an INPUT record, only used by the receive thread*/
+	private static final byte[] commands = new byte[2 * 255];
+
+	/**Opens the UDP channel on the same port number as the TCP server. If it can't be opened, every client uses TCP only*/
+	public static void start() {
+		try {
+			channel = DatagramChannel.open();
+			channel.bind(new InetSocketAddress(PlayerSocket.PORT));
+		} catch (IOException e) {
+			System.out.println("UDP channel not available, using TCP only");
+			channel = null;
+			return;
+		}
+		Thread receiveThread = new Thread(UdpServer::receive, "UdpServer");
+		receiveThread.setDaemon(true);
+		receiveThread.start();
+	}
+	/**@return True if clients can be offered the UDP channel*/
+	public static boolean isRunning() {
+		return channel != null;
+	}
+	/**@return A random token for a new player, that the client must send back over UDP*/
+	public static int newToken() {
+		return random.nextInt();
+	}
+	private static void receive() {
+		ByteBuffer datagram = ByteBuffer.allocateDirect(DatagramLink.MAX_DATAGRAM);
+		try {
+			while (true) {
+				datagram.clear();
+				SocketAddress address = channel.receive(datagram);
+				datagram.flip();
+				try {
+					readDatagram(address, datagram);
+				} catch (BufferUnderflowException e) {
+					//Datagram is too short - ignore the rest of it
+				}
+			}
+		} catch (IOException e) {
+			//Server is closing - ignore exception
+		}
+	}
+	private static void readDatagram(SocketAddress address, ByteBuffer datagram) {
+		//The sequence number is only used by the client, commands have their own numbers
+		datagram.getShort();
+		DatagramLink link = links.get(address);
+		if (link != null) link.getPSocket().getStats().countWireIn(datagram.limit());
+		while (datagram.hasRemaining()) {
+			int recordStart = datagram.position();
+			byte record = datagram.get();
+			switch (record) {
+			case DatagramLink.HELLO:
+				link = linkAddress(address, datagram.get(), datagram.getInt());
+				break;
+			case DatagramLink.ACK:
+				short number = datagram.getShort();
+				if (link != null) link.acknowledge(number);
+				break;
+			case Protocol.INPUT:
+				//The player's InputQueue drops commands that arrive late or twice
+				short inputSequence = datagram.getShort();
+				int count = datagram.get() & 0xFF;
+				datagram.get(commands, 0, 2 * count);
+				if (link != null) {
+					link.getPSocket().addUdpCommands(inputSequence, commands, count);
+					NetworkStats.countIn(record, datagram.position() - recordStart, link.getPSocket().getStats());
+				}
+				break;
+			case Protocol.SNAPSHOT:
+				short snapshotNumber = datagram.getShort();
+				if (link != null) {
+					link.getPSocket().acknowledgeSnapshot(snapshotNumber);
+					NetworkStats.countIn(record, datagram.position() - recordStart, link.getPSocket().getStats());
+				}
+				break;
+			default:
+				//Unknown record, the rest of the datagram can't be read
+				return;
+			}
+		}
+	}
+	/**Links an address to a player if the token is right, and tells the client that UDP works
+	 * @return The link, or null if the client ID or token is wrong*/
+	private static DatagramLink linkAddress(SocketAddress address, byte clientID, int token) {
+		//Every room has its own clientIDs, so the token tells which player it is
+		PlayerSocket pSocket = null;
+		for (Room room : Room.getRooms()) {
+			Player p = PlayerHandler.getPlayer(room, clientID);
+			if (p != null && p.getPSocket().getUdpToken() == token) {
+				pSocket = p.getPSocket();
+				break;
+			}
+		}
+		if (pSocket == null) return null;
+		DatagramLink link = pSocket.getDatagramLink();
+		if (link == null || !link.getRemote().equals(address)) {
+			if (link != null) links.remove(link.getRemote());
+			link = new DatagramLink(channel, address, pSocket);
+			links.put(address, link);
+			pSocket.setDatagramLink(link);
+		}
+		//Also sent again if the client's HELLO is repeated because the answer was lost
+		link.sendHello();
+		return link;
+	}
+	/**Called when a player leaves*/
+	public static void unlink(DatagramLink link) {
+		links.remove(link.getRemote());
+	}
+	public static void dispose() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				//Server is closing - ignore exception
+			}
+		}
+		links.clear();
+	}
+}
\ No newline at end of file
@@ -1,6 +1,5 @@
 package chris.fortress.tile;
 
-import chris.fortress.entity.Entity;
 import chris.fortress.entity.player.Player;
 
 public class Air extends TileConfig {
@@ -11,7 +10,6 @@ public class Air extends TileConfig {
 	}
 	@Override
 	public void preCollision(Player p, int tX, int tY) {
-		p.setYDir(p.getYDir() + Player.GRAVITY);
-		if (p.getYDir() < -Entity.MAX_SPEED) p.setYDir(-Entity.MAX_SPEED);
+		fall(p);
 	}
 }
\ No newline at end of file
@@ -1,13 +1,12 @@
 package chris.fortress.tile;
 
 import chris.fortress.Game;
-import chris.fortress.GameServer;
-import chris.fortress.entity.Entity;
+import chris.fortress.entity.player.Movement;
 import chris.fortress.entity.player.Player;
 import chris.fortress.util.Collision;
+import chris.fortress.util.Fixed;
 import com.badlogic.gdx.math.Intersector;
 import com.badlogic.gdx.math.Polygon;
-import com.badlogic.gdx.math.Rectangle;
 
 public class LeftRamp extends TileConfig {
 	protected LeftRamp(String fileName) {
@@ -15,70 +14,68 @@ public class LeftRamp extends TileConfig {
 	}
 	@Override
 	public void preCollision(Player p, int tX, int tY) {
-		int tileY = tY * Game.SIZE;
+		int tileY = tY * Fixed.TILE;
 		//Check if the player is standing on the ramp
-		float rampPosition = Game.SIZE - (p.getX() - GameServer.getOldXDir()) % Game.SIZE - p.getY() % Game.SIZE;
-		rampPosition = (int) (rampPosition * 100) / 100f;
-		if ((rampPosition == 0 || rampPosition == Game.SIZE || p.getX() < tX * Game.SIZE)
-				&& p.getY() <= tileY + Game.SIZE) {
+		int rampPosition = Fixed.TILE - (p.getFixedX() - Movement.getOldXDir()) % Fixed.TILE - p.getFixedY() % Fixed.TILE;
+		if ((rampPosition == 0 || rampPosition == Fixed.TILE || p.getFixedX() < tX * Fixed.TILE)
+				&& p.getFixedY() <= tileY + Fixed.TILE) {
 			if (p.jump()) {
-				p.setYDir(Player.JUMP_HEIGHT);
+				p.setFixedYDir(Movement.getJumpSpeed());
 			}
 		} else {
-			p.setYDir(p.getYDir() + Player.GRAVITY);
-			if (p.getYDir() < -Entity.MAX_SPEED) p.setYDir(-Entity.MAX_SPEED);
+			fall(p);
 		}
 	}
 	@Override
-	public byte postCollision(Player p, int tX, int tY, float yDir) {
-		int tileX = tX * Game.SIZE;
-		int tileY = tY * Game.SIZE;
-		float playerRight = p.getX() + Player.WIDTH;
-		int tileRight = tileX + getWidth();
+	public byte postCollision(Player p, int tX, int tY, int yDir) {
+		int tileX = tX * Fixed.TILE;
+		int tileY = tY * Fixed.TILE;
+		int playerRight = p.getFixedX() + Player.FIXED_WIDTH;
+		int tileRight = tileX + Fixed.of(getWidth());
 		
-		if (p.getX() <= tileRight && p.getX() > tileX && p.getY() >= tileY) {
+		if (p.getFixedX() <= tileRight && p.getFixedX() > tileX && p.getFixedY() >= tileY) {
 			Collision.stopStepping();
-			p.setY(tileY - p.getX() + tileRight);
-			if (p.getYDir() != Player.JUMP_HEIGHT) {
-				p.setYDir(0);
+			p.setFixedY(tileY - p.getFixedX() + tileRight);
+			if (p.getFixedYDir() != Movement.getJumpSpeed()) {
+				p.setFixedYDir(0);
 			}
 			return Collision.Y_COL;
 		}
-		else if (p.getX() <= tileX && playerRight > tileX && p.getY() >= tileY) {
+		else if (p.getFixedX() <= tileX && playerRight > tileX && p.getFixedY() >= tileY) {
 			Collision.stopStepping();
-			p.setY(tileY + getHeight());
-			if (p.getYDir() != Player.JUMP_HEIGHT) {
-				p.setYDir(0);
+			p.setFixedY(tileY + Fixed.of(getHeight()));
+			if (p.getFixedYDir() != Movement.getJumpSpeed()) {
+				p.setFixedYDir(0);
 			}
 			return Collision.Y_COL;
 		}
 		else if (playerRight <= tileX) {
 			Collision.stopStepping();
-			p.setXDir(0);
-			p.setX(tileX - Player.WIDTH);
+			p.setFixedXDir(0);
+			p.setFixedX(tileX - Player.FIXED_WIDTH);
 			return Collision.X_COL;
 		}
-		else if (p.getX() >= tileRight) {
+		else if (p.getFixedX() >= tileRight) {
 			Collision.stopStepping();
-			p.setXDir(0);
-			p.setX(tileRight);
+			p.setFixedXDir(0);
+			p.setFixedX(tileRight);
 			return Collision.X_COL;
 		}
-		else if (p.getY() + Player.HEIGHT <= tileY) {
-			p.setYDir(0);
-			p.setY(tileY - Player.HEIGHT);
+		else if (p.getFixedY() + Player.FIXED_HEIGHT <= tileY) {
+			p.setFixedYDir(0);
+			p.setFixedY(tileY - Player.FIXED_HEIGHT);
 			return Collision.Y_COL;
 		}
 		return Collision.NO_COL;
 	}
 	@Override
-	public boolean overlapsRectangle(Rectangle pRect, int tX, int tY) {
-		int tileX = tX * Game.SIZE;
-		int tileY = tY * Game.SIZE;
-		if (pRect.x < tileX) {
-			return pRect.x + Player.WIDTH >= tileX && pRect.y + Player.HEIGHT >= tileY && pRect.y < tileY + Game.SIZE;
+	public boolean overlapsPlayer(int x, int y, int tX, int tY) {
+		int tileX = tX * Fixed.TILE;
+		int tileY = tY * Fixed.TILE;
+		if (x < tileX) {
+			return x + Player.FIXED_WIDTH >= tileX && y + Player.FIXED_HEIGHT >= tileY && y < tileY + Fixed.TILE;
 		}
-		return pRect.x < tileX + getWidth() && pRect.y + Player.HEIGHT >= tileY && pRect.y < tileY + Game.SIZE - (pRect.x - tileX);
+		return x < tileX + Fixed.of(getWidth()) && y + Player.FIXED_HEIGHT >= tileY && y < tileY + Fixed.TILE - (x - tileX);
 	}
 	@Override
 	public boolean overlapsPolygon(Polygon polygon, int tX, int tY) {
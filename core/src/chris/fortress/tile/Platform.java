@@ -1,9 +1,9 @@
 package chris.fortress.tile;
 
-import chris.fortress.Game;
-import chris.fortress.entity.Entity;
+import chris.fortress.entity.player.Movement;
 import chris.fortress.entity.player.Player;
 import chris.fortress.util.Collision;
+import chris.fortress.util.Fixed;
 import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.math.Polygon;
 
@@ -20,29 +20,28 @@ public class Platform extends TileConfig {
 	@Override
 	public void preCollision(Player p, int tileX, int tileY) {
 		if (!Collision.playerOnGround(p)) {
-			p.setYDir(p.getYDir() + Player.GRAVITY);
-			if (p.getYDir() < -Entity.MAX_SPEED) p.setYDir(-Entity.MAX_SPEED);
+			fall(p);
 		}
 		else if (p.jump()) {
-			p.setYDir(Player.JUMP_HEIGHT);
+			p.setFixedYDir(Movement.getJumpSpeed());
 		}
 		else if (p.down()) {
-			p.setYDir(Player.GRAVITY);
+			p.setFixedYDir(Movement.getGravity());
 		}
 	}
 	@Override
-	public byte postCollision(Player p, int tX, int tY, float yDir) {
+	public byte postCollision(Player p, int tX, int tY, int yDir) {
 		boolean tileBelow = isBelow(p, tY, getHeight());
 		//If player is falling above the platform, it will collide. If player is falling through the platform, no collision
-		if (tileBelow && yDir < Player.GRAVITY) {
-			p.setYDir(0);
-			p.setY(tY * Game.SIZE + getHeight());
+		if (tileBelow && yDir < Movement.getGravity()) {
+			p.setFixedYDir(0);
+			p.setFixedY(tY * Fixed.TILE + Fixed.of(getHeight()));
 			return Collision.Y_COL;
 		}
 		return Collision.NO_COL;
 	}
 	private static boolean isBelow(Player p, int tY, int tileHeight) {
-		return tY * Game.SIZE + tileHeight <= p.getY();
+		return tY * Fixed.TILE + Fixed.of(tileHeight) <= p.getFixedY();
 	}
 	@Override
 	public boolean overlapsPolygon(Polygon polygon, int tX, int tY) {
@@ -1,14 +1,13 @@
 package chris.fortress.tile;
 
 import chris.fortress.Game;
-import chris.fortress.GameServer;
-import chris.fortress.entity.Entity;
+import chris.fortress.entity.player.Movement;
 import chris.fortress.entity.player.Player;
 import chris.fortress.util.Collision;
+import chris.fortress.util.Fixed;
 import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.math.Intersector;
 import com.badlogic.gdx.math.Polygon;
-import com.badlogic.gdx.math.Rectangle;
 
 public class RightRamp extends TileConfig {
 	protected RightRamp(String fileName) {
@@ -29,67 +28,65 @@ public class RightRamp extends TileConfig {
 	@Override
 	public void preCollision(Player p, int tX, int tY) {
 		//See if the player is standing on the ramp
-		float rampPosition = (p.getX() + Player.WIDTH - GameServer.getOldXDir()) % Game.SIZE - p.getY() % Game.SIZE;
-		rampPosition = (int) (rampPosition * 100) / 100f;
-		if ((rampPosition == 0 || rampPosition == Game.SIZE || p.getX() + Player.WIDTH >= tX * Game.SIZE + Game.SIZE) && p.getY() <= tY * Game.SIZE + Game.SIZE) {
+		int rampPosition = (p.getFixedX() + Player.FIXED_WIDTH - Movement.getOldXDir()) % Fixed.TILE - p.getFixedY() % Fixed.TILE;
+		if ((rampPosition == 0 || rampPosition == Fixed.TILE || p.getFixedX() + Player.FIXED_WIDTH >= tX * Fixed.TILE + Fixed.TILE) && p.getFixedY() <= tY * Fixed.TILE + Fixed.TILE) {
 			if (p.jump()) {
-				p.setYDir(Player.JUMP_HEIGHT);
+				p.setFixedYDir(Movement.getJumpSpeed());
 			}
 		} else {
-			p.setYDir(p.getYDir() + Player.GRAVITY);
-			if (p.getYDir() < -Entity.MAX_SPEED) p.setYDir(-Entity.MAX_SPEED);
+			fall(p);
 		}
 	}
 	@Override
-	public byte postCollision(Player p, int tX, int tY, float yDir) {
-		int tileX = tX * Game.SIZE;
-		int tileY = tY * Game.SIZE;
-		float playerRight = p.getX() + Player.WIDTH;
-		int tileRight = tileX + getWidth();
+	public byte postCollision(Player p, int tX, int tY, int yDir) {
+		int tileX = tX * Fixed.TILE;
+		int tileY = tY * Fixed.TILE;
+		int playerRight = p.getFixedX() + Player.FIXED_WIDTH;
+		int tileRight = tileX + Fixed.of(getWidth());
 		
-		if (playerRight >= tileX && playerRight < tileRight && p.getY() >= tileY) {
+		if (playerRight >= tileX && playerRight < tileRight && p.getFixedY() >= tileY) {
 			Collision.stopStepping();
-			p.setY(tileY + playerRight - tileX);
-			if (p.getYDir() != Player.JUMP_HEIGHT) {
-				p.setYDir(0);
+			p.setFixedY(tileY + playerRight - tileX);
+			if (p.getFixedYDir() != Movement.getJumpSpeed()) {
+				p.setFixedYDir(0);
 			}
 			return Collision.Y_COL;
 		}
-		else if (playerRight >= tileRight && p.getX() < tileRight && p.getY() >= tileY) {
+		else if (playerRight >= tileRight && p.getFixedX() < tileRight && p.getFixedY() >= tileY) {
 			Collision.stopStepping();
-			p.setY(tileY + getHeight());
-			if (p.getYDir() != Player.JUMP_HEIGHT) {
-				p.setYDir(0);
+			p.setFixedY(tileY + Fixed.of(getHeight()));
+			if (p.getFixedYDir() != Movement.getJumpSpeed()) {
+				p.setFixedYDir(0);
 			}
 			return Collision.Y_COL;
 		}
-		else if (p.getX() >= tileRight) {
+		else if (p.getFixedX() >= tileRight) {
 			Collision.stopStepping();
-			p.setXDir(0);
-			p.setX(tileRight);
+			p.setFixedXDir(0);
+			p.setFixedX(tileRight);
 			return Collision.X_COL;
 		}
 		else if (playerRight <= tileX) {
 			Collision.stopStepping();
-			p.setXDir(0);
-			p.setX(tileX - Player.WIDTH);
+			p.setFixedXDir(0);
+			p.setFixedX(tileX - Player.FIXED_WIDTH);
 			return Collision.X_COL;
 		}
-		else if (p.getY() + Player.HEIGHT <= tileY) {
-			p.setYDir(0);
-			p.setY(tileY - Player.HEIGHT);
+		else if (p.getFixedY() + Player.FIXED_HEIGHT <= tileY) {
+			p.setFixedYDir(0);
+			p.setFixedY(tileY - Player.FIXED_HEIGHT);
 			return Collision.Y_COL;
 		}
 		return Collision.NO_COL;
 	}
 	@Override
-	public boolean overlapsRectangle(Rectangle pRect, int tX, int tY) {
-		int tileX = tX * Game.SIZE;
-		int tileY = tY * Game.SIZE;
-		if (pRect.x + Player.WIDTH >= tileX + Game.SIZE) {
-			return pRect.x <= tileX + Game.SIZE && pRect.y + Player.HEIGHT >= tileY && pRect.y < tileY + Game.SIZE;
+	public boolean overlapsPlayer(int x, int y, int tX, int tY) {
+		int tileX = tX * Fixed.TILE;
+		int tileY = tY * Fixed.TILE;
+		if (x + Player.FIXED_WIDTH >= tileX + Fixed.TILE) {
+			return x <= tileX + Fixed.TILE && y + Player.FIXED_HEIGHT >= tileY && y < tileY + Fixed.TILE;
 		}
-		return (pRect.x + Player.WIDTH) > tileX && pRect.y + Player.HEIGHT >= tileY && pRect.y < tileY + (pRect.x + Player.WIDTH) - tileX;
+		return x + Player.FIXED_WIDTH > tileX && y + Player.FIXED_HEIGHT >= tileY && y < tileY + (x + Player.FIXED_WIDTH) - tileX;
 	}
 	@Override
 	public boolean overlapsPolygon(Polygon polygon, int tX, int tY) {
@@ -2,8 +2,10 @@ package chris.fortress.tile;
 
 import chris.fortress.Game;
 import chris.fortress.draw.Draw;
+import chris.fortress.entity.player.Movement;
 import chris.fortress.entity.player.Player;
 import chris.fortress.util.Collision;
+import chris.fortress.util.Fixed;
 import chris.fortress.util.Resource;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.Sprite;
@@ -13,7 +15,8 @@ import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.utils.Array;
 
 /**The base class for tile configurations. TileConfig defines the characteristics of each tileID, such as the sprite(s) and size of the tile.
- * Many TileConfigs use this class directly since creating their own classes is not necessary
+ * Many TileConfigs use this class directly since creating their own classes is not necessary. Players collide with tiles in fixed point
+ * (see Fixed), projectiles in floats
  */
 public class TileConfig {
 	private boolean visible = true;
@@ -108,38 +111,42 @@ public class TileConfig {
 	 * Default is to have the player jump if the player is on the ground and is pressing the jump key.*/
 	public void preCollision(Player p, int tX, int tY) {
 		if (p.jump() && Collision.playerOnGround(p)) {
-			p.setYDir(Player.JUMP_HEIGHT);
+			p.setFixedYDir(Movement.getJumpSpeed());
 		}
 	}
+	/**Speeds up the player's fall by gravity, up to the fastest fall (see Movement)*/
+	protected static void fall(Player p) {
+		p.setFixedYDir(Math.max(p.getFixedYDir() + Movement.getGravity(), -Movement.getMaxFallSpeed()));
+	}
 	/**
 	 * Returns true if the collision algorithm should end
 	 * @param p The player that is colliding
 	 * @param tY The tile's y index in the map array
 	 * @param tX The tile's x index in the map array
-	 * @param yDir The entity's yDir
+	 * @param yDir The entity's yDir, in fixed point
 	 */
-	public byte postCollision(Player p, int tX, int tY, float yDir) {
-		int tileX = tX * Game.SIZE;
-		int tileY = tY * Game.SIZE;
+	public byte postCollision(Player p, int tX, int tY, int yDir) {
+		int tileX = tX * Fixed.TILE;
+		int tileY = tY * Fixed.TILE;
 
-		if (p.getX() >= tileX + getWidth()) {
-			p.setXDir(0);
-			p.setX(tileX + getWidth());
+		if (p.getFixedX() >= tileX + Fixed.of(getWidth())) {
+			p.setFixedXDir(0);
+			p.setFixedX(tileX + Fixed.of(getWidth()));
 			return Collision.X_COL;
 		}
-		else if (p.getX() + Player.WIDTH <= tileX) {
-			p.setXDir(0);
-			p.setX(tileX - Player.WIDTH);
+		else if (p.getFixedX() + Player.FIXED_WIDTH <= tileX) {
+			p.setFixedXDir(0);
+			p.setFixedX(tileX - Player.FIXED_WIDTH);
 			return Collision.X_COL;
 		}
-		if (p.getY() >= tileY + getHeight()) {
-			p.setYDir(0);
-			p.setY(tileY + getHeight());
+		if (p.getFixedY() >= tileY + Fixed.of(getHeight())) {
+			p.setFixedYDir(0);
+			p.setFixedY(tileY + Fixed.of(getHeight()));
 			return Collision.Y_COL;
 		}
-		else if (p.getY() + Player.HEIGHT <= tileY) {
-			p.setYDir(0);
-			p.setY(tileY - Player.HEIGHT);
+		else if (p.getFixedY() + Player.FIXED_HEIGHT <= tileY) {
+			p.setFixedYDir(0);
+			p.setFixedY(tileY - Player.FIXED_HEIGHT);
 			return Collision.Y_COL;
 		}
 		return Collision.FULL_COL;
@@ -201,10 +208,11 @@ public class TileConfig {
 	public static int amountOfTiles() {
 		return tiles.size;
 	}
-	public boolean overlapsRectangle(Rectangle pRect, int tX, int tY) {
-		int tileX = tX * Game.SIZE;
-		int tileY = tY * Game.SIZE;
-		return pRect.x + pRect.width > tileX && pRect.x < tileX + width && pRect.y + pRect.height > tileY && pRect.y < tileY + height;
+	/**@return True if a player at x, y (in fixed point) would overlap this tile*/
+	public boolean overlapsPlayer(int x, int y, int tX, int tY) {
+		int tileX = tX * Fixed.TILE;
+		int tileY = tY * Fixed.TILE;
+		return x + Player.FIXED_WIDTH > tileX && x < tileX + Fixed.of(width) && y + Player.FIXED_HEIGHT > tileY && y < tileY + Fixed.of(height);
 	}
 	public boolean overlapsPolygon(Polygon polygon, int tX, int tY) {
 		Polygon tilePolygon = new Polygon();
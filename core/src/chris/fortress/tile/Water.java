@@ -1,6 +1,6 @@
 package chris.fortress.tile;
 
-import chris.fortress.entity.Entity;
+import chris.fortress.entity.player.Movement;
 import chris.fortress.entity.player.Player;
 import chris.fortress.util.Collision;
 
@@ -11,16 +11,15 @@ public class Water extends TileConfig {
 	@Override
 	public void preCollision(Player p, int tX, int tY) {
 		if (p.jump() && Collision.getLiquidState() == Collision.FULL_LIQUID) {
-			p.setYDir(Player.SWIM_UP_SPEED);
+			p.setFixedYDir(Movement.getSwimUpSpeed());
 		} else {
-			p.setYDir(p.getYDir() + Player.GRAVITY);
-			if (p.getYDir() < -Entity.MAX_SPEED) p.setYDir(-Entity.MAX_SPEED);
+			fall(p);
 		}
 	}
 	@Override
-	public byte postCollision(Player p, int tX, int tY, float yDir) {
-		p.setXDir(p.getXDir() / 3);
-		p.setYDir(p.getYDir() / 2);
+	public byte postCollision(Player p, int tX, int tY, int yDir) {
+		p.setFixedXDir(p.getFixedXDir() / 3);
+		p.setFixedYDir(Movement.slowInLiquid(p.getFixedYDir()));
 		return Collision.NO_COL;
 	}
 }
\ No newline at end of file
@@ -2,20 +2,23 @@ package chris.fortress.util;
 
 import chris.fortress.Game;
 import chris.fortress.GameServer;
+import chris.fortress.RoomLocal;
 import chris.fortress.entity.player.Player;
+import chris.fortress.entity.player.PlayerHistory;
 import chris.fortress.entity.projectile.Projectile;
 import chris.fortress.entity.projectile.ProjectileConfig;
 import chris.fortress.entity.projectile.ProjectileHandler;
 import chris.fortress.item.ItemConfig;
 import chris.fortress.socket.SendMessage;
 import chris.fortress.tile.TileConfig;
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.Polygon;
 import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.ObjectMap;
 import com.badlogic.gdx.utils.OrderedMap;
 
-/**A class containing many collision methods, such as player-tile collision and projectile-player collision*/
+/**A class containing many collision methods, such as player-tile collision and projectile-player collision. Players collide with tiles
+ * in fixed point (see Fixed), so a step gives the same result everywhere*/
 public final class Collision {
 	private static final byte NO_LIQUID = 0;
 	private static final byte PARTIAL_LIQUID = 1;
@@ -26,24 +29,37 @@ public final class Collision {
 	public static final byte Y_COL = 2;
 	public static final byte FULL_COL = 3;
 	
-	private static byte liquidTile = -1;
-	private static byte liquidState = NO_LIQUID;
+	/**What is known about the player being moved. Each room has its own, since rooms move their players at the same time (see Room)*/
+	private static final RoomLocal<Step> steps = new RoomLocal<>(Step::new);
 	
-	private static boolean canStep = true;
+	private static final class Step {
+		private byte liquidTile = -1;
+		private byte liquidState = NO_LIQUID;
+		
+		private boolean canStep = true;
+		/**Where a player was when the player that fired a projectile saw it, see playerProjectileCollide()*/
+		private final float[] rewindPosition = new float[2];
+		/**The player's hit box, where the player could have been, and the projectiles near it, see playerProjectileCollide()*/
+		private final Rectangle playerRect = new Rectangle(0, 0, Player.WIDTH, Player.HEIGHT);
+		private final float[] bounds = new float[4];
+		private final Array<Projectile> nearProjectiles = new Array<>();
+	}
 
-	private static byte collides(Player p, Rectangle pRect, float yDir) {
-		float pX = p.getX() / Game.SIZE;
-		int pY = (int) (p.getY() / Game.SIZE);
+	/**@param newX The x the player would move to, in fixed point. The tiles around where the player is now are checked
+	 * @param newY The y the player would move to*/
+	private static byte collides(Player p, int newX, int newY, int yDir) {
+		int pX = p.getFixedX();
+		int pY = Fixed.toTile(p.getFixedY());
 		
 		boolean xCollides = false, yCollides = false;
 		
-		for (int x = (int) pX - 2; x < pX + 2; x++) {
+		for (int x = Fixed.toTile(pX) - 2; x * Fixed.TILE < pX + 2 * Fixed.TILE; x++) {
 			//If tile position is outside the map
 			if (x >= 0 && x < Game.getLevel().getMapWidth()) {
 				for (int y = pY + 3; y >= pY - 2; y--) {
 					//If tile y is out of range
 					if (y >= 0 && y < Game.getLevel().getMapHeight()) {
-						byte collisionType = checkPlayerTileOverlap(p, pRect, yDir, x, y);
+						byte collisionType = checkPlayerTileOverlap(p, newX, newY, yDir, x, y);
 						if (collisionType == X_COL) {
 							if (yCollides) return FULL_COL;
 							xCollides = true;
@@ -63,27 +79,27 @@ public final class Collision {
 		else if (yCollides) return Y_COL;
 		else return NO_COL;
 	}
-	private static byte checkPlayerTileOverlap(Player p, Rectangle pRect, float yDir, int x, int y) {
+	private static byte checkPlayerTileOverlap(Player p, int newX, int newY, int yDir, int x, int y) {
 		TileConfig tileAtCoord = TileConfig.getTile(Game.getLevel().getTileAt(x, y));
 		if (tileAtCoord.isSolid()) {
-			if (tileAtCoord.overlapsRectangle(pRect, x, y)) {
+			if (tileAtCoord.overlapsPlayer(newX, newY, x, y)) {
 				return tileAtCoord.postCollision(p, x, y, yDir);
 			}
 		}
 		return NO_COL;
 	}
-	private static boolean fastCollides(Player p, Rectangle pRect) {
-		float pX = p.getX() / Game.SIZE;
-		int pY = (int) (p.getY() / Game.SIZE);
+	private static boolean fastCollides(Player p) {
+		int pX = p.getFixedX();
+		int pY = Fixed.toTile(p.getFixedY());
 		
-		for (int x = (int) pX - 2; x < pX + 2; x++) {
+		for (int x = Fixed.toTile(pX) - 2; x * Fixed.TILE < pX + 2 * Fixed.TILE; x++) {
 			//If tile position is outside the map
 			if (x >= 0 && x < Game.getLevel().getMapWidth()) {
 				for (int y = pY + 3; y >= pY - 2; y--) {
 					//If tile y is out of range
 					if (y >= 0 && y < Game.getLevel().getMapHeight()) {
 						TileConfig tileAtCoord = TileConfig.getTile(Game.getLevel().getTileAt(x, y));
-						if (tileAtCoord.isSolid() && tileAtCoord.overlapsRectangle(pRect, x, y)) {
+						if (tileAtCoord.isSolid() && tileAtCoord.overlapsPlayer(p.getFixedX(), p.getFixedY(), x, y)) {
 							return true;
 						}
 					}
@@ -94,43 +110,44 @@ public final class Collision {
 	}
 	/**Returns 0 if the player is not in a liquid, PARTIAL_LIQUID if the player can sink but not swim up (top layer of liquid) and FULL_LIQUID if the player is fully in a liquid*/
 	public static void playerInLiquid(Player p) {
-		int pX = (int) (p.getX() / Game.SIZE);
-		int pY = (int) (p.getY() / Game.SIZE);
+		Step step = steps.get();
+		int pX = Fixed.toTile(p.getFixedX());
+		int pY = Fixed.toTile(p.getFixedY());
 		for (int y = pY + 1;  y >= pY; y--) {
 			if (y >= 0 && y < Game.getLevel().getMapHeight()) {
 				for (int x = pX; x < pX + 2; x++) {
 					if (x >= 0 && x < Game.getLevel().getMapWidth() && TileConfig.getTile(Game.getLevel().getTileAt(x, y)).isLiquid()) {
 						TileConfig tileAtCoord = TileConfig.getTile(Game.getLevel().getTileAt(x, y));
-						int tileX = x * Game.SIZE;
-						int tileY = y * Game.SIZE;
-						if (p.getX() + Player.WIDTH > tileX && p.getX() < tileX + tileAtCoord.getWidth() &&
-							p.getY() + Player.HEIGHT > tileY && p.getY() < tileY + tileAtCoord.getHeight()) {
-							liquidTile = tileAtCoord.getID();
-							liquidState = y == pY ? PARTIAL_LIQUID : FULL_LIQUID;
+						int tileX = x * Fixed.TILE;
+						int tileY = y * Fixed.TILE;
+						if (p.getFixedX() + Player.FIXED_WIDTH > tileX && p.getFixedX() < tileX + Fixed.of(tileAtCoord.getWidth()) &&
+							p.getFixedY() + Player.FIXED_HEIGHT > tileY && p.getFixedY() < tileY + Fixed.of(tileAtCoord.getHeight())) {
+							step.liquidTile = tileAtCoord.getID();
+							step.liquidState = y == pY ? PARTIAL_LIQUID : FULL_LIQUID;
 							return;
 						}
 					}
 				}
 			}
 		}
-		liquidState = NO_LIQUID;
+		step.liquidState = NO_LIQUID;
 	}
 	public static OrderedMap<Byte, int[]> getTilesBelow(Player p) {
 		//If player is not exactly above a tile, then the player is falling (in the air)
 		//Tile coordinate to check first (in tile units)
-		final int tX = (int) (p.getX() / Game.SIZE);
-		final int tY = (int) (p.getY() / Game.SIZE);
+		final int tX = Fixed.toTile(p.getFixedX());
+		final int tY = Fixed.toTile(p.getFixedY());
 		OrderedMap<Byte, int[]> tilesBelow = new OrderedMap<>();
 		for (int x = tX - 1; x <= tX + Player.TILE_WIDTH; x++) {
 			for (int y = tY; y >= tY - 2; y--) {
 				if (x >= 0 && x < Game.getLevel().getMapWidth() && y >= 0 && y < Game.getLevel().getMapHeight()) {
 					TileConfig tile = TileConfig.getTile(Game.getLevel().getTileAt(x, y));
 					//If the tile is directly under the player
-					if (y * Game.SIZE + tile.getHeight() >= p.getY()) {
+					if (y * Fixed.TILE + Fixed.of(tile.getHeight()) >= p.getFixedY()) {
 						//The current tile's location in game coordinates
-						int tileX = x * Game.SIZE;
+						int tileX = x * Fixed.TILE;
 						//If the player is not to the left or right of the tile (horizontal collision detection)
-						if (p.getX() + Player.WIDTH > tileX && p.getX() < tileX + tile.getWidth()) {
+						if (p.getFixedX() + Player.FIXED_WIDTH > tileX && p.getFixedX() < tileX + Fixed.of(tile.getWidth())) {
 							if (tile.singlePreCollision()) {
 								tilesBelow.clear();
 								tilesBelow.put(tile.getID(), new int[] {x, y});
@@ -169,23 +186,48 @@ public final class Collision {
 			}
 		}
 	}
+	/**Removes the first projectile found that hits the player, and hurts the player on the server if it is on the other team.
+	 * The projectiles are found in the grid of ProjectileHandler.index(), which must be filled first*/
 	public static final void playerProjectileCollide(Player p, boolean serverSide) {
-		Rectangle pRect = new Rectangle(p.getX(), p.getY(), Player.WIDTH, Player.HEIGHT);
-		for (int i = ProjectileHandler.projectileCount() - 1; i >= 0; i--) {
-			if (pRect.contains(ProjectileHandler.getProjectile(i).getX() + Gdx.graphics.getDeltaTime() * ProjectileHandler.getProjectile(i).getXDir(), ProjectileHandler.getProjectile(i).getY() + Gdx.graphics.getDeltaTime() * ProjectileHandler.getProjectile(i).getYDir())) {
-				if (serverSide && p.getTeam() != ProjectileHandler.getProjectile(i).getTeam()) {
-					if (p.hurt(ProjectileConfig.getProjectile(ProjectileHandler.getProjectile(i).getID()).getDamage())) {
+		Step step = steps.get();
+		Rectangle pRect = step.playerRect;
+		float[] rewindPosition = step.rewindPosition;
+		float delta = Game.getGame().getDeltaTime();
+		int time = serverSide ? GameServer.getTime() : 0;
+		//Only the projectiles near where the player is, or was during the last PlayerHistory.MAX_REWIND on the server, can hit it
+		float[] bounds = step.bounds;
+		bounds[0] = bounds[2] = p.getX();
+		bounds[1] = bounds[3] = p.getY();
+		if (serverSide) PlayerHistory.addBounds(p.getClientID(), time - PlayerHistory.MAX_REWIND, bounds);
+		Array<Projectile> nearProjectiles = step.nearProjectiles;
+		nearProjectiles.clear();
+		ProjectileHandler.getProjectilesNear(bounds[0], bounds[1], bounds[2] + Player.WIDTH, bounds[3] + Player.HEIGHT, nearProjectiles);
+		for (int i = 0; i < nearProjectiles.size; i++) {
+			Projectile projectile = nearProjectiles.get(i);
+			//Already hit another player
+			if (projectile.isDead()) continue;
+			int rewind = projectile.getRewind();
+			if (serverSide && rewind > 0) {
+				//Check where the player was when the player that fired saw it
+				if (!PlayerHistory.getPosition(p.getClientID(), time - rewind, rewindPosition)) continue;
+				pRect.setPosition(rewindPosition[0], rewindPosition[1]);
+			} else {
+				pRect.setPosition(p.getX(), p.getY());
+			}
+			if (pRect.contains(projectile.getX() + delta * projectile.getXDir(), projectile.getY() + delta * projectile.getYDir())) {
+				if (serverSide && p.getTeam() != projectile.getTeam()) {
+					if (p.hurt(ProjectileConfig.getProjectile(projectile.getID()).getDamage())) {
 						SendMessage.sendHealthToClients(p.getClientID(), p.getHealth());
 					}
 					if (p.getHealth() <= 0) {
-						boolean team = ProjectileHandler.getProjectile(i).getTeam();
+						boolean team = projectile.getTeam();
 						((GameServer) Game.getGame()).setScore(team, (short) (((GameServer) Game.getGame()).getScore(team) + 1));
 					}
 				}
-				if (!serverSide && ProjectileHandler.getProjectile(i).getID() == ProjectileConfig.gunshot.getID()) {
-					ProjectileHandler.addImpactParticles(ProjectileHandler.getProjectile(i));
+				if (!serverSide && projectile.getID() == ProjectileConfig.gunshot.getID()) {
+					ProjectileHandler.addImpactParticles(projectile);
 				}
-				ProjectileHandler.removeProjectile(i);
+				ProjectileHandler.removeProjectile(projectile);
 				return;
 			}
 		}
@@ -229,51 +271,55 @@ public final class Collision {
 	 * Removes items that the player picks up
 	 * @return True if player position should be updated.
 	 */
-	public static void checkCollision(Player p, float yDir) {
+	public static void checkCollision(Player p, int yDir) {
 		tileCollision(p, yDir);
 		itemCollision(p);
 		playerProjectileCollide(p, true);
 	}
-	private static void tileCollision(Player p, float yDir) {
-		if (p.getXDir() != 0 || p.getYDir() != 0) {
-			canStep = true;
-			byte collisionType = collides(p, new Rectangle(p.getX() + p.getXDir(), p.getY() + p.getYDir(), Player.WIDTH, Player.HEIGHT), yDir);
-			if (collisionType == X_COL && p.getYDir() == 0 && p.getY() % Game.SIZE == 0) {
-				if (p.getX() % Game.SIZE == 0) {
-					if (canStep && (liquidState == NO_LIQUID || liquidState == PARTIAL_LIQUID)) {
-						tryToStep(p, p.getX() - 1, p.getY() + Game.SIZE);
+	/**Adjusts the speed of the player so it will not collide with any tiles
+	 * @param yDir The player's yDir before collision, in fixed point*/
+	public static void tileCollision(Player p, int yDir) {
+		if (p.getFixedXDir() != 0 || p.getFixedYDir() != 0) {
+			Step step = steps.get();
+			step.canStep = true;
+			byte collisionType = collides(p, p.getFixedX() + p.getFixedXDir(), p.getFixedY() + p.getFixedYDir(), yDir);
+			if (collisionType == X_COL && p.getFixedYDir() == 0 && p.getFixedY() % Fixed.TILE == 0) {
+				if (p.getFixedX() % Fixed.TILE == 0) {
+					if (step.canStep && (step.liquidState == NO_LIQUID || step.liquidState == PARTIAL_LIQUID)) {
+						tryToStep(p, p.getFixedX() - Fixed.ONE, p.getFixedY() + Fixed.TILE);
 					}
 				}
-				else if ((p.getX() + Player.WIDTH) % Game.SIZE == 0) {
-					if (canStep && (liquidState == NO_LIQUID || liquidState == PARTIAL_LIQUID)) {
-						tryToStep(p, p.getX() + 1, p.getY() + Game.SIZE);
+				else if ((p.getFixedX() + Player.FIXED_WIDTH) % Fixed.TILE == 0) {
+					if (step.canStep && (step.liquidState == NO_LIQUID || step.liquidState == PARTIAL_LIQUID)) {
+						tryToStep(p, p.getFixedX() + Fixed.ONE, p.getFixedY() + Fixed.TILE);
 					}
 				}
 			}
-			if (liquidState != NO_LIQUID) {
-				TileConfig.getTile(liquidTile).postCollision(p, 0, 0, 0);
+			if (step.liquidState != NO_LIQUID) {
+				TileConfig.getTile(step.liquidTile).postCollision(p, 0, 0, 0);
 			}
 		}
 	}
-	private static void tryToStep(Player p, float newX, float newY) {
-		float oldX = p.getX();
-		float oldY = p.getY();
-		p.setX(newX);
-		p.setY(newY);
-		if (!fastCollides(p, new Rectangle(p.getX(), p.getY(), Player.WIDTH, Player.HEIGHT))) {
-			p.setXDir(0);
+	private static void tryToStep(Player p, int newX, int newY) {
+		int oldX = p.getFixedX();
+		int oldY = p.getFixedY();
+		p.setFixedX(newX);
+		p.setFixedY(newY);
+		if (!fastCollides(p)) {
+			p.setFixedXDir(0);
 		} else {
-			p.setX(oldX);
-			p.setY(oldY);
+			p.setFixedX(oldX);
+			p.setFixedY(oldY);
 		}
 	}
+	/**@return True if the player is exactly at the top of a tile*/
 	public static boolean playerOnGround(Player p) {
-		return p.getY() % Game.SIZE == 0;
+		return p.getFixedY() % Fixed.TILE == 0;
 	}
 	public static byte getLiquidState() {
-		return liquidState;
+		return steps.get().liquidState;
 	}
 	public static void stopStepping() {
-		canStep = false;
+		steps.get().canStep = false;
 	}
 }
\ No newline at end of file
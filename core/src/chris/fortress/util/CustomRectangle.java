@@ -14,6 +14,12 @@ public class CustomRectangle {
 	 * Returns true if this rectangle overlaps with the circle
 	 */
 	public final boolean overlaps(float x, float y, short radius) {
+		return overlaps(x1, y1, x2, y2, x, y, radius);
+	}
+	/**
+	 * Returns true if the rectangle from (x1, y1) to (x2, y2) overlaps with the circle, without making a CustomRectangle
+	 */
+	public static boolean overlaps(float x1, float y1, float x2, float y2, float x, float y, short radius) {
 	    float cX = Math.abs(x - (x1 + x2) / 2f);
 	    float cY = Math.abs(y - (y1 + y2) / 2f);
 	    float hW = (x2 - x1) / 2f;
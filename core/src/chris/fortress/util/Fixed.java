@@ -0,0 +1,36 @@
+package chris.fortress.util;
+
+import chris.fortress.Game;
+
+/**Fixed-point numbers for the game physics. Positions and speeds are kept as ints counting 1/ONE of a pixel, so moving and colliding
+ * only adds, compares and divides ints, and gives the same result on every computer and JVM. Floats give slightly different results
+ * depending on the order of the operations, so tests like "is the player exactly on a tile" needed rounding tricks. With 8 bits after
+ * the point, a position fits a float exactly (for maps up to 32768 pixels), so positions sent as floats arrive unchanged, and ints can
+ * hold positions up to 8 million pixels
+ */
+public final class Fixed {
+	/**How many bits of a fixed-point number are after the point*/
+	public static final int SHIFT = 8;
+	/**One pixel*/
+	public static final int ONE = 1 << SHIFT;
+	/**The size of a tile (see Game.SIZE)*/
+	public static final int TILE = Game.SIZE << SHIFT;
+
+	private Fixed() {}
+	/**@return The pixels as a fixed-point number*/
+	public static int of(int pixels) {
+		return pixels << SHIFT;
+	}
+	/**@return The pixels as a fixed-point number, rounded to the nearest 1/ONE of a pixel*/
+	public static int of(float pixels) {
+		return Math.round(pixels * ONE);
+	}
+	/**@return The fixed-point number in pixels*/
+	public static float toFloat(int value) {
+		return value / (float) ONE;
+	}
+	/**@return The tile that the fixed-point position is in, rounded toward 0 like (int) (pixels / Game.SIZE)*/
+	public static int toTile(int value) {
+		return value / TILE;
+	}
+}
\ No newline at end of file
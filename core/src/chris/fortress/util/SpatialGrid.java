@@ -0,0 +1,192 @@
+package chris.fortress.util;
+
+import chris.fortress.Game;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Array;
+
+import java.util.Arrays;
+
+/**A uniform grid with cells the size of a tile, for finding the things near a box, point or line without checking all of them. Each
+ * thing is added with its bounding box, and is put in every cell that the box overlaps. The cells are hashed into a fixed number of
+ * buckets, so the grid doesn't need to know the size of the map, and things outside it can be added too.
+ * <p>
+ * The grid is made to be filled again every tick: clear() keeps the arrays, so adding and querying don't allocate anything once they
+ * are big enough. Queries add every thing whose box overlaps the query (not just its cells) to the given Array once, in no particular
+ * order. Like the rest of a room's game, a grid is only used by one thread at a time.
+ */
+public final class SpatialGrid<T> {
+	private static final int CELL = Game.SIZE;
+	/**The bucket of a cell is its hash & mask*/
+	private final int mask;
+	/**The first link in each bucket, or -1*/
+	private final int[] buckets;
+	/**The links put things in cells: the thing of each link, and the next link in the same bucket*/
+	private int[] linkThing = new int[64], linkNext = new int[64];
+	private int links;
+	/**The things, their boxes, and the last query that found each of them (so a thing in several cells is only found once)*/
+	private Object[] things = new Object[16];
+	private float[] boxes = new float[16 * 4];
+	private int[] found = new int[16];
+	private int size;
+	private int query;
+	
+	/**@param buckets How many buckets the cells are hashed into, rounded up to a power of 2. Around the number of things is enough*/
+	public SpatialGrid(int buckets) {
+		this.buckets = new int[MathUtils.nextPowerOfTwo(Math.max(1, buckets))];
+		mask = this.buckets.length - 1;
+		Arrays.fill(this.buckets, -1);
+	}
+	/**Removes everything from the grid*/
+	public void clear() {
+		Arrays.fill(buckets, -1);
+		Arrays.fill(things, 0, size, null);
+		links = 0;
+		size = 0;
+	}
+	/**Adds a thing with the given bounding box*/
+	public void add(T thing, float x1, float y1, float x2, float y2) {
+		if (size == things.length) {
+			things = Arrays.copyOf(things, size * 2);
+			boxes = Arrays.copyOf(boxes, size * 2 * 4);
+			found = Arrays.copyOf(found, size * 2);
+		}
+		int index = size++;
+		things[index] = thing;
+		boxes[index * 4] = Math.min(x1, x2);
+		boxes[index * 4 + 1] = Math.min(y1, y2);
+		boxes[index * 4 + 2] = Math.max(x1, x2);
+		boxes[index * 4 + 3] = Math.max(y1, y2);
+		found[index] = query;
+		int cX1 = cell(boxes[index * 4]), cY1 = cell(boxes[index * 4 + 1]);
+		int cX2 = cell(boxes[index * 4 + 2]), cY2 = cell(boxes[index * 4 + 3]);
+		//A huge box is put in the buckets once each, instead of in every cell
+		if ((long) (cX2 - cX1 + 1) * (cY2 - cY1 + 1) > buckets.length) {
+			for (int bucket = 0; bucket < buckets.length; bucket++) {
+				link(index, bucket);
+			}
+			return;
+		}
+		for (int cX = cX1; cX <= cX2; cX++) {
+			for (int cY = cY1; cY <= cY2; cY++) {
+				link(index, bucket(cX, cY));
+			}
+		}
+	}
+	/**Adds a thing at a point*/
+	public void add(T thing, float x, float y) {
+		add(thing, x, y, x, y);
+	}
+	/**Adds every thing whose box overlaps the given box to out
+	 * @return out*/
+	public Array<T> query(float x1, float y1, float x2, float y2, Array<T> out) {
+		float minX = Math.min(x1, x2), minY = Math.min(y1, y2), maxX = Math.max(x1, x2), maxY = Math.max(y1, y2);
+		int cX1 = cell(minX), cY1 = cell(minY), cX2 = cell(maxX), cY2 = cell(maxY);
+		int query = ++this.query;
+		//A query that covers more cells than there are things checks every thing instead
+		if ((long) (cX2 - cX1 + 1) * (cY2 - cY1 + 1) > size) {
+			for (int i = 0; i < size; i++) {
+				if (overlaps(i, minX, minY, maxX, maxY)) found(i, out);
+			}
+			return out;
+		}
+		for (int cX = cX1; cX <= cX2; cX++) {
+			for (int cY = cY1; cY <= cY2; cY++) {
+				for (int link = buckets[bucket(cX, cY)]; link >= 0; link = linkNext[link]) {
+					int i = linkThing[link];
+					if (found[i] != query && overlaps(i, minX, minY, maxX, maxY)) found(i, out);
+				}
+			}
+		}
+		return out;
+	}
+	/**Adds every thing whose box contains the point to out
+	 * @return out*/
+	public Array<T> queryPoint(float x, float y, Array<T> out) {
+		int query = ++this.query;
+		for (int link = buckets[bucket(cell(x), cell(y))]; link >= 0; link = linkNext[link]) {
+			int i = linkThing[link];
+			if (found[i] != query && overlaps(i, x, y, x, y)) found(i, out);
+		}
+		return out;
+	}
+	/**Adds every thing whose box the line from (x1, y1) to (x2, y2) goes through to out. Only the cells along the line are checked
+	 * @return out*/
+	public Array<T> querySegment(float x1, float y1, float x2, float y2, Array<T> out) {
+		int query = ++this.query;
+		int cX = cell(x1), cY = cell(y1);
+		int endX = cell(x2), endY = cell(y2);
+		float dX = x2 - x1, dY = y2 - y1;
+		int stepX = dX > 0 ? 1 : -1, stepY = dY > 0 ? 1 : -1;
+		//How far along the line (from 0 to 1) the next cell edge in x and y is, and how far apart the edges are
+		float nextX = dX == 0 ? Float.MAX_VALUE : ((cX + (stepX > 0 ? 1 : 0)) * CELL - x1) / dX;
+		float nextY = dY == 0 ? Float.MAX_VALUE : ((cY + (stepY > 0 ? 1 : 0)) * CELL - y1) / dY;
+		float stepXLength = dX == 0 ? Float.MAX_VALUE : CELL / Math.abs(dX);
+		float stepYLength = dY == 0 ? Float.MAX_VALUE : CELL / Math.abs(dY);
+		//The line goes through this many cells after the first. Once it is in the last column or row, it only moves the other way, so
+		//rounding can't take it past the end
+		int cells = Math.abs(endX - cX) + Math.abs(endY - cY);
+		for (int i = 0; ; i++) {
+			for (int link = buckets[bucket(cX, cY)]; link >= 0; link = linkNext[link]) {
+				int thing = linkThing[link];
+				if (found[thing] != query && crosses(thing, x1, y1, dX, dY)) found(thing, out);
+			}
+			if (i == cells) break;
+			if (cX != endX && (cY == endY || nextX < nextY)) {
+				cX += stepX;
+				nextX += stepXLength;
+			} else {
+				cY += stepY;
+				nextY += stepYLength;
+			}
+		}
+		return out;
+	}
+	/**@return How many things are in the grid*/
+	public int size() {
+		return size;
+	}
+	private static int cell(float position) {
+		return MathUtils.floor(position / CELL);
+	}
+	private int bucket(int cX, int cY) {
+		return (cX * 0x9E3779B1 ^ cY * 0x85EBCA77) >>> 7 & mask;
+	}
+	private void link(int thing, int bucket) {
+		if (links == linkThing.length) {
+			linkThing = Arrays.copyOf(linkThing, links * 2);
+			linkNext = Arrays.copyOf(linkNext, links * 2);
+		}
+		linkThing[links] = thing;
+		linkNext[links] = buckets[bucket];
+		buckets[bucket] = links++;
+	}
+	@SuppressWarnings("unchecked")
+	private void found(int thing, Array<T> out) {
+		found[thing] = query;
+		out.add((T) things[thing]);
+	}
+	private boolean overlaps(int thing, float x1, float y1, float x2, float y2) {
+		int i = thing * 4;
+		return boxes[i] <= x2 && boxes[i + 2] >= x1 && boxes[i + 1] <= y2 && boxes[i + 3] >= y1;
+	}
+	/**@return If the line from (x, y) moving by (dX, dY) goes through the box of the thing (the slab test)*/
+	private boolean crosses(int thing, float x, float y, float dX, float dY) {
+		int i = thing * 4;
+		float enter = 0, exit = 1;
+		if (dX == 0) {
+			if (x < boxes[i] || x > boxes[i + 2]) return false;
+		} else {
+			float t1 = (boxes[i] - x) / dX, t2 = (boxes[i + 2] - x) / dX;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		if (dY == 0) {
+			if (y < boxes[i + 1] || y > boxes[i + 3]) return false;
+		} else {
+			float t1 = (boxes[i + 1] - y) / dY, t2 = (boxes[i + 3] - y) / dY;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		return enter <= exit;
+	}
+}
\ No newline at end of file
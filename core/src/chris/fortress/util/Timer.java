@@ -1,35 +1,21 @@
 package chris.fortress.util;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
-/**A class that counts down from the given time. Used to show how much time is left before the game ends*/
+/**A class that counts down from the given time. Used to show how much time is left before the game ends. It counts the ticks of the
+ * game's TimingWheel, so it needs no thread of its own, and can be read by any thread*/
 public class Timer {
-	private static final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(10);
-	
-	private int time;
-	private ScheduledFuture<?> timer;
+	private final TimingWheel wheel;
+	/**The tick when the time runs out*/
+	private final long end;
 	
-	public Timer(int time) {
-		this.time = time;
-		timer = scheduledExecutorService.scheduleAtFixedRate(()->lowerTime(), 1, 1, TimeUnit.SECONDS);
-	}
-	private void lowerTime() {
-		if (time <= 0) timer.cancel(false);
-		else time--;
+	/**@param time The time to count down from, in seconds*/
+	public Timer(TimingWheel wheel, int time) {
+		this.wheel = wheel;
+		end = wheel.getTick() + (long) time * wheel.getTickRate();
 	}
+	/**@return How many seconds are left, rounded up*/
 	public int getTimeRemaining() {
-		return time;
-	}
-	public void stopTimer() {
-		timer.cancel(true);
-	}
-	public static void dispose() {
-		scheduledExecutorService.shutdown();
-	}
-	public static ScheduledExecutorService getScheduledExecutorService() {
-		return scheduledExecutorService;
+		long ticks = end - wheel.getTick();
+		if (ticks <= 0) return 0;
+		return (int) ((ticks + wheel.getTickRate() - 1) / wheel.getTickRate());
 	}
 }
\ No newline at end of file
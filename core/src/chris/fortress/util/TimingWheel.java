@@ -0,0 +1,146 @@
+package chris.fortress.util;
+
+/**Runs tasks after a delay, for cooldowns, lifetimes and countdowns. Every Game has one (see Game.getTimingWheel()), which is only used
+ * by the thread that runs the game: the room's worker thread on the server, the main loop on the client. Nothing is handed to another
+ * thread, so the tasks can change the game without locks.
+ * <p>
+ * The wheel counts ticks, moved forward by advance(). A timeout is kept in the slot of the tick it is due, in a list with the others
+ * that are due in a tick with the same slot, so scheduling and cancelling only link or unlink it, however many timeouts there are.
+ * A tick only looks at its own slot, and timeouts further away than a turn of the wheel stay in it until their tick comes.
+ */
+public final class TimingWheel {
+	/**How many slots the wheel has. A power of 2, so the slot of a tick is its lowest bits*/
+	private static final int SLOTS = 512;
+	
+	private final Timeout[] slots = new Timeout[SLOTS];
+	private final int tickRate;
+	/**How many ticks have passed. Read by other threads for countdowns (see Timer)*/
+	private volatile long tick;
+	
+	/**A task that runs when its tick comes, or every time a number of ticks pass. Can be scheduled again after it runs or is
+	 * cancelled, on the same wheel or another, so a task that is started over and over (like a cooldown) only needs one*/
+	public static final class Timeout {
+		private final Runnable task;
+		private TimingWheel wheel;
+		private long deadline;
+		/**How many ticks between runs, or 0 if the task only runs once*/
+		private int period;
+		/**The slot that the timeout is in, or -1 if it isn't in one (it isn't scheduled, or is about to run)*/
+		private int slot = -1;
+		private boolean pending;
+		private Timeout previous, next;
+		/**The next timeout to run in this tick, while the due timeouts run*/
+		private Timeout nextDue;
+	
+		public Timeout(Runnable task) {
+			this.task = task;
+		}
+		/**Stops the task from running, if it hasn't yet*/
+		public void cancel() {
+			if (!pending) return;
+			pending = false;
+			if (slot >= 0) wheel.unlink(this);
+		}
+		/**@return If the task is waiting to run*/
+		public boolean isPending() {
+			return pending;
+		}
+	}
+	
+	/**@param tickRate How many times per second advance() is called*/
+	public TimingWheel(int tickRate) {
+		this.tickRate = tickRate;
+	}
+	/**@return The timeout of the task, which runs once after the delay in milliseconds*/
+	public Timeout schedule(Runnable task, int delay) {
+		Timeout timeout = new Timeout(task);
+		schedule(timeout, delay);
+		return timeout;
+	}
+	/**@return The timeout of the task, which runs every period in milliseconds*/
+	public Timeout scheduleRepeating(Runnable task, int period) {
+		Timeout timeout = new Timeout(task);
+		scheduleRepeating(timeout, period);
+		return timeout;
+	}
+	/**Runs the timeout once after the delay in milliseconds. If it is already scheduled, it is moved*/
+	public void schedule(Timeout timeout, int delay) {
+		timeout.cancel();
+		timeout.period = 0;
+		link(timeout, tick + toTicks(delay));
+	}
+	/**Runs the timeout every period in milliseconds. If it is already scheduled, it is moved*/
+	public void scheduleRepeating(Timeout timeout, int period) {
+		timeout.cancel();
+		timeout.period = toTicks(period);
+		link(timeout, tick + timeout.period);
+	}
+	/**@return How many ticks the milliseconds take, rounded up so a task never runs early, and at least 1*/
+	public int toTicks(int millis) {
+		return Math.max(1, (int) (((long) millis * tickRate + 999) / 1000));
+	}
+	/**Moves to the next tick, and runs the tasks that are due*/
+	public void advance() {
+		long tick = this.tick + 1;
+		this.tick = tick;
+		int slot = (int) tick & (SLOTS - 1);
+		//The due timeouts are taken out of the slot first, so the tasks can schedule and cancel timeouts (including the ones still to run)
+		Timeout due = null;
+		for (Timeout t = slots[slot]; t != null;) {
+			Timeout next = t.next;
+			if (t.deadline <= tick) {
+				unlink(t);
+				t.nextDue = due;
+				due = t;
+			}
+			t = next;
+		}
+		while (due != null) {
+			Timeout t = due;
+			due = t.nextDue;
+			t.nextDue = null;
+			//Cancelled or scheduled again by a task that ran before it in this tick
+			if (!t.pending || t.slot >= 0) continue;
+			if (t.period > 0) link(t, tick + t.period);
+			else t.pending = false;
+			try {
+				t.task.run();
+			} catch (RuntimeException e) {
+				//One task failing shouldn't stop the others, so it is printed and the wheel carries on
+				e.printStackTrace();
+			}
+		}
+	}
+	/**Runs every tick up to the given one, for a wheel that counts time instead of being ticked (see GameClient)*/
+	public void advanceTo(long tick) {
+		while (this.tick < tick) {
+			advance();
+		}
+	}
+	/**@return How many ticks have passed since the wheel was made*/
+	public long getTick() {
+		return tick;
+	}
+	/**@return How many ticks there are in a second*/
+	public int getTickRate() {
+		return tickRate;
+	}
+	private void link(Timeout t, long deadline) {
+		t.wheel = this;
+		t.deadline = deadline;
+		t.pending = true;
+		t.slot = (int) deadline & (SLOTS - 1);
+		t.previous = null;
+		t.next = slots[t.slot];
+		if (t.next != null) t.next.previous = t;
+		slots[t.slot] = t;
+	}
+	private void unlink(Timeout t) {
+		if (t.previous != null) t.previous.next = t.next;
+		else slots[t.slot] = t.next;
+		if (t.next != null) t.next.previous = t.previous;
+		t.previous = null;
+		t.next = null;
+		t.slot = -1;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,223 @@
+package chris.fortress.server;
+
+import chris.fortress.Room;
+import chris.fortress.entity.player.PlayerSocket;
+import chris.fortress.socket.ConnectionThreads;
+import chris.fortress.socket.Protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**A front process that spreads the players over several server processes on this computer. It listens on PlayerSocket.PORT like a
+ * server, and sends every client that joins to one of its servers (see Protocol.REDIRECT). The servers are started by the lobby on the
+ * ports after its own, with the map from -Dfortress.map, and print their player count and tick time every second (see Room.STATUS).
+ * A client is sent to the match with the shortest tick among the servers that have players and room for more, so matches fill up, and
+ * to an empty server only when every match is full or busy. Servers are started ahead of time so that SPARE of them are always empty
+ * and ready, and a new match starts without waiting for a server to load the map. Other -Dfortress settings are passed on to the servers
+ */
+public class Lobby {
+	/**How many servers are started with the lobby*/
+	private static final int FIRST_BACKENDS = Integer.getInteger("fortress.backends", 2);
+	/**How many empty servers are kept ready for new matches*/
+	private static final int SPARE = Integer.getInteger("fortress.spareBackends", 1);
+	private static final int MAX_BACKENDS = Integer.getInteger("fortress.maxBackends", Runtime.getRuntime().availableProcessors());
+	/**A server with this many players takes no more*/
+	private static final int BACKEND_PLAYERS = Integer.getInteger("fortress.backendPlayers", 16);
+	/**A server whose slowest room takes longer than this to tick takes no more players, in microseconds: 80% of a tick, at the tick rate
+	 * that the servers are started with (-Dfortress.tickRate is passed on to them, see Room.TICK_RATE)*/
+	private static final int BUSY_TICK_MICROS = 1_000_000 / Room.TICK_RATE * 8 / 10;
+	/**How long a client waits for a server to be ready before it is turned away, in milliseconds*/
+	private static final long READY_WAIT = 10_000;
+	/**A client sent to a server that hasn't shown up in its STATUS lines after this long is taken to have given up, in milliseconds*/
+	private static final long PENDING_TIME = 10_000;
+
+	/**Every server that has been started and hasn't stopped. Also locks the fields of the servers*/
+	private static final List<Backend> backends = new ArrayList<>();
+	private static String map;
+	private static int nextPort = PlayerSocket.PORT + 1;
+
+	/**A server process started by the lobby*/
+	private static final class Backend {
+		private final int port;
+		private final Process process;
+		/**False until the server has loaded the map and printed its first STATUS line*/
+		private boolean ready;
+		/**The player count of the last STATUS line, plus the clients sent to the server that it hasn't counted yet*/
+		private int players;
+		private int tickMicros;
+		/**The player count of the last STATUS line*/
+		private int reported;
+		/**When each client that the server hasn't counted yet was sent to it, oldest first*/
+		private final ArrayDeque<Long> pending = new ArrayDeque<>();
+
+		private Backend(int port, Process process) {
+			this.port = port;
+			this.process = process;
+		}
+	}
+
+	public static void main(String[] arg) throws IOException {
+		map = System.getProperty("fortress.map");
+		if (map == null) {
+			System.out.println("Start the lobby with -Dfortress.map=<map file name>");
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(Lobby::stopBackends));
+		synchronized (backends) {
+			for (int i = 0; i < FIRST_BACKENDS; i++) {
+				startBackend();
+			}
+		}
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(PlayerSocket.PORT));
+		System.out.println("Lobby listening on port " + PlayerSocket.PORT);
+		while (true) {
+			SocketChannel channel = serverChannel.accept();
+			ConnectionThreads.newThread("Lobby-client", () -> redirect(channel)).start();
+		}
+	}
+	/**Reads the client's name and room, and sends the client to a server*/
+	private static void redirect(SocketChannel channel) {
+		PlayerSocket pSocket = new PlayerSocket(channel);
+		//Everything the client sent is read before the connection is closed, so the answer isn't lost
+		pSocket.readString();
+		pSocket.readByte();
+		Backend backend = chooseBackend();
+		if (backend != null) {
+			pSocket.writeMessage(Protocol.REDIRECT);
+			pSocket.writeShort((short) backend.port);
+			pSocket.flush();
+		}
+		pSocket.dispose();
+	}
+	/**@return The server to send a new client to, waiting up to READY_WAIT for one to be ready, or null if there is none*/
+	private static Backend chooseBackend() {
+		long end = System.currentTimeMillis() + READY_WAIT;
+		synchronized (backends) {
+			Backend best;
+			while ((best = findBackend()) == null) {
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0) return null;
+				try {
+					backends.wait(wait);
+				} catch (InterruptedException e) {
+					return null;
+				}
+			}
+			//Counted until the server's STATUS lines show it, so clients that join together aren't all sent to the same server
+			best.pending.add(System.currentTimeMillis());
+			best.players++;
+			keepSpares();
+			return best;
+		}
+	}
+	/**@return The match with the shortest tick that has room for another player, or an empty server if every match is full or busy*/
+	private static Backend findBackend() {
+		Backend best = null, empty = null;
+		for (Backend backend : backends) {
+			if (!backend.ready || backend.players >= BACKEND_PLAYERS || backend.tickMicros > BUSY_TICK_MICROS) continue;
+			if (backend.players == 0) {
+				if (empty == null) empty = backend;
+			} else if (best == null || backend.tickMicros < best.tickMicros || backend.tickMicros == best.tickMicros && backend.players < best.players) {
+				best = backend;
+			}
+		}
+		return best != null ? best : empty;
+	}
+	/**Starts servers until SPARE of them are empty or still starting, up to MAX_BACKENDS. Called with the backends lock held*/
+	private static void keepSpares() {
+		int spare = 0;
+		for (Backend backend : backends) {
+			if (!backend.ready || backend.players == 0) spare++;
+		}
+		for (; spare < SPARE && backends.size() < MAX_BACKENDS; spare++) {
+			startBackend();
+		}
+	}
+	/**Starts a server on the next port. Called with the backends lock held*/
+	private static void startBackend() {
+		int port = nextPort++;
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+			String key = property.getKey().toString();
+			if (key.startsWith("fortress.") && !key.equals("fortress.port") && !key.equals("fortress.map")) {
+				command.add("-D" + key + "=" + property.getValue());
+			}
+		}
+		command.add("-Dfortress.port=" + port);
+		command.add("-Dfortress.map=" + map);
+		command.add("-Dfortress.lobbyStatus=true");
+		//The servers are headless, and get their settings from the properties above
+		command.add(ServerLauncher.class.getName());
+		try {
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			Backend backend = new Backend(port, process);
+			backends.add(backend);
+			Thread output = new Thread(() -> readOutput(backend), "Server-" + port);
+			output.setDaemon(true);
+			output.start();
+			System.out.println("Starting server on port " + port);
+		} catch (IOException e) {
+			System.out.println("Unable to start a server: " + e.getMessage());
+		}
+	}
+	/**Reads the output of a server until it stops. STATUS lines update its load, and the other lines are printed*/
+	private static void readOutput(Backend backend) {
+		try (BufferedReader output = new BufferedReader(new InputStreamReader(backend.process.getInputStream()))) {
+			String line;
+			while ((line = output.readLine()) != null) {
+				if (line.startsWith(Room.STATUS)) {
+					String[] load = line.substring(Room.STATUS.length()).split(" ");
+					synchronized (backends) {
+						setPlayers(backend, Integer.parseInt(load[0]));
+						backend.tickMicros = Integer.parseInt(load[1]);
+						backend.ready = true;
+						keepSpares();
+						backends.notifyAll();
+					}
+				} else {
+					System.out.println("[" + backend.port + "] " + line);
+				}
+			}
+		} catch (IOException e) {
+			//Server has stopped - ignore exception
+		}
+		synchronized (backends) {
+			backends.remove(backend);
+			System.out.println("Server on port " + backend.port + " stopped");
+			keepSpares();
+		}
+	}
+	/**Updates the player count of a server from a STATUS line. Clients sent to it that have joined since the last one are no longer
+	 * pending, and neither are clients that have taken too long. Called with the backends lock held*/
+	private static void setPlayers(Backend backend, int reported) {
+		for (int joined = reported - backend.reported; joined > 0 && !backend.pending.isEmpty(); joined--) {
+			backend.pending.remove();
+		}
+		long expired = System.currentTimeMillis() - PENDING_TIME;
+		while (!backend.pending.isEmpty() && backend.pending.peek() < expired) {
+			backend.pending.remove();
+		}
+		backend.reported = reported;
+		backend.players = reported + backend.pending.size();
+	}
+	private static void stopBackends() {
+		synchronized (backends) {
+			for (Backend backend : backends) {
+				backend.process.destroy();
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,32 @@
+package chris.fortress.server;
+
+import chris.fortress.StartHeadless;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+
+/**The class that starts a dedicated server, with the headless backend so it runs without a display or OpenGL. Settings are given as
+ * arguments, for example: --map example.map --port 1235 --rooms 4 --maxPlayers 16. Each one sets the -Dfortress property of the same
+ * name (see setProperties()), so any of those can be given this way*/
+public class ServerLauncher {
+	public static void main(String[] arg) {
+		//Properties are read when the classes that use them are loaded, so they must be set before anything else
+		if (!setProperties(arg) || System.getProperty("fortress.map") == null) {
+			System.out.println("Usage: ServerLauncher --map <map file> [--port <port>] [--rooms <rooms>] [--maxPlayers <players per room>]");
+			System.exit(1);
+		}
+		HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+		//Nothing is drawn, so the render loop only has to keep the application running
+		config.renderInterval = 1/60f;
+		new HeadlessApplication(new StartHeadless(System.getProperty("fortress.map")), config);
+	}
+	/**Sets -Dfortress.name=value for every pair of arguments --name value
+	 * @return False if the arguments aren't in pairs like that*/
+	static boolean setProperties(String[] arg) {
+		if (arg.length % 2 != 0) return false;
+		for (int i = 0; i < arg.length; i += 2) {
+			if (!arg[i].startsWith("--") || arg[i].length() == 2) return false;
+			System.setProperty("fortress." + arg[i].substring(2), arg[i + 1]);
+		}
+		return true;
+	}
+}
\ No newline at end of file